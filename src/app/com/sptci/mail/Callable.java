@@ -1,19 +1,21 @@
 package com.sptci.mail;
 
 import java.io.IOException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.mail.Address;
 import javax.mail.Flags;
 import javax.mail.Message;
 import javax.mail.MessagingException;
+import javax.mail.internet.InternetAddress;
 
+import org.apache.lucene.document.DateTools;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.index.Term;
 
 /**
  * The base class of all {@link java.util.concurrent.Callable} that is used
@@ -23,18 +25,14 @@ import org.apache.lucene.queryParser.ParseException;
  * @author Rakesh Vidyadharan 2007-06-08
  * @version $Id: Callable.java 52 2009-03-10 19:11:21Z sptrakesh $
  */
-abstract class Callable implements java.util.concurrent.Callable
+abstract class Callable
+  implements java.util.concurrent.Callable<Boolean>
 {
   /**
    * The logger to use to log errors or messages to.
    */
   static final Logger logger = MailSession.logger;
   
-  /**
-   * The date formatter to use to store dates.
-   */
-  final SimpleDateFormat sdf = new SimpleDateFormat( "yyyyMMddHHmmss" );
-  
   /**
    * The controller indexer from which all indexer tasks are initiated.
    */
@@ -58,13 +56,85 @@ abstract class Callable implements java.util.concurrent.Callable
   }
   
   /**
-   * Convenience method for {@link Indexer#getWriter}.
+   * Return the key that identifies the work performed by this task.  Tasks
+   * with the same key that are waiting to be executed are coalesced.  The
+   * default implementation returns <code>null</code>, which disables
+   * coalescing.
+   *
+   * @see TaskScheduler#submit( String, String, TaskScheduler.Priority, java.util.concurrent.Callable )
+   * @return The key for the task.
+   */
+  String getKey()
+  {
+    return null;
+  }
+
+  /**
+   * Return the priority with which this task is to be executed.  The
+   * default implementation returns {@link
+   * TaskScheduler.Priority#INTERACTIVE}, since most tasks are queued in
+   * response to user actions.
+   *
+   * @return The priority for the task.
+   */
+  TaskScheduler.Priority getPriority()
+  {
+    return TaskScheduler.Priority.INTERACTIVE;
+  }
+
+  /**
+   * Return the record that describes the work performed by this task in
+   * the {@link IndexJournal}.  The first field of the record identifies
+   * the type of task.  The default implementation returns
+   * <code>null</code>, which indicates that the task is not journaled.
+   * Tasks that index messages are not journaled, since the folder scans
+   * queued when the user logs in pick up any messages that were not
+   * indexed.
+   *
+   * @see Indexer#createTask
+   * @return The journal record for the task.
+   */
+  String[] getJournalRecord()
+  {
+    return null;
+  }
+
+  /**
+   * Add the specified document to the search indices, replacing the
+   * document with the same {@link KeyFields#messageKey} if it has already
+   * been indexed.  The document is written to the shard of its folder if
+   * the indices are sharded.  The key includes the folder, hence the
+   * document cannot exist in a different shard.
    *
-   * @return The writer to use to update the search indices.
+   * @see Indexer#setModified
+   * @param document The document that is to be added or replaced.
+   * @throws IOException If errors are encountered while writing the
+   *   indices.
    */
-  IndexWriter getWriter()
+  void updateDocument( final Document document ) throws IOException
   {
-    return indexer.getWriter();
+    indexer.getWriter( document.get( Fields.folder.toString() ) )
+      .updateDocument( new Term( KeyFields.messageKey.toString(),
+            document.get( KeyFields.messageKey.toString() ) ), document );
+    indexer.setModified();
+  }
+
+  /**
+   * Delete the documents that contain the specified term from the search
+   * indices (all the shards if the indices are sharded).
+   *
+   * @see Indexer#setModified
+   * @param term The term used to identify the documents to delete.
+   * @throws IOException If errors are encountered while writing the
+   *   indices.
+   */
+  void deleteDocuments( final Term term ) throws IOException
+  {
+    for ( IndexWriter writer : indexer.getWriters() )
+    {
+      writer.deleteDocuments( term );
+    }
+    indexer.setModified();
   }
 
   /**
@@ -77,108 +147,219 @@ abstract class Callable implements java.util.concurrent.Callable
   
   /**
    * Index the specified message.  Used by the concrete sub-class
-   * instances to perform the actual indexing work.
-   *
-   * <p><b>Note:</b> This method expects that the {@link Indexer#writer} has
-   * been properly initialised using {@link Indexer#getWriter} method
-   * before being invoked.</p>
+   * instances to perform the actual indexing work.  The document replaces
+   * any existing document for the message, hence messages that have
+   * already been indexed are not duplicated.
    *
+   * @see #createDocument
+   * @see #updateDocument
    * @param message The message that is to be indexed.
    * @throws MessagingException If errors are encountered while indexing
    *   the message
-   * @throws ParseException If errors are encountered while checking the
-   *   index for preexisting message.
    * @throws IOException If errors are encountered while reading/writing the
    *   indices.
    */
   void indexMessage( final Message message )
-    throws MessagingException, ParseException, IOException
+    throws MessagingException, IOException
   {
-    String messageId = MessageHandler.getMessageId( message );
-
     if ( ! message.isSet( Flags.Flag.DELETED ) )
     {
-      MessageHandler handler = new MessageHandler( message, indexer.session );
-      Document document = new Document();
-      String uid = indexer.session.getFolderManager().impl.getUID( message );
-      if ( uid == null ) uid = "";
-      document.add( new Field( Fields.uniqueId.toString(), uid,
-            Field.Store.YES, Field.Index.TOKENIZED ) );
-      document.add( new Field( Fields.messageId.toString(), messageId,
-            Field.Store.YES, Field.Index.TOKENIZED ) );
-      document.add( new Field( Fields.folder.toString(),
+      updateDocument( createDocument( message,
             message.getFolder().getFullName(),
-            Field.Store.YES, Field.Index.TOKENIZED ) );
-      
-      String subject = "";
-      if ( handler.getSubject() != null )
-      {
-        subject = handler.getSubject();
-      }
-      document.add( new Field( Fields.subject.toString(), subject,
-            Field.Store.YES, Field.Index.TOKENIZED ) );
-      document.add( new Field( SortFields.subjectSort.toString(), subject,
-            Field.Store.NO, Field.Index.UN_TOKENIZED ) );
+            Indexer.getUIDValidity( message.getFolder() ),
+            getUID( message ) ) );
+      logger.info( "added index for message: " +
+          MessageHandler.getMessageId( message ) );
+    }
+  }
 
+  /**
+   * Create the document that represents the specified message in the
+   * search indices.  This method does not write to the indices or access
+   * the folder of the message, and may be invoked concurrently from
+   * multiple threads.  The folder is recorded using its {@link FolderIds
+   * identifier}, which is assigned if necessary, and the owner of the
+   * message using {@link KeyFields#userKey}.
+   *
+   * <p>The content of the message is extracted using a {@link
+   * ContentReader}.  The content of a {@link DetachedMessage} is read
+   * into the document right away, so that the work is done by the caller
+   * (a parser thread).  The content of other messages is streamed from
+   * the store when the document is added to the indices.</p>
+   *
+   * @see IndexPipeline
+   * @param message The message that is to be indexed.
+   * @param folder The full name of the folder in which the message exists.
+   * @param uidValidity The <code>UIDVALIDITY</code> of the folder.
+   * @param uid The <code>UID</code> of the message in the folder.
+   * @return The document to add to the indices.
+   * @throws MessagingException If errors are encountered while parsing
+   *   the message
+   * @throws IOException If errors are encountered while reading the
+   *   message content.
+   */
+  Document createDocument( final Message message, final String folder,
+      final long uidValidity, final String uid )
+    throws MessagingException, IOException
+  {
+    String messageId = MessageHandler.getMessageId( message );
+    String folderId = indexer.folders.getId( folder );
+    Document document = new Document();
+    document.add( new Field( KeyFields.messageKey.toString(),
+          Indexer.getMessageKey( folderId, uidValidity, uid, messageId ),
+          Field.Store.YES, Field.Index.UN_TOKENIZED ) );
+    document.add( new Field( Fields.uniqueId.toString(), uid,
+          Field.Store.YES, Field.Index.TOKENIZED ) );
+    document.add( new Field( Fields.messageId.toString(), messageId,
+          Field.Store.YES, Field.Index.TOKENIZED ) );
+    document.add( new Field( Fields.folder.toString(), folderId,
+          Field.Store.YES, Field.Index.NO ) );
+    addKeys( document, uid, messageId, folderId );
+    document.add( new Field( KeyFields.userKey.toString(), indexer.user,
+          Field.Store.NO, Field.Index.UN_TOKENIZED ) );
+    
+    String subject = message.getSubject();
+    if ( subject == null ) subject = "";
+    document.add( new Field( Fields.subject.toString(), subject,
+          Field.Store.YES, Field.Index.TOKENIZED ) );
+    document.add( new Field( SortFields.subjectSort.toString(), subject,
+          Field.Store.NO, Field.Index.UN_TOKENIZED ) );
+
+    final ContentReader reader =
+      new ContentReader( message, indexer.contentLimit );
+    if ( message instanceof DetachedMessage )
+    {
       StringBuilder builder = new StringBuilder( 1024 );
-      for ( String body : handler.getText() )
+      char[] buffer = new char[4096];
+      int count;
+      while ( ( count = reader.read( buffer, 0, buffer.length ) ) != -1 )
       {
-        builder.append( body ).append( " " );
+        builder.append( buffer, 0, count );
       }
-      document.add( new Field( Fields.content.toString(),
-            builder.toString(),
-            Field.Store.NO, Field.Index.TOKENIZED) );
-
-      String from = handler.getSender();
-      from = ( from == null ) ? "Unknown" : from;
-      document.add( new Field( Fields.from.toString(), from,
-            Field.Store.YES, Field.Index.TOKENIZED ) );
-      document.add( new Field( SortFields.fromSort.toString(), from,
-            Field.Store.NO, Field.Index.UN_TOKENIZED ) );
-
-      String value = "";
-      Date date = handler.getDate();
-      if ( date != null )
-      {
-        value = sdf.format( date );
-      }
-      document.add( new Field( Fields.date.toString(), value,
-            Field.Store.YES, Field.Index.TOKENIZED ) );
-      document.add( new Field( SortFields.dateSort.toString(), value,
-            Field.Store.NO, Field.Index.UN_TOKENIZED ) );
 
-      indexer.writer.addDocument( document ); 
-      logger.info( "added index for message: " + messageId );
+      reader.close();
+      document.add( new Field( Fields.content.toString(),
+            builder.toString(), Field.Store.NO, Field.Index.TOKENIZED ) );
     }
+    else
+    {
+      document.add( new Field( Fields.content.toString(), reader ) );
+    }
+
+    String from = MessageHandler.getSender( message );
+    from = ( from == null ) ? "Unknown" : from;
+    document.add( new Field( Fields.from.toString(), from,
+          Field.Store.YES, Field.Index.TOKENIZED ) );
+    document.add( new Field( SortFields.fromSort.toString(), from,
+          Field.Store.NO, Field.Index.UN_TOKENIZED ) );
+    addSender( document, message, from );
+
+    Date date = MessageHandler.getDate( message );
+    String value = DateCodec.format( date );
+    document.add( new Field( Fields.date.toString(), value,
+          Field.Store.YES, Field.Index.TOKENIZED ) );
+    document.add( new Field( SortFields.dateSort.toString(), value,
+          Field.Store.NO, Field.Index.UN_TOKENIZED ) );
+    document.add( new Field( StoredFields.dateMillis.toString(),
+          ( date == null ) ? "0" : String.valueOf( date.getTime() ),
+          Field.Store.YES, Field.Index.NO ) );
+    if ( date != null ) addDateKeys( document, date.getTime() );
+
+    return document;
   }
-  
+
   /**
-   * Create the unique identifier for the specified message.  This is
-   * created as a concatenation of the <code>message-id</code> and
-   * <code>folder</code> name.
+   * Add the {@link StoredFields#fromName} and {@link
+   * StoredFields#fromAddress} fields for the sender of the message.  The
+   * address is split at index time so that the message list does not
+   * have to parse it.  The lower case address is also indexed as the
+   * {@link KeyFields#senderKey} for counting by {@link Facets#sender}.
    *
-   * @see Indexer#getUniqueId( String, String )
-   * @param message The message for which the unique identifier is to be
-   *   generated.
-   * @return The unique identifier for the message.
+   * @param document The document to which the fields are to be added.
+   * @param message The message whose sender is to be stored.
+   * @param from The string representation of the sender, used as the
+   *   address if the sender is not an internet address.
    * @throws MessagingException If errors are encountered while fetching
-   *   properties from the message.
+   *   the sender.
    */
-  String getUniqueId( final Message message ) throws MessagingException
+  private static void addSender( final Document document,
+      final Message message, final String from ) throws MessagingException
   {
-    return ( getUniqueId( MessageHandler.getMessageId( message ),
-          message.getFolder().getFullName() ) );
+    String name = "";
+    String address = from;
+
+    final Address[] addresses = message.getFrom();
+    if ( addresses != null && addresses.length > 0 &&
+        addresses[0] instanceof InternetAddress )
+    {
+      final InternetAddress sender = (InternetAddress) addresses[0];
+      if ( sender.getPersonal() != null ) name = sender.getPersonal();
+      if ( sender.getAddress() != null ) address = sender.getAddress();
+    }
+
+    document.add( new Field( StoredFields.fromName.toString(), name,
+          Field.Store.YES, Field.Index.NO ) );
+    document.add( new Field( StoredFields.fromAddress.toString(), address,
+          Field.Store.YES, Field.Index.NO ) );
+    document.add( new Field( KeyFields.senderKey.toString(),
+          address.toLowerCase(), Field.Store.NO, Field.Index.UN_TOKENIZED ) );
   }
 
   /**
-   * Convenience method around {@link Indexer#getUniqueId}.
+   * Add the un-tokenised {@link DateFields} used to filter messages by
+   * date range.
+   *
+   * @see DateRangeFilter
+   * @param document The document to which the fields are to be added.
+   * @param time The date of the message in milliseconds.
+   */
+  private static void addDateKeys( final Document document, final long time )
+  {
+    document.add( new Field( DateFields.dateKey.toString(),
+          DateRangeFilter.encode( time ),
+          Field.Store.NO, Field.Index.UN_TOKENIZED ) );
+    document.add( new Field( DateFields.dateDay.toString(),
+          DateTools.timeToString( time, DateTools.Resolution.DAY ),
+          Field.Store.NO, Field.Index.UN_TOKENIZED ) );
+    document.add( new Field( DateFields.dateMonth.toString(),
+          DateTools.timeToString( time, DateTools.Resolution.MONTH ),
+          Field.Store.NO, Field.Index.UN_TOKENIZED ) );
+  }
+
+  /**
+   * Return the <code>UID</code> assigned to the message by the store.
+   *
+   * @see ProtocolFolderManager#getUID
+   * @param message The message whose UID is to be returned.
+   * @return The UID of the message.  Returns an empty string if the store
+   *   does not assign UIDs.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the UID.
+   */
+  String getUID( final Message message ) throws MessagingException
+  {
+    String uid = indexer.session.getFolderManager().impl.getUID( message );
+    return ( uid == null ) ? "" : uid;
+  }
+  
+  /**
+   * Add the un-tokenised {@link KeyFields} used for exact lookups to the
+   * specified document.
    *
-   * @param messageId The unique id for the message.
-   * @param folder The full name of the folder in which the message belongs.
-   * @return The unique identifier for the message.
+   * @param document The document to which the keys are to be added.
+   * @param uniqueId The {@link Fields#uniqueId} value for the document.
+   * @param messageId The {@link Fields#messageId} value for the document.
+   * @param folder The {@link FolderIds identifier} of the folder of the
+   *   document.
    */
-  String getUniqueId( final String messageId, final String folder )
+  static void addKeys( final Document document, final String uniqueId,
+      final String messageId, final String folder )
   {
-    return indexer.getUniqueId( messageId, folder );
+    document.add( new Field( KeyFields.uniqueIdKey.toString(), uniqueId,
+          Field.Store.NO, Field.Index.UN_TOKENIZED ) );
+    document.add( new Field( KeyFields.messageIdKey.toString(), messageId,
+          Field.Store.NO, Field.Index.UN_TOKENIZED ) );
+    document.add( new Field( KeyFields.folderKey.toString(), folder,
+          Field.Store.NO, Field.Index.UN_TOKENIZED ) );
   }
 }
@@ -0,0 +1,61 @@
+package com.sptci.mail;
+
+import java.util.logging.Level;
+
+/**
+ * The {@link java.util.concurrent.Callable} instance used to queue a
+ * commit barrier.  The barrier is executed with {@link
+ * TaskScheduler.Priority#INTERACTIVE} priority.  Tasks with the same
+ * priority are executed in the order in which they are queued, hence the
+ * updates of all the interactive tasks (copies, moves, de-indexing etc.)
+ * queued before this task are visible to searches once it completes.
+ * Background folder scans queued before it are not waited for.  Queued
+ * by {@link Indexer#commit}.
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+class Committer extends Callable
+{
+  /**
+   * Create a new instance of the barrier.
+   *
+   * @param indexer The {@link #indexer} to use.
+   * @param searcher The {@link #searcher} to use.
+   */
+  Committer( final Indexer indexer, final MessageSearcher searcher )
+  {
+    super( indexer, searcher );
+  }
+
+  /**
+   * Commit all the pending updates in the {@link #indexer}, and swap in a
+   * searcher that reflects them.  The searcher is normally re-opened in
+   * the background once the indices change, hence it is acquired through
+   * {@link MessageSearcher#acquire}, which re-opens an out of date
+   * searcher in the calling thread.  The barrier therefore completes only
+   * once searches see the updates.
+   *
+   * @return Returns <code>true</code> if the updates are visible to
+   *   searches.
+   */
+  public Boolean call()
+  {
+    boolean result = true;
+
+    try
+    {
+      indexer.commitWriter();
+      searcher.release( searcher.acquire() );
+    }
+    catch ( Throwable t )
+    {
+      result = false;
+      logger.log( Level.WARNING, "Error re-opening searcher for user: " +
+          indexer.user, t );
+    }
+
+    return result;
+  }
+}
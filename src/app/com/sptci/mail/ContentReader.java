@@ -0,0 +1,437 @@
+package com.sptci.mail;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.util.LinkedList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.Multipart;
+import javax.mail.Part;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.MimePart;
+import javax.mail.internet.MimeUtility;
+
+import com.mirrorworlds.lifestreams.mail.tnef.internet.TnefMultipart;
+import com.mirrorworlds.lifestreams.mail.tnef.internet.TnefMultipartDataSource;
+
+/**
+ * A reader that streams the text content of a message for indexing.  The
+ * MIME parts of the message are walked lazily, and the content of each
+ * text part is decoded from the part input stream as it is read, so that
+ * the content of the message is never held in memory as a whole.  Only
+ * one alternative of <code>multipart/alternative</code> content is read
+ * (preferably the plain text one), and mark-up is stripped from HTML parts
+ * so that only the raw text reaches the analyser.  Parts that are not
+ * text (attachments) are never read.
+ *
+ * <p>The number of bytes of decoded part content that is read is capped at
+ * the limit specified when the reader is created.  Content beyond the
+ * limit is not indexed.  Errors encountered while reading a part are
+ * logged and the part is skipped, since a document cannot be partially
+ * indexed.</p>
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+class ContentReader extends Reader
+{
+  /**
+   * The logger to use to log errors and messages.
+   */
+  private static final Logger logger = MailSession.logger;
+
+  /**
+   * The character set to use if a text part does not specify a valid one.
+   *
+   * {@value}
+   */
+  private static final String DEFAULT_CHARSET = "ISO-8859-1";
+
+  /**
+   * The parts that are still to be read, in document order.
+   */
+  private final LinkedList<Part> parts = new LinkedList<Part>();
+
+  /**
+   * The reader for the text part currently being read.
+   */
+  private Reader current;
+
+  /**
+   * The number of bytes of part content that may still be read.
+   */
+  private long remaining;
+
+  /**
+   * Flag used to indicate that a separator is to be returned before the
+   * content of the next part, so that words in adjacent parts are not
+   * joined.
+   */
+  private boolean separator;
+
+  /**
+   * Create a new reader for the specified message or part.
+   *
+   * @param part The message or part whose text is to be read.
+   * @param limit The maximum number of bytes of content to read.  Specify
+   *   <code>0</code> or a negative value for no limit.
+   */
+  ContentReader( final Part part, final long limit )
+  {
+    parts.add( part );
+    remaining = ( limit > 0 ) ? limit : Long.MAX_VALUE;
+  }
+
+  /**
+   * Read characters from the text parts into the specified buffer.
+   *
+   * @param buffer The buffer into which the characters are to be read.
+   * @param offset The offset at which to start storing characters.
+   * @param length The maximum number of characters to read.
+   * @return The number of characters read, or <code>-1</code> if all the
+   *   text parts (or the limit) have been read.
+   */
+  @Override
+  public int read( final char[] buffer, final int offset, final int length )
+  {
+    if ( length == 0 ) return 0;
+
+    while ( true )
+    {
+      if ( current == null && ! next() ) return -1;
+
+      if ( separator )
+      {
+        separator = false;
+        buffer[offset] = ' ';
+        return 1;
+      }
+
+      int count = -1;
+      try
+      {
+        count = current.read( buffer, offset, length );
+      }
+      catch ( IOException ioex )
+      {
+        logger.log( Level.FINE, "Error reading message part", ioex );
+      }
+
+      if ( count > 0 ) return count;
+      closeCurrent();
+    }
+  }
+
+  /**
+   * Close the reader and release the part being read.
+   */
+  @Override
+  public void close()
+  {
+    closeCurrent();
+    parts.clear();
+  }
+
+  /**
+   * Advance to the next text part.  Multipart content is expanded in
+   * place, so that parts are read in document order.
+   *
+   * @return Returns <code>true</code> if {@link #current} has been opened.
+   */
+  private boolean next()
+  {
+    while ( remaining > 0 && ! parts.isEmpty() )
+    {
+      final Part part = parts.removeFirst();
+      try
+      {
+        if ( part.isMimeType( MessageHandler.MULTIPART_ALTERNATIVE ) )
+        {
+          final Part alternative =
+            getAlternative( (Multipart) part.getContent() );
+          if ( alternative != null ) parts.addFirst( alternative );
+        }
+        else if ( part.isMimeType( "multipart/*" ) )
+        {
+          addParts( (Multipart) part.getContent() );
+        }
+        else if ( part.isMimeType( "message/rfc822" ) )
+        {
+          parts.addFirst( (Part) part.getContent() );
+        }
+        else if ( part.isMimeType( MessageHandler.MS_TNEF ) )
+        {
+          addParts( new TnefMultipart(
+                new TnefMultipartDataSource( (MimePart) part ) ) );
+        }
+        else if ( part.isMimeType( "text/*" ) )
+        {
+          current = open( part );
+          return true;
+        }
+      }
+      catch ( Throwable t )
+      {
+        logger.log( Level.FINE, "Error reading message part", t );
+      }
+    }
+
+    parts.clear();
+    return false;
+  }
+
+  /**
+   * Add the parts of the specified multipart at the head of {@link
+   * #parts}.
+   *
+   * @param multipart The multipart whose parts are to be read next.
+   * @throws Exception If errors are encountered while reading the parts.
+   */
+  private void addParts( final Multipart multipart ) throws Exception
+  {
+    for ( int i = multipart.getCount() - 1; i >= 0; --i )
+    {
+      parts.addFirst( multipart.getBodyPart( i ) );
+    }
+  }
+
+  /**
+   * Return the alternative to read from the specified
+   * <code>multipart/alternative</code> content.  The plain text
+   * alternative is preferred, and the last (richest) alternative is used
+   * if there is no plain text alternative.
+   *
+   * @param multipart The alternatives.
+   * @return The alternative to read, or <code>null</code> if there are no
+   *   alternatives.
+   * @throws Exception If errors are encountered while reading the parts.
+   */
+  private Part getAlternative( final Multipart multipart ) throws Exception
+  {
+    Part result = null;
+    for ( int i = 0; i < multipart.getCount(); ++i )
+    {
+      result = multipart.getBodyPart( i );
+      if ( result.isMimeType( MessageHandler.TEXT_PLAIN ) ) break;
+    }
+
+    return result;
+  }
+
+  /**
+   * Open a reader for the decoded content of the specified text part.
+   *
+   * @param part The text part that is to be read.
+   * @return The reader for the part content.
+   * @throws Exception If errors are encountered while opening the part.
+   */
+  private Reader open( final Part part ) throws Exception
+  {
+    String charset = null;
+    try
+    {
+      charset = new ContentType( part.getContentType() ).getParameter( "charset" );
+    }
+    catch ( Throwable t ) {}
+
+    final InputStream stream = new LimitedInputStream( part.getInputStream() );
+    Reader reader;
+    try
+    {
+      reader = new InputStreamReader( stream, ( charset == null ) ?
+          DEFAULT_CHARSET : MimeUtility.javaCharset( charset ) );
+    }
+    catch ( UnsupportedEncodingException ueex )
+    {
+      reader = new InputStreamReader( stream, DEFAULT_CHARSET );
+    }
+
+    if ( part.isMimeType( MessageHandler.TEXT_HTML ) )
+    {
+      reader = new HtmlReader( reader );
+    }
+
+    return reader;
+  }
+
+  /**
+   * Close {@link #current} if open.
+   */
+  private void closeCurrent()
+  {
+    if ( current == null ) return;
+
+    try
+    {
+      current.close();
+    }
+    catch ( IOException ioex ) {}
+
+    current = null;
+    separator = true;
+  }
+
+  /**
+   * An input stream that stops returning content once the limit for the
+   * message has been read.
+   */
+  private class LimitedInputStream extends FilterInputStream
+  {
+    /**
+     * Create a new stream that reads from the specified stream.
+     *
+     * @param in The stream from which content is read.
+     */
+    private LimitedInputStream( final InputStream in )
+    {
+      super( in );
+    }
+
+    /**
+     * Read a single byte.
+     *
+     * @return The byte read, or <code>-1</code> at the end of the content
+     *   or limit.
+     * @throws IOException If errors are encountered while reading.
+     */
+    @Override
+    public int read() throws IOException
+    {
+      if ( remaining <= 0 ) return -1;
+
+      final int result = in.read();
+      if ( result != -1 ) --remaining;
+      return result;
+    }
+
+    /**
+     * Read bytes into the specified buffer.
+     *
+     * @param buffer The buffer into which the bytes are to be read.
+     * @param offset The offset at which to start storing bytes.
+     * @param length The maximum number of bytes to read.
+     * @return The number of bytes read, or <code>-1</code> at the end of
+     *   the content or limit.
+     * @throws IOException If errors are encountered while reading.
+     */
+    @Override
+    public int read( final byte[] buffer, final int offset, final int length )
+      throws IOException
+    {
+      if ( remaining <= 0 ) return -1;
+
+      final int count = in.read( buffer, offset,
+          (int) Math.min( length, remaining ) );
+      if ( count > 0 ) remaining -= count;
+      return count;
+    }
+  }
+
+  /**
+   * A reader that strips tags and character entities from HTML content.
+   * Each tag or entity is replaced by a single space.
+   */
+  private static class HtmlReader extends Reader
+  {
+    /**
+     * The reader from which the HTML content is read.
+     */
+    private final Reader in;
+
+    /**
+     * The buffer used to read the HTML content.
+     */
+    private final char[] input = new char[4096];
+
+    /**
+     * Flag used to indicate that the reader is within a tag.
+     */
+    private boolean tag;
+
+    /**
+     * Flag used to indicate that the reader is within a character entity.
+     */
+    private boolean entity;
+
+    /**
+     * Create a new reader that strips the content read from the specified
+     * reader.
+     *
+     * @param in The {@link #in} reader to use.
+     */
+    private HtmlReader( final Reader in )
+    {
+      this.in = in;
+    }
+
+    /**
+     * Read the text content into the specified buffer.
+     *
+     * @param buffer The buffer into which the characters are to be read.
+     * @param offset The offset at which to start storing characters.
+     * @param length The maximum number of characters to read.
+     * @return The number of characters read, or <code>-1</code> at the end
+     *   of the content.
+     * @throws IOException If errors are encountered while reading.
+     */
+    @Override
+    public int read( final char[] buffer, final int offset, final int length )
+      throws IOException
+    {
+      if ( length == 0 ) return 0;
+
+      int count = 0;
+      while ( count == 0 )
+      {
+        final int read = in.read( input, 0, Math.min( length, input.length ) );
+        if ( read == -1 ) return -1;
+
+        for ( int i = 0; i < read; ++i )
+        {
+          final char c = input[i];
+          if ( tag )
+          {
+            if ( c == '>' ) tag = false;
+          }
+          else if ( entity )
+          {
+            if ( c == ';' || Character.isWhitespace( c ) ) entity = false;
+          }
+          else if ( c == '<' )
+          {
+            tag = true;
+            buffer[offset + count++] = ' ';
+          }
+          else if ( c == '&' )
+          {
+            entity = true;
+            buffer[offset + count++] = ' ';
+          }
+          else
+          {
+            buffer[offset + count++] = c;
+          }
+        }
+      }
+
+      return count;
+    }
+
+    /**
+     * Close the {@link #in} reader.
+     *
+     * @throws IOException If errors are encountered while closing.
+     */
+    @Override
+    public void close() throws IOException
+    {
+      in.close();
+    }
+  }
+}
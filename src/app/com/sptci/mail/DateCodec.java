@@ -0,0 +1,68 @@
+package com.sptci.mail;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * The codec used to convert dates to and from the string representation
+ * stored in the search indices.  <code>SimpleDateFormat</code> is not
+ * thread-safe, hence each thread uses its own formatter.
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+final class DateCodec
+{
+  /**
+   * The pattern used to format dates.
+   *
+   * {@value}
+   */
+  static final String PATTERN = "yyyyMMddHHmmss";
+
+  /**
+   * The formatter for the current thread.
+   */
+  private static final ThreadLocal<SimpleDateFormat> formats =
+    new ThreadLocal<SimpleDateFormat>()
+    {
+      @Override
+      protected SimpleDateFormat initialValue()
+      {
+        return new SimpleDateFormat( PATTERN );
+      }
+    };
+
+  /**
+   * Utility class, not to be instantiated.
+   */
+  private DateCodec() {}
+
+  /**
+   * Format the specified date using {@link #PATTERN}.
+   *
+   * @param date The date to format.
+   * @return The formatted date.  Returns an empty string if
+   *   <code>date</code> is <code>null</code>.
+   */
+  static String format( final Date date )
+  {
+    return ( date == null ) ? "" : formats.get().format( date );
+  }
+
+  /**
+   * Parse the specified value formatted using {@link #PATTERN}.
+   *
+   * @param value The value to parse.
+   * @return The date represented by the value.  Returns
+   *   <code>null</code> if the value is <code>null</code> or empty.
+   * @throws ParseException If the value is not a valid date.
+   */
+  static Date parse( final String value ) throws ParseException
+  {
+    if ( value == null || value.length() == 0 ) return null;
+    return formats.get().parse( value );
+  }
+}
@@ -0,0 +1,20 @@
+package com.sptci.mail;
+
+/**
+ * The enumeration of keys used to store un-tokenised copies of the date
+ * of a message at different resolutions.  These are used by {@link
+ * DateRangeFilter} to restrict searches to a date range using a small
+ * number of terms.
+ *
+ * <ul>
+ *   <li>{@link #dateKey} - The date in milliseconds, encoded using
+ *   <code>NumberTools</code> so that terms sort in numeric order.</li>
+ *   <li>{@link #dateDay} - The day (<code>yyyyMMdd</code> in UTC).</li>
+ *   <li>{@link #dateMonth} - The month (<code>yyyyMM</code> in UTC).</li>
+ * </ul>
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+public enum DateFields { dateKey, dateDay, dateMonth }
@@ -0,0 +1,229 @@
+package com.sptci.mail;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.apache.lucene.document.DateTools;
+import org.apache.lucene.document.NumberTools;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.RangeFilter;
+
+/**
+ * A filter that restricts search results to messages dated within a
+ * range.  The range is decomposed into the coarsest terms that cover it:
+ * whole months are matched using a single {@link DateFields#dateMonth}
+ * term, whole days using a single {@link DateFields#dateDay} term, and
+ * only the partial days at the edges of the range are matched by
+ * enumerating {@link DateFields#dateKey} terms.  Hence the cost of the
+ * filter depends on the length of the range in months and days, and not
+ * on the number of messages in the range.
+ *
+ * <p>The filter computes a bit set and never expands into a query, hence
+ * it does not affect scoring and cannot exceed the boolean clause limit.
+ * Wrap instances in a <code>CachingWrapperFilter</code> to re-use the bit
+ * set across searches on the same reader.</p>
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+class DateRangeFilter extends Filter
+{
+  /**
+   * The version of the serialised form of this class.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The time zone in which days and months are computed.  Must match the
+   * time zone used by <code>DateTools</code>.
+   */
+  private static final TimeZone UTC = TimeZone.getTimeZone( "UTC" );
+
+  /**
+   * The start (inclusive) of the range in milliseconds.
+   * <code>null</code> if the range is open at the start.
+   */
+  private final Long from;
+
+  /**
+   * The end (inclusive) of the range in milliseconds.  <code>null</code>
+   * if the range is open at the end.
+   */
+  private final Long to;
+
+  /**
+   * Create a new filter for the specified range.  At least one of the
+   * bounds must be specified.
+   *
+   * @param from The start (inclusive) of the range.  Specify
+   *   <code>null</code> for a range that is open at the start.
+   * @param to The end (inclusive) of the range.  Specify
+   *   <code>null</code> for a range that is open at the end.
+   */
+  DateRangeFilter( final Date from, final Date to )
+  {
+    if ( from == null && to == null )
+    {
+      throw new IllegalArgumentException( "At least one bound is required" );
+    }
+
+    this.from = ( from == null ) ? null : from.getTime();
+    this.to = ( to == null ) ? null : to.getTime();
+  }
+
+  /**
+   * Encode the specified time as a {@link DateFields#dateKey} term.
+   *
+   * @param time The time in milliseconds.
+   * @return The encoded time.
+   */
+  static String encode( final long time )
+  {
+    return NumberTools.longToString( time );
+  }
+
+  /**
+   * Return the bits for the documents that are dated within the range.
+   *
+   * @param reader The reader for the indices.
+   * @return The bits for the matching documents.
+   * @throws IOException If errors are encountered while reading the
+   *   indices.
+   */
+  @Override
+  public BitSet bits( final IndexReader reader ) throws IOException
+  {
+    if ( from == null || to == null )
+    {
+      return new RangeFilter( DateFields.dateKey.toString(),
+          ( from == null ) ? null : encode( from ),
+          ( to == null ) ? null : encode( to ),
+          from != null, to != null ).bits( reader );
+    }
+
+    final BitSet bits = new BitSet( reader.maxDoc() );
+    final long end = to + 1;
+    long time = from;
+
+    while ( time < end )
+    {
+      final long month = add( time, Calendar.MONTH );
+      if ( DateTools.round( time, DateTools.Resolution.MONTH ) == time &&
+          month <= end )
+      {
+        addTerm( reader, bits, DateFields.dateMonth,
+            DateTools.timeToString( time, DateTools.Resolution.MONTH ) );
+        time = month;
+        continue;
+      }
+
+      final long start = DateTools.round( time, DateTools.Resolution.DAY );
+      final long day = add( start, Calendar.DAY_OF_MONTH );
+      if ( start == time && day <= end )
+      {
+        addTerm( reader, bits, DateFields.dateDay,
+            DateTools.timeToString( time, DateTools.Resolution.DAY ) );
+        time = day;
+        continue;
+      }
+
+      final long stop = Math.min( day, end );
+      bits.or( new RangeFilter( DateFields.dateKey.toString(),
+            encode( time ), encode( stop ), true, false ).bits( reader ) );
+      time = stop;
+    }
+
+    return bits;
+  }
+
+  /**
+   * Set the bits for the documents that contain the specified term.
+   *
+   * @param reader The reader for the indices.
+   * @param bits The bits to set.
+   * @param field The field of the term.
+   * @param value The value of the term.
+   * @throws IOException If errors are encountered while reading the
+   *   indices.
+   */
+  private void addTerm( final IndexReader reader, final BitSet bits,
+      final DateFields field, final String value ) throws IOException
+  {
+    final TermDocs termDocs =
+      reader.termDocs( new Term( field.toString(), value ) );
+    try
+    {
+      while ( termDocs.next() )
+      {
+        bits.set( termDocs.doc() );
+      }
+    }
+    finally
+    {
+      termDocs.close();
+    }
+  }
+
+  /**
+   * Add one unit of the specified calendar field to the time.
+   *
+   * @param time The time in milliseconds.
+   * @param field The calendar field to increment.
+   * @return The incremented time.
+   */
+  private static long add( final long time, final int field )
+  {
+    final Calendar calendar = Calendar.getInstance( UTC );
+    calendar.setTimeInMillis( time );
+    calendar.add( field, 1 );
+    return calendar.getTimeInMillis();
+  }
+
+  /**
+   * Compare the specified object with this filter for equality.
+   *
+   * @param object The object to compare with.
+   * @return Returns <code>true</code> if the object is a filter for the
+   *   same range.
+   */
+  @Override
+  public boolean equals( final Object object )
+  {
+    if ( this == object ) return true;
+    if ( ! ( object instanceof DateRangeFilter ) ) return false;
+
+    final DateRangeFilter filter = (DateRangeFilter) object;
+    return ( ( from == null ) ? filter.from == null : from.equals( filter.from ) ) &&
+      ( ( to == null ) ? filter.to == null : to.equals( filter.to ) );
+  }
+
+  /**
+   * Return a hash code for this filter based on the range.
+   *
+   * @return The hash code.
+   */
+  @Override
+  public int hashCode()
+  {
+    return 31 * ( ( from == null ) ? 0 : from.hashCode() ) +
+      ( ( to == null ) ? 0 : to.hashCode() );
+  }
+
+  /**
+   * Return a string representation of the range.
+   *
+   * @return The string representation.
+   */
+  @Override
+  public String toString()
+  {
+    return "DateRangeFilter[" + from + "," + to + "]";
+  }
+}
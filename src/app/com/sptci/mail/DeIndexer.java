@@ -2,7 +2,6 @@ package com.sptci.mail;
 
 import java.util.logging.Level;
 
-import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
 
 /**
@@ -16,28 +15,57 @@ import org.apache.lucene.index.Term;
 class DeIndexer extends Callable
 {
   /**
-   * The unique id that is a concatenation of the <code>folder name</code>
-   * and <code>message-id</code> values for a message.
+   * The {@link KeyFields#messageKey} of the message.
+   *
+   * @see Indexer#getMessageKey
    */
-  private final String uniqueId;
+  private final String messageKey;
 
   /**
-   * Create a new instance of the object using the specified unique id.
+   * The type of the {@link #getJournalRecord journal record}.
+   *
+   * {@value}
+   */
+  static final String JOURNAL_TYPE = "deIndex";
+
+  /**
+   * Create a new instance of the object using the specified message key.
    * 
    * @param indexer The {@link #indexer} to use.
    * @param searcher The {@link #searcher} to use.
-   * @param uniqueId The {@link #uniqueId} to use.
+   * @param messageKey The {@link #messageKey} to use.
    */
   DeIndexer( final Indexer indexer, final MessageSearcher searcher,
-      final String uniqueId )
+      final String messageKey )
   {
     super( indexer, searcher );
-    this.uniqueId = uniqueId;
+    this.messageKey = messageKey;
+  }
+
+  /**
+   * Return the key that identifies the message to de-index.
+   *
+   * @return The key for the task.
+   */
+  @Override
+  String getKey()
+  {
+    return "deIndex:" + messageKey;
+  }
+
+  /**
+   * Return the journal record for the task.
+   *
+   * @return The {@link #JOURNAL_TYPE} and the {@link #messageKey}.
+   */
+  @Override
+  String[] getJournalRecord()
+  {
+    return new String[] { JOURNAL_TYPE, messageKey };
   }
 
   /**
-   * De-index the message represented by {@link 
-   * Indexer.DeIndexer#uniqueId}.
+   * De-index the message represented by {@link #messageKey}.
    */
   public Boolean call()
   {
@@ -45,19 +73,15 @@ class DeIndexer extends Callable
 
     try
     {
-      IndexWriter writer = getWriter();
-      int start = writer.docCount();
-      Term term = new Term( Fields.uniqueId.toString(), uniqueId );
-      writer.deleteDocuments( term );
-      int end = writer.docCount();
-      logger.info( "Deleted document: " + uniqueId +
-            " leading to deleting " + ( end - start ) + " indices" );
+      Term term = new Term( KeyFields.messageKey.toString(), messageKey );
+      deleteDocuments( term );
+      logger.info( "Deleted document: " + messageKey );
     }
     catch (Throwable t)
     {
       result = false;
       logger.log( Level.WARNING, "Error deleting indexes for message: " +
-            uniqueId, t );
+            messageKey, t );
     }
     finally
     {
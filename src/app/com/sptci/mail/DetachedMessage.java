@@ -0,0 +1,102 @@
+package com.sptci.mail;
+
+import java.util.Date;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * An in-memory copy of a message fetched from a folder.  The copy
+ * captures the properties that are not part of the message content (the
+ * folder, <code>UIDVALIDITY</code>, <code>UID</code> and received date), so that the message may be
+ * parsed on a different thread without accessing the folder from which
+ * it was fetched.
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+class DetachedMessage extends MimeMessage
+{
+  /**
+   * The full name of the folder from which the message was fetched.
+   */
+  private final String folderName;
+
+  /**
+   * The <code>UIDVALIDITY</code> of the folder.
+   */
+  private final long uidValidity;
+
+  /**
+   * The <code>UID</code> of the message in the folder.
+   */
+  private final String uid;
+
+  /**
+   * The date on which the message was received.
+   */
+  private final Date receivedDate;
+
+  /**
+   * Create a copy of the specified message.  The content of the message
+   * is read from the store.
+   *
+   * @param source The message that is to be copied.
+   * @param folderName The {@link #folderName} to use.
+   * @param uidValidity The {@link #uidValidity} to use.
+   * @param uid The {@link #uid} to use.
+   * @throws MessagingException If errors are encountered while reading
+   *   the message.
+   */
+  DetachedMessage( final MimeMessage source, final String folderName,
+      final long uidValidity, final String uid ) throws MessagingException
+  {
+    super( source );
+    this.folderName = folderName;
+    this.uidValidity = uidValidity;
+    this.uid = uid;
+    this.receivedDate = source.getReceivedDate();
+  }
+
+  /**
+   * Returns {@link #folderName}.
+   *
+   * @return The full name of the folder.
+   */
+  String getFolderName()
+  {
+    return folderName;
+  }
+
+  /**
+   * Returns {@link #uidValidity}.
+   *
+   * @return The UIDVALIDITY of the folder.
+   */
+  long getUIDValidity()
+  {
+    return uidValidity;
+  }
+
+  /**
+   * Returns {@link #uid}.
+   *
+   * @return The UID of the message.
+   */
+  String getUID()
+  {
+    return uid;
+  }
+
+  /**
+   * Returns {@link #receivedDate}.
+   *
+   * @return The date on which the source message was received.
+   */
+  @Override
+  public Date getReceivedDate()
+  {
+    return receivedDate;
+  }
+}
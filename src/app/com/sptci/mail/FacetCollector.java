@@ -0,0 +1,176 @@
+package com.sptci.mail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.HitCollector;
+import org.apache.lucene.search.TopDocCollector;
+
+/**
+ * A hit collector that counts the matching documents by {@link Facets}
+ * while collecting the top documents for a search.  The counts are
+ * computed in the same pass over the matching documents as the top
+ * documents, using the term ordinals that the <code>FieldCache</code>
+ * holds for the un-tokenised facet fields.  Hence no stored fields are
+ * loaded to compute the counts, and the field caches are shared with the
+ * sorts on the same reader.
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+class FacetCollector extends HitCollector
+{
+  /**
+   * The collector for the top documents to which hits are delegated.
+   */
+  private final TopDocCollector delegate;
+
+  /**
+   * The term ordinals of the documents for each facet.
+   */
+  private final Map<Facets,int[]> orders =
+    new EnumMap<Facets,int[]>( Facets.class );
+
+  /**
+   * The terms that correspond to the ordinals for each facet.
+   */
+  private final Map<Facets,String[]> terms =
+    new EnumMap<Facets,String[]>( Facets.class );
+
+  /**
+   * The number of matching documents for each ordinal of each facet.
+   */
+  private final Map<Facets,int[]> counts =
+    new EnumMap<Facets,int[]>( Facets.class );
+
+  /**
+   * Create a new collector that counts the specified facets.
+   *
+   * @param reader The reader for the indices being searched.
+   * @param facets The facets to count.
+   * @param delegate The {@link #delegate} to use.
+   * @throws IOException If errors are encountered while loading the
+   *   field caches.
+   */
+  FacetCollector( final IndexReader reader, final Set<Facets> facets,
+      final TopDocCollector delegate ) throws IOException
+  {
+    this.delegate = delegate;
+
+    for ( Facets facet : facets )
+    {
+      final FieldCache.StringIndex index =
+        FieldCache.DEFAULT.getStringIndex( reader, getField( facet ) );
+      orders.put( facet, index.order );
+      terms.put( facet, index.lookup );
+      counts.put( facet, new int[index.lookup.length] );
+    }
+  }
+
+  /**
+   * Return the name of the indexed field that holds the values for the
+   * specified facet.
+   *
+   * @param facet The facet whose field is to be returned.
+   * @return The name of the field.
+   */
+  static String getField( final Facets facet )
+  {
+    switch ( facet )
+    {
+      case folder: return KeyFields.folderKey.toString();
+      case sender: return KeyFields.senderKey.toString();
+      case day: return DateFields.dateDay.toString();
+      default: return DateFields.dateMonth.toString();
+    }
+  }
+
+  /**
+   * Count the specified document and pass it on to the {@link #delegate}.
+   *
+   * @param doc The number of the matching document.
+   * @param score The score of the document.
+   */
+  @Override
+  public void collect( final int doc, final float score )
+  {
+    for ( Map.Entry<Facets,int[]> entry : orders.entrySet() )
+    {
+      ++counts.get( entry.getKey() )[entry.getValue()[doc]];
+    }
+
+    delegate.collect( doc, score );
+  }
+
+  /**
+   * Returns {@link #delegate}.
+   *
+   * @return The collector for the top documents.
+   */
+  TopDocCollector getDelegate()
+  {
+    return delegate;
+  }
+
+  /**
+   * Return the counts for the specified facet.  The {@link Facets#folder}
+   * and {@link Facets#sender} values are ordered by count (highest
+   * first), and the {@link Facets#day} and {@link Facets#month} values
+   * are ordered by date (newest first).  Values with no matching
+   * documents are not returned.
+   *
+   * @param facet The facet whose counts are to be returned.
+   * @param limit The maximum number of values to return.  Specify
+   *   <code>0</code> or a negative value for no limit.
+   * @return The counts keyed by facet value in display order, or an empty
+   *   map if the facet was not counted.
+   */
+  Map<String,Integer> getCounts( final Facets facet, final int limit )
+  {
+    final Map<String,Integer> result = new LinkedHashMap<String,Integer>();
+    final int[] values = counts.get( facet );
+    if ( values == null ) return result;
+
+    // Ordinal 0 is reserved for documents that have no value.
+    final List<Integer> ordinals = new ArrayList<Integer>();
+    for ( int i = 1; i < values.length; ++i )
+    {
+      if ( values[i] > 0 ) ordinals.add( i );
+    }
+
+    if ( facet == Facets.folder || facet == Facets.sender )
+    {
+      Collections.sort( ordinals, new Comparator<Integer>()
+      {
+        public int compare( final Integer first, final Integer second )
+        {
+          final int difference = values[second] - values[first];
+          return ( difference == 0 ) ? first - second : difference;
+        }
+      } );
+    }
+    else
+    {
+      Collections.reverse( ordinals );
+    }
+
+    final String[] lookup = terms.get( facet );
+    for ( Integer ordinal : ordinals )
+    {
+      if ( limit > 0 && result.size() >= limit ) break;
+      result.put( lookup[ordinal], values[ordinal] );
+    }
+
+    return result;
+  }
+}
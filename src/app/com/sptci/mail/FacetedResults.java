@@ -0,0 +1,84 @@
+package com.sptci.mail;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The results of a search for which {@link Facets} counts were requested.
+ * The results contain the summaries of the messages in the requested
+ * window, the total number of matching messages, and the counts of the
+ * matching messages by each requested facet.  Results are fetched using
+ * {@link MessageSearcher#searchWithFacets}.
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+public class FacetedResults
+{
+  /**
+   * The summaries of the messages in the requested window.
+   */
+  private final Collection<MessageSummary> messages;
+
+  /**
+   * The total number of messages that match the search.
+   */
+  private final int totalHits;
+
+  /**
+   * The counts of the matching messages keyed by facet value, for each
+   * requested facet.
+   */
+  private final Map<Facets,Map<String,Integer>> facets;
+
+  /**
+   * Create a new instance with the specified values.
+   *
+   * @param messages The {@link #messages} to use.
+   * @param totalHits The {@link #totalHits} to use.
+   * @param facets The {@link #facets} to use.
+   */
+  FacetedResults( final Collection<MessageSummary> messages,
+      final int totalHits, final Map<Facets,Map<String,Integer>> facets )
+  {
+    this.messages = messages;
+    this.totalHits = totalHits;
+    this.facets = facets;
+  }
+
+  /**
+   * Returns {@link #messages}.
+   *
+   * @return The summaries of the messages in the requested window.
+   */
+  public Collection<MessageSummary> getMessages()
+  {
+    return messages;
+  }
+
+  /**
+   * Returns {@link #totalHits}.
+   *
+   * @return The total number of matching messages.
+   */
+  public int getTotalHits()
+  {
+    return totalHits;
+  }
+
+  /**
+   * Return the counts for the specified facet.
+   *
+   * @param facet The facet whose counts are to be returned.
+   * @return The counts keyed by facet value in display order.  Returns an
+   *   empty map if the facet was not requested.
+   */
+  public Map<String,Integer> getCounts( final Facets facet )
+  {
+    final Map<String,Integer> counts = facets.get( facet );
+    return ( counts == null ) ?
+      Collections.<String,Integer>emptyMap() : counts;
+  }
+}
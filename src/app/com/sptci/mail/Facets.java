@@ -0,0 +1,20 @@
+package com.sptci.mail;
+
+/**
+ * The enumeration of the facets by which search results may be counted.
+ *
+ * <ul>
+ *   <li>{@link #folder} - The full name of the folder.</li>
+ *   <li>{@link #sender} - The (lower case) email address of the
+ *   sender.</li>
+ *   <li>{@link #day} - The day of the message (<code>yyyyMMdd</code> in
+ *   UTC).</li>
+ *   <li>{@link #month} - The month of the message (<code>yyyyMM</code> in
+ *   UTC).</li>
+ * </ul>
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+public enum Facets { folder, sender, day, month }
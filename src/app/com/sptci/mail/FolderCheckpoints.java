@@ -0,0 +1,358 @@
+package com.sptci.mail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The persistent store of the indexing checkpoints for the folders of a
+ * user.  A checkpoint records the <code>UIDVALIDITY</code> of a folder,
+ * the highest <code>UID</code> that has been indexed and the number of
+ * messages in the folder when it was last indexed.  The {@link
+ * FolderIndexer} uses the checkpoints to index only the messages that
+ * have arrived since the previous scan.
+ *
+ * <p>Folders are indexed newest first, hence a checkpoint also records
+ * the lowest <code>UID</code> from which the folder has been indexed up
+ * to the highest <code>UID</code>, and the date of the oldest message
+ * indexed so far.  These are cleared once the older messages have been
+ * indexed.</p>
+ *
+ * <p>The checkpoints are stored in {@link #CHECKPOINT_FILE} under the
+ * search index directory of the user.</p>
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+class FolderCheckpoints
+{
+  /**
+   * The name of the file under the index directory that is used to store
+   * the checkpoints.
+   *
+   * {@value}
+   */
+  static final String CHECKPOINT_FILE = "checkpoints.xml";
+
+  /**
+   * The suffix for the property that holds the <code>UIDVALIDITY</code>.
+   */
+  private static final String UID_VALIDITY = ".uidValidity";
+
+  /**
+   * The suffix for the property that holds the highest indexed
+   * <code>UID</code>.
+   */
+  private static final String HIGH_UID = ".highUid";
+
+  /**
+   * The suffix for the property that holds the message count.
+   */
+  private static final String COUNT = ".count";
+
+  /**
+   * The suffix for the property that holds the lowest indexed
+   * <code>UID</code> while older messages are still to be indexed.
+   */
+  private static final String LOW_UID = ".lowUid";
+
+  /**
+   * The suffix for the property that holds the date of the oldest message
+   * indexed while older messages are still to be indexed.
+   */
+  private static final String SINCE = ".since";
+
+  /**
+   * The logger to use to log errors and messages.
+   */
+  private static final Logger logger = MailSession.logger;
+
+  /**
+   * The file in which the checkpoints are stored.
+   */
+  private final File file;
+
+  /**
+   * The checkpoints loaded from {@link #file}.
+   */
+  private final java.util.Properties properties = new java.util.Properties();
+
+  /**
+   * Create a new instance for the index stored at the specified path.
+   * Loads the existing checkpoints if any.
+   *
+   * @param path The path under which the index files are stored.
+   */
+  FolderCheckpoints( final String path )
+  {
+    this.file = new File( path, CHECKPOINT_FILE );
+    load();
+  }
+
+  /**
+   * Return the checkpoint for the specified folder.
+   *
+   * @param folder The full name of the folder.
+   * @return The checkpoint, or <code>null</code> if the folder has not
+   *   been indexed yet.
+   */
+  synchronized Checkpoint get( final String folder )
+  {
+    final String uidValidity = properties.getProperty( folder + UID_VALIDITY );
+    if ( uidValidity == null ) return null;
+
+    try
+    {
+      return new Checkpoint( Long.parseLong( uidValidity ),
+          Long.parseLong( properties.getProperty( folder + HIGH_UID ) ),
+          Integer.parseInt( properties.getProperty( folder + COUNT ) ),
+          Long.parseLong( properties.getProperty( folder + LOW_UID, "0" ) ),
+          Long.parseLong( properties.getProperty( folder + SINCE, "0" ) ) );
+    }
+    catch ( Throwable t )
+    {
+      logger.log( Level.WARNING, "Invalid checkpoint for folder: " +
+          folder, t );
+      return null;
+    }
+  }
+
+  /**
+   * Save the checkpoint for the specified folder.
+   *
+   * @param folder The full name of the folder.
+   * @param checkpoint The checkpoint to save.
+   */
+  synchronized void put( final String folder, final Checkpoint checkpoint )
+  {
+    properties.setProperty( folder + UID_VALIDITY,
+        String.valueOf( checkpoint.uidValidity ) );
+    properties.setProperty( folder + HIGH_UID,
+        String.valueOf( checkpoint.highUid ) );
+    properties.setProperty( folder + COUNT,
+        String.valueOf( checkpoint.count ) );
+    properties.setProperty( folder + LOW_UID,
+        String.valueOf( checkpoint.lowUid ) );
+    properties.setProperty( folder + SINCE,
+        String.valueOf( checkpoint.since ) );
+    save();
+  }
+
+  /**
+   * Remove the checkpoint for the specified folder.  The folder will be
+   * fully scanned the next time it is indexed.
+   *
+   * @param folder The full name of the folder.
+   */
+  synchronized void remove( final String folder )
+  {
+    if ( properties.remove( folder + UID_VALIDITY ) == null ) return;
+    properties.remove( folder + HIGH_UID );
+    properties.remove( folder + COUNT );
+    properties.remove( folder + LOW_UID );
+    properties.remove( folder + SINCE );
+    save();
+  }
+
+  /**
+   * Remove the checkpoints for all the folders whose full names start
+   * with the specified prefix.  Used to remove the checkpoints for the
+   * child folders of a folder.
+   *
+   * @param prefix The prefix of the full names of the folders.
+   */
+  synchronized void removeAll( final String prefix )
+  {
+    boolean modified = false;
+    final Iterator<Object> iterator = properties.keySet().iterator();
+    while ( iterator.hasNext() )
+    {
+      if ( ( (String) iterator.next() ).startsWith( prefix ) )
+      {
+        iterator.remove();
+        modified = true;
+      }
+    }
+
+    if ( modified ) save();
+  }
+
+  /**
+   * Move the checkpoints for the specified folder and its child folders
+   * to the new name of the folder.
+   *
+   * @param oldName The full name of the folder before it was renamed.
+   * @param newName The full name of the folder after it was renamed.
+   * @param separator The separator used in the full names of folders.
+   */
+  synchronized void rename( final String oldName, final String newName,
+      final char separator )
+  {
+    final java.util.Properties renamed = new java.util.Properties();
+    final Iterator<Map.Entry<Object,Object>> iterator =
+      properties.entrySet().iterator();
+    while ( iterator.hasNext() )
+    {
+      final Map.Entry<Object,Object> entry = iterator.next();
+      final String key = (String) entry.getKey();
+      if ( key.startsWith( oldName + separator ) ||
+          key.equals( oldName + UID_VALIDITY ) ||
+          key.equals( oldName + HIGH_UID ) || key.equals( oldName + COUNT ) ||
+          key.equals( oldName + LOW_UID ) || key.equals( oldName + SINCE ) )
+      {
+        renamed.put( newName + key.substring( oldName.length() ),
+            entry.getValue() );
+        iterator.remove();
+      }
+    }
+
+    if ( renamed.isEmpty() ) return;
+    properties.putAll( renamed );
+    save();
+  }
+
+  /**
+   * Remove all the checkpoints.  Invoked when the indices are re-created.
+   */
+  synchronized void clear()
+  {
+    properties.clear();
+    save();
+  }
+
+  /**
+   * Load the checkpoints from {@link #file}.
+   */
+  private void load()
+  {
+    if ( ! file.exists() ) return;
+
+    try
+    {
+      FileInputStream fis = new FileInputStream( file );
+      try
+      {
+        properties.loadFromXML( fis );
+      }
+      finally
+      {
+        fis.close();
+      }
+    }
+    catch ( Throwable t )
+    {
+      logger.log( Level.WARNING, "Error reading checkpoint file: " +
+          file, t );
+      properties.clear();
+    }
+  }
+
+  /**
+   * Save the checkpoints to {@link #file}.
+   */
+  private void save()
+  {
+    try
+    {
+      FileOutputStream fos = new FileOutputStream( file );
+      try
+      {
+        properties.storeToXML( fos, "Folder indexing checkpoints" );
+      }
+      finally
+      {
+        fos.close();
+      }
+    }
+    catch ( IOException ioex )
+    {
+      logger.log( Level.WARNING, "Error writing checkpoint file: " +
+          file, ioex );
+    }
+  }
+
+  /**
+   * The checkpoint for a folder.
+   */
+  static class Checkpoint
+  {
+    /**
+     * The <code>UIDVALIDITY</code> of the folder when it was indexed.
+     */
+    final long uidValidity;
+
+    /**
+     * The highest <code>UID</code> that has been indexed.
+     */
+    final long highUid;
+
+    /**
+     * The number of messages in the folder when it was indexed, all of
+     * which have a <code>UID</code> up to {@link #highUid}.
+     */
+    final int count;
+
+    /**
+     * The lowest <code>UID</code> from which all the messages up to {@link
+     * #highUid} have been indexed.  <code>0</code> if all the messages in
+     * the folder have been indexed.
+     */
+    final long lowUid;
+
+    /**
+     * The date (in milliseconds) of the oldest message that has been
+     * indexed.  <code>0</code> if all the messages in the folder have been
+     * indexed.
+     */
+    final long since;
+
+    /**
+     * Create a new checkpoint for a folder whose messages have all been
+     * indexed.
+     *
+     * @param uidValidity The {@link #uidValidity} to use.
+     * @param highUid The {@link #highUid} to use.
+     * @param count The {@link #count} to use.
+     */
+    Checkpoint( final long uidValidity, final long highUid, final int count )
+    {
+      this( uidValidity, highUid, count, 0, 0 );
+    }
+
+    /**
+     * Create a new checkpoint using the specified values.
+     *
+     * @param uidValidity The {@link #uidValidity} to use.
+     * @param highUid The {@link #highUid} to use.
+     * @param count The {@link #count} to use.
+     * @param lowUid The {@link #lowUid} to use.
+     * @param since The {@link #since} value to use.
+     */
+    Checkpoint( final long uidValidity, final long highUid, final int count,
+        final long lowUid, final long since )
+    {
+      this.uidValidity = uidValidity;
+      this.highUid = highUid;
+      this.count = count;
+      this.lowUid = lowUid;
+      this.since = since;
+    }
+
+    /**
+     * Check to see if all the messages in the folder have been indexed.
+     *
+     * @return Returns <code>true</code> if there are no older messages
+     *   left to index.
+     */
+    boolean isComplete()
+    {
+      return ( lowUid == 0 );
+    }
+  }
+}
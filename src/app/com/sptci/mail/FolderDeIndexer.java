@@ -2,8 +2,6 @@ package com.sptci.mail;
 
 import java.util.logging.Level;
 
-import org.apache.lucene.document.Document;
-import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
 
 /**
@@ -19,6 +17,13 @@ class FolderDeIndexer extends Callable
   /** The full name of the folder that is to be de-indexed. */
   private final String name;
 
+  /**
+   * The type of the {@link #getJournalRecord journal record}.
+   *
+   * {@value}
+   */
+  static final String JOURNAL_TYPE = "deIndexFolder";
+
   /**
    * Create a new instance of the object using the specified full name.
    * 
@@ -33,9 +38,34 @@ class FolderDeIndexer extends Callable
     this.name = name;
   }
 
+  /**
+   * Return the key that identifies the folder to de-index.
+   *
+   * @return The key for the task.
+   */
+  @Override
+  String getKey()
+  {
+    return "deIndexFolder:" + name;
+  }
+
+  /**
+   * Return the journal record for the task.
+   *
+   * @return The {@link #JOURNAL_TYPE} and the {@link #name}.
+   */
+  @Override
+  String[] getJournalRecord()
+  {
+    return new String[] { JOURNAL_TYPE, name };
+  }
+
   /**
    * De-index the messages that belong to the folder identified by
-   * {@link #name}.
+   * {@link #name}.  If the folder has a shard of its own, the shard is
+   * dropped, which de-indexes the child folders as well.
+   *
+   * @see Indexer#dropShard
    */
   public Boolean call()
   {
@@ -43,19 +73,23 @@ class FolderDeIndexer extends Callable
 
     try
     {
-      IndexWriter writer = getWriter();
-      int start = writer.docCount();
-
-      for ( Document document : searcher.fetchDocuments( name ) )
+      if ( indexer.isShard( name ) )
+      {
+        indexer.dropShard( name );
+      }
+      else
       {
-        Term term = new Term( Fields.uniqueId.toString(),
-              document.get( Fields.uniqueId.toString() ) );
-        writer.deleteDocuments( term );
+        final String id = indexer.folders.lookupId( name );
+        if ( id != null )
+        {
+          deleteDocuments( new Term( KeyFields.folderKey.toString(), id ) );
+        }
+
+        indexer.checkpoints.remove( name );
+        indexer.folders.remove( name, indexer.getSeparator() );
       }
 
-      int end = writer.docCount();
-      logger.info( "Deleted documents in folder: " + name +
-            " leading to deleting " + ( end - start ) + " indices" );
+      logger.info( "Deleted documents in folder: " + name );
     }
     catch ( Throwable t )
     {
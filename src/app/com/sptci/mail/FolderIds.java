@@ -0,0 +1,311 @@
+package com.sptci.mail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The persistent map of the stable identifiers assigned to the folders of
+ * a user.  Documents in the search indices record the identifier of their
+ * folder ({@link KeyFields#folderKey}) rather than its full name, and the
+ * full name is resolved through this map when documents are read.  Hence
+ * renaming or moving a folder (along with its child folders) only updates
+ * this map, and no documents are re-written.
+ *
+ * <p>Identifiers are assigned the first time a message in a folder is
+ * indexed, and are never re-used.  The map is stored in {@link
+ * #FOLDER_FILE} under the search index directory of the user.  When
+ * the indices are shared by several users, the identifiers start with a
+ * {@link #prefix} that is unique to the user, so that the folders of
+ * different users never share an identifier.</p>
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+class FolderIds
+{
+  /**
+   * The name of the file under the index directory that is used to store
+   * the identifiers.
+   *
+   * {@value}
+   */
+  static final String FOLDER_FILE = "folders.xml";
+
+  /**
+   * The property used to store the next identifier to assign.  Identifiers
+   * end in decimal numbers, hence this key cannot clash with them.
+   *
+   * {@value}
+   */
+  private static final String NEXT_ID = "next";
+
+  /**
+   * The logger to use to log errors and messages.
+   */
+  private static final Logger logger = MailSession.logger;
+
+  /**
+   * The file in which the identifiers are stored.
+   */
+  private final File file;
+
+  /**
+   * The full names of the folders keyed by identifier.
+   */
+  private final Map<String,String> names = new HashMap<String,String>();
+
+  /**
+   * The identifiers of the folders keyed by full name.
+   */
+  private final Map<String,String> ids = new HashMap<String,String>();
+
+  /**
+   * The next identifier to assign.
+   */
+  private long next = 1;
+
+  /**
+   * The prefix of the identifiers that are assigned.  Empty unless the
+   * indices are shared by several users.
+   */
+  private final String prefix;
+
+  /**
+   * Create a new instance for the index stored at the specified path.
+   * Loads the existing identifiers if any.
+   *
+   * @param path The path under which the index files are stored.
+   */
+  FolderIds( final String path )
+  {
+    this( path, "" );
+  }
+
+  /**
+   * Create a new instance for the index stored at the specified path,
+   * that assigns identifiers starting with the specified prefix.  Loads
+   * the existing identifiers if any.
+   *
+   * @param path The path under which the index files are stored.
+   * @param prefix The {@link #prefix} to use.
+   */
+  FolderIds( final String path, final String prefix )
+  {
+    this.file = new File( path, FOLDER_FILE );
+    this.prefix = prefix;
+    load();
+  }
+
+  /**
+   * Return the identifier for the specified folder, assigning a new one
+   * if the folder does not have one yet.
+   *
+   * @param folder The full name of the folder.
+   * @return The identifier of the folder.
+   */
+  synchronized String getId( final String folder )
+  {
+    String id = ids.get( folder );
+    if ( id == null )
+    {
+      id = prefix + next++;
+      ids.put( folder, id );
+      names.put( id, folder );
+      save();
+    }
+
+    return id;
+  }
+
+  /**
+   * Return the identifier for the specified folder.
+   *
+   * @param folder The full name of the folder.
+   * @return The identifier of the folder, or <code>null</code> if no
+   *   identifier has been assigned to the folder.
+   */
+  synchronized String lookupId( final String folder )
+  {
+    return ids.get( folder );
+  }
+
+  /**
+   * Return the full name of the folder with the specified identifier.
+   *
+   * @param id The identifier of the folder.
+   * @return The full name of the folder, or <code>null</code> if the
+   *   identifier is not known.
+   */
+  synchronized String getName( final String id )
+  {
+    return names.get( id );
+  }
+
+  /**
+   * Return the identifiers of the specified folder and its child folders.
+   *
+   * @param folder The full name of the folder.
+   * @param separator The separator used in the full names of folders.
+   * @return The identifiers of the folders.
+   */
+  synchronized List<String> getIds( final String folder, final char separator )
+  {
+    final String prefix = folder + separator;
+    final List<String> result = new ArrayList<String>();
+    for ( Map.Entry<String,String> entry : ids.entrySet() )
+    {
+      if ( entry.getKey().equals( folder ) ||
+          entry.getKey().startsWith( prefix ) )
+      {
+        result.add( entry.getValue() );
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Rename the specified folder along with its child folders.  The
+   * identifiers of the folders do not change.
+   *
+   * @param oldName The full name of the folder before it was renamed.
+   * @param newName The full name of the folder after it was renamed.
+   * @param separator The separator used in the full names of folders.
+   */
+  synchronized void rename( final String oldName, final String newName,
+      final char separator )
+  {
+    final List<String> renamed = getIds( oldName, separator );
+    if ( renamed.isEmpty() ) return;
+
+    for ( String id : renamed )
+    {
+      final String name = names.get( id );
+      final String target = newName + name.substring( oldName.length() );
+      ids.remove( name );
+      ids.put( target, id );
+      names.put( id, target );
+    }
+
+    save();
+  }
+
+  /**
+   * Remove the identifiers of the specified folder and its child folders.
+   * Invoked once the folders have been de-indexed.
+   *
+   * @param folder The full name of the folder.
+   * @param separator The separator used in the full names of folders.
+   */
+  synchronized void remove( final String folder, final char separator )
+  {
+    final String prefix = folder + separator;
+    boolean modified = false;
+    final Iterator<Map.Entry<String,String>> iterator =
+      ids.entrySet().iterator();
+    while ( iterator.hasNext() )
+    {
+      final Map.Entry<String,String> entry = iterator.next();
+      if ( entry.getKey().equals( folder ) ||
+          entry.getKey().startsWith( prefix ) )
+      {
+        names.remove( entry.getValue() );
+        iterator.remove();
+        modified = true;
+      }
+    }
+
+    if ( modified ) save();
+  }
+
+  /**
+   * Remove all the identifiers.  Invoked when the indices are re-created.
+   * The counter is not reset, so that identifiers are never re-used.
+   */
+  synchronized void clear()
+  {
+    names.clear();
+    ids.clear();
+    save();
+  }
+
+  /**
+   * Load the identifiers from {@link #file}.
+   */
+  private void load()
+  {
+    if ( ! file.exists() ) return;
+
+    final java.util.Properties properties = new java.util.Properties();
+    try
+    {
+      FileInputStream fis = new FileInputStream( file );
+      try
+      {
+        properties.loadFromXML( fis );
+      }
+      finally
+      {
+        fis.close();
+      }
+    }
+    catch ( Throwable t )
+    {
+      logger.log( Level.WARNING, "Error reading folder file: " + file, t );
+      return;
+    }
+
+    for ( Map.Entry<Object,Object> entry : properties.entrySet() )
+    {
+      final String key = (String) entry.getKey();
+      final String value = (String) entry.getValue();
+      if ( NEXT_ID.equals( key ) )
+      {
+        next = Long.parseLong( value );
+      }
+      else
+      {
+        names.put( key, value );
+        ids.put( value, key );
+      }
+    }
+  }
+
+  /**
+   * Save the identifiers to {@link #file}.
+   */
+  private void save()
+  {
+    final java.util.Properties properties = new java.util.Properties();
+    properties.putAll( names );
+    properties.setProperty( NEXT_ID, String.valueOf( next ) );
+
+    try
+    {
+      FileOutputStream fos = new FileOutputStream( file );
+      try
+      {
+        properties.storeToXML( fos, "Folder identifiers" );
+      }
+      finally
+      {
+        fos.close();
+      }
+    }
+    catch ( IOException ioex )
+    {
+      logger.log( Level.WARNING, "Error writing folder file: " +
+          file, ioex );
+    }
+  }
+}
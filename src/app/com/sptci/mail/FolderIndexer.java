@@ -1,15 +1,22 @@
 package com.sptci.mail;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
-import java.util.concurrent.Future;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 
+import javax.mail.FetchProfile;
 import javax.mail.Folder;
 import javax.mail.Message;
 import javax.mail.MessagingException;
+import javax.mail.UIDFolder;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.index.Term;
 
 /**
  * The <code>Callable</code> instance used to queue an indexing operation
@@ -26,6 +33,34 @@ class FolderIndexer extends Callable
    */
   private Folder folder;
 
+  /**
+   * The number of windows of messages indexed newest first by the first
+   * scan of a folder.
+   *
+   * {@value}
+   */
+  static final int FIRST_PASS_WINDOWS = 1;
+
+  /**
+   * The number of windows of older messages indexed by a continuation
+   * task before it queues the next continuation.
+   *
+   * {@value}
+   */
+  static final int BACKFILL_WINDOWS = 5;
+
+  /**
+   * The manager used to fetch the folder.  Used to queue continuation
+   * tasks.
+   */
+  private final ProtocolFolderManager manager;
+
+  /**
+   * A flag used to indicate that this task is a continuation that indexes
+   * the older messages in the folder.
+   */
+  private final boolean backfill;
+
   /**
    * Create a new instance of the object using the specified folder.
    * 
@@ -36,8 +71,25 @@ class FolderIndexer extends Callable
    */
   FolderIndexer ( final Indexer indexer, final MessageSearcher searcher,
       final Folder folder, final ProtocolFolderManager manager )
+  {
+    this( indexer, searcher, folder, manager, false );
+  }
+
+  /**
+   * Create a new instance of the object using the specified folder.
+   * 
+   * @param folder The {@link Indexer.FolderIndexer#folder} value
+   *   to use.
+   * @param manager The {@link #manager} value to use.
+   * @param backfill The {@link #backfill} value to use.
+   */
+  FolderIndexer ( final Indexer indexer, final MessageSearcher searcher,
+      final Folder folder, final ProtocolFolderManager manager,
+      final boolean backfill )
   {
     super( indexer, searcher );
+    this.manager = manager;
+    this.backfill = backfill;
     
     try
     {
@@ -51,7 +103,44 @@ class FolderIndexer extends Callable
   }
 
   /**
-   * Index the {@link Indexer.FolderIndexer#folder}.
+   * Return the key that identifies the folder to scan.  Continuation
+   * tasks use a different key, so that they do not absorb a scan for new
+   * messages.
+   *
+   * @return The key for the task.
+   */
+  @Override
+  String getKey()
+  {
+    if ( folder == null ) return null;
+    return ( ( backfill ) ? "backfillFolder:" : "indexFolder:" ) +
+      folder.getFullName();
+  }
+
+  /**
+   * Return the priority for the folder scan.  Scans of the
+   * <code>INBOX</code> are executed before scans of other folders, and
+   * continuation tasks are executed after all the scans.
+   *
+   * @return The priority for the task.
+   */
+  @Override
+  TaskScheduler.Priority getPriority()
+  {
+    if ( backfill ) return TaskScheduler.Priority.BACKFILL;
+    return ( folder != null &&
+        FolderManager.INBOX.equalsIgnoreCase( folder.getFullName() ) ) ?
+      TaskScheduler.Priority.INBOX : TaskScheduler.Priority.BACKGROUND;
+  }
+
+  /**
+   * Index the {@link Indexer.FolderIndexer#folder}.  Folders that
+   * support <code>UID</code>s are indexed incrementally using the
+   * checkpoint recorded by the previous scan.  Other folders are fully
+   * scanned.
+   *
+   * @see #indexUIDFolder
+   * @see #indexAll
    */
   public Boolean call()
   {
@@ -61,35 +150,17 @@ class FolderIndexer extends Callable
     try
     {
       logger.fine( "Begin indexing folder: " + folder.getFullName() );
-      getWriter();
       long start = System.currentTimeMillis();
       name = folder.getFullName();
       folder.open( Folder.READ_ONLY );
 
-      HashMap<String, Document> map = new HashMap<String,Document>();
-      for ( Document document : searcher.fetchDocuments( folder.getFullName() ) )
+      if ( folder instanceof UIDFolder )
       {
-        map.put( document.get( Fields.messageId.toString()  ), document );
+        indexUIDFolder( (UIDFolder) folder );
       }
-
-      for( Message message : folder.getMessages() )
-      {
-        String messageId = MessageHandler.getMessageId( message );
-        if ( map.containsKey( messageId ) )
-        {
-          map.remove( messageId );
-        }
-        else
-        {
-          indexMessage( message );
-        }
-      }
-
-      for ( Document document : map.values() )
+      else
       {
-        Future<Boolean> future = indexer.executor.submit( new DeIndexer(
-            indexer, searcher, document.get( Fields.uniqueId.toString() ) ) );
-        indexer.tasks.put( future, "" );
+        indexAll();
       }
 
       folder.close( false );
@@ -109,4 +180,380 @@ class FolderIndexer extends Callable
 
     return result;
   }
-}
\ No newline at end of file
+
+  /**
+   * Index the messages in a folder that supports <code>UID</code>s.  If
+   * the folder has a checkpoint with the same <code>UIDVALIDITY</code>,
+   * only the messages with a <code>UID</code> above the checkpoint are
+   * fetched and indexed.  The checkpoint is not advanced past a message
+   * that could not be parsed, so that the next scan retries it.  The
+   * folder is reconciled with the indices only if messages have been
+   * expunged.  Only messages above the checkpoint are fetched, hence the
+   * message count less the number fetched is the number of messages
+   * still at or below the checkpoint, and any difference from the count
+   * recorded by the checkpoint shows an expunge.  If the
+   * <code>UIDVALIDITY</code> has changed, the stored <code>UID</code>s are
+   * no longer valid and the folder is re-indexed from scratch.
+   *
+   * <p>Folders without a checkpoint are indexed newest first.  Only the
+   * newest messages are indexed by the first scan, the older messages
+   * are indexed by continuation tasks queued with {@link
+   * TaskScheduler.Priority#BACKFILL} priority, so that the recent
+   * messages in all the folders become searchable first.</p>
+   *
+   * @see #backfill
+   * @param uidFolder The folder to index.
+   * @throws Exception If errors are encountered while fetching messages
+   *   or updating the indices.
+   */
+  private void indexUIDFolder( final UIDFolder uidFolder ) throws Exception
+  {
+    final String name = folder.getFullName();
+    FolderCheckpoints.Checkpoint checkpoint = indexer.checkpoints.get( name );
+    final long uidValidity = uidFolder.getUIDValidity();
+    final int count = folder.getMessageCount();
+
+    if ( checkpoint != null && checkpoint.uidValidity != uidValidity )
+    {
+      logger.info( "UIDVALIDITY changed for folder: " + name +
+          ".  Re-indexing all messages." );
+      deleteDocuments( new Term( KeyFields.folderKey.toString(),
+            indexer.folders.getId( name ) ) );
+      indexer.commitWriter();
+      checkpoint = null;
+    }
+
+    if ( checkpoint == null )
+    {
+      final long highUid = ( count > 0 ) ?
+        uidFolder.getUID( folder.getMessage( count ) ) : 0;
+      checkpoint = ( count > 0 ) ?
+        new FolderCheckpoints.Checkpoint( uidValidity, highUid, count,
+            highUid + 1, System.currentTimeMillis() ) :
+        new FolderCheckpoints.Checkpoint( uidValidity, highUid, count );
+      indexer.checkpoints.put( name, checkpoint );
+    }
+    else
+    {
+      long highUid = checkpoint.highUid;
+      final List<Long> added = new ArrayList<Long>();
+
+      final IndexPipeline pipeline = new IndexPipeline( this );
+      try
+      {
+        final FolderScanner scanner = new FolderScanner( folder,
+            uidFolder.getMessagesByUID( checkpoint.highUid + 1,
+              UIDFolder.LASTUID ) );
+        while ( scanner.hasNext() )
+        {
+          for ( Message message : scanner.next() )
+          {
+            // A UID range ending in * always includes the last message
+            final long uid = uidFolder.getUID( message );
+            if ( uid <= checkpoint.highUid ) continue;
+
+            pipeline.add( message );
+            highUid = Math.max( highUid, uid );
+            added.add( uid );
+          }
+        }
+
+        pipeline.finish();
+      }
+      finally
+      {
+        pipeline.cancel();
+      }
+
+      logger.fine( "Indexed " + added.size() + " new messages in folder: " +
+          name );
+      if ( count != checkpoint.count + added.size() )
+      {
+        reconcile( uidFolder );
+      }
+
+      int indexed = count;
+      final long failed = getLowestFailure( pipeline );
+      if ( failed > 0 )
+      {
+        // Leave the failed messages to be indexed by the next scan
+        highUid = Math.min( highUid, failed - 1 );
+        for ( long uid : added )
+        {
+          if ( uid > highUid ) --indexed;
+        }
+      }
+      else if ( count > 0 )
+      {
+        highUid = Math.max( highUid,
+            uidFolder.getUID( folder.getMessage( count ) ) );
+      }
+
+      indexer.commitWriter();
+      checkpoint = new FolderCheckpoints.Checkpoint( uidValidity, highUid,
+          indexed, checkpoint.lowUid, checkpoint.since );
+      indexer.checkpoints.put( name, checkpoint );
+    }
+
+    if ( ! checkpoint.isComplete() ) backfill( uidFolder, checkpoint );
+  }
+
+  /**
+   * Index the messages below the {@link FolderCheckpoints.Checkpoint#lowUid}
+   * of the checkpoint, newest first.  At most {@link #FIRST_PASS_WINDOWS}
+   * windows of messages are indexed by the first scan of a folder, and at
+   * most {@link #BACKFILL_WINDOWS} by continuation tasks.  The checkpoint
+   * is committed after each window, so that the {@link
+   * Indexer#getIndexedSince watermark} advances while the older messages
+   * are being indexed.  A continuation task is queued if messages remain
+   * to be indexed.  Backfilling stops above a message that could not be
+   * indexed, which is retried by the next scan of the folder.
+   *
+   * @param uidFolder The folder to index.
+   * @param checkpoint The current checkpoint for the folder.
+   * @throws Exception If errors are encountered while fetching messages
+   *   or updating the indices.
+   */
+  private void backfill( final UIDFolder uidFolder,
+      FolderCheckpoints.Checkpoint checkpoint ) throws Exception
+  {
+    final String name = folder.getFullName();
+    final int windows = ( backfill ) ? BACKFILL_WINDOWS : FIRST_PASS_WINDOWS;
+    final FolderScanner scanner = new FolderScanner( folder,
+        getBackfillEnd( uidFolder, checkpoint.lowUid ), true );
+    long lowUid = checkpoint.lowUid;
+    long since = checkpoint.since;
+    int scanned = 0;
+
+    final IndexPipeline pipeline = new IndexPipeline( this );
+    try
+    {
+      while ( scanner.hasNext() && scanned < windows )
+      {
+        for ( Message message : scanner.next() )
+        {
+          pipeline.add( message );
+          lowUid = Math.min( lowUid, uidFolder.getUID( message ) );
+          final Date date = MessageHandler.getDate( message );
+          if ( date != null ) since = Math.min( since, date.getTime() );
+        }
+
+        pipeline.finish();
+        indexer.commitWriter();
+
+        final long failed = getHighestFailure( pipeline );
+        if ( failed > 0 )
+        {
+          // Stop above the failed messages, the next scan retries them
+          checkpoint = new FolderCheckpoints.Checkpoint(
+              checkpoint.uidValidity, checkpoint.highUid, checkpoint.count,
+              Math.max( checkpoint.lowUid, failed + 1 ), checkpoint.since );
+          indexer.checkpoints.put( name, checkpoint );
+          logger.warning( "Unable to index message with UID: " + failed +
+              " in folder: " + name );
+          return;
+        }
+
+        checkpoint = new FolderCheckpoints.Checkpoint( checkpoint.uidValidity,
+            checkpoint.highUid, checkpoint.count, lowUid, since );
+        indexer.checkpoints.put( name, checkpoint );
+        ++scanned;
+      }
+    }
+    finally
+    {
+      pipeline.cancel();
+    }
+
+    if ( scanner.hasNext() )
+    {
+      logger.fine( "Indexed folder: " + name + " back to: " + new Date( since ) );
+      indexer.submit( new FolderIndexer(
+            indexer, searcher, folder, manager, true ) );
+    }
+    else
+    {
+      indexer.checkpoints.put( name, new FolderCheckpoints.Checkpoint(
+            checkpoint.uidValidity, checkpoint.highUid, checkpoint.count ) );
+      logger.fine( "Finished indexing older messages in folder: " + name );
+    }
+  }
+
+  /**
+   * Return the lowest <code>UID</code> of the messages that the specified
+   * pipeline failed to index.
+   *
+   * @param pipeline The pipeline that has finished.
+   * @return The lowest failed <code>UID</code>, or <code>0</code> if all
+   *   the messages were indexed.
+   */
+  private static long getLowestFailure( final IndexPipeline pipeline )
+  {
+    long result = 0;
+    for ( String uid : pipeline.getFailed() )
+    {
+      if ( uid.length() == 0 ) continue;
+      final long value = Long.parseLong( uid );
+      if ( result == 0 || value < result ) result = value;
+    }
+
+    return result;
+  }
+
+  /**
+   * Return the highest <code>UID</code> of the messages that the specified
+   * pipeline failed to index.
+   *
+   * @param pipeline The pipeline that has finished.
+   * @return The highest failed <code>UID</code>, or <code>0</code> if all
+   *   the messages were indexed.
+   */
+  private static long getHighestFailure( final IndexPipeline pipeline )
+  {
+    long result = 0;
+    for ( String uid : pipeline.getFailed() )
+    {
+      if ( uid.length() == 0 ) continue;
+      result = Math.max( result, Long.parseLong( uid ) );
+    }
+
+    return result;
+  }
+
+  /**
+   * Return the number of the newest message with a <code>UID</code> below
+   * the specified value.  Messages numbered up to this value are yet to
+   * be indexed.
+   *
+   * @param uidFolder The folder being indexed.
+   * @param lowUid The lowest <code>UID</code> that has been indexed.
+   * @return The message number of the newest message that is yet to be
+   *   indexed, or <code>0</code> if there are no such messages.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the messages.
+   */
+  private int getBackfillEnd( final UIDFolder uidFolder, final long lowUid )
+    throws MessagingException
+  {
+    final Message message = uidFolder.getMessageByUID( lowUid );
+    if ( message != null ) return message.getMessageNumber() - 1;
+
+    // The message has been expunged, find the next one
+    for ( Message next : uidFolder.getMessagesByUID( lowUid, UIDFolder.LASTUID ) )
+    {
+      if ( uidFolder.getUID( next ) >= lowUid )
+      {
+        return next.getMessageNumber() - 1;
+      }
+    }
+
+    return folder.getMessageCount();
+  }
+
+  /**
+   * Remove the indices for messages that have been expunged from the
+   * folder.  Only the <code>UID</code>s of the messages are fetched from
+   * the store (one window at a time), and only the unique ids are loaded
+   * from the indices.
+   *
+   * @param uidFolder The folder to reconcile.
+   * @throws Exception If errors are encountered while fetching the
+   *   <code>UID</code>s or updating the indices.
+   */
+  private void reconcile( final UIDFolder uidFolder ) throws Exception
+  {
+    final FetchProfile profile = new FetchProfile();
+    profile.add( UIDFolder.FetchProfileItem.UID );
+
+    final HashSet<String> uids = new HashSet<String>();
+    final FolderScanner scanner = new FolderScanner( folder, profile );
+    while ( scanner.hasNext() )
+    {
+      for ( Message message : scanner.next() )
+      {
+        uids.add( String.valueOf( uidFolder.getUID( message ) ) );
+      }
+    }
+
+    indexer.commitWriter();
+    final String folderId = indexer.folders.getId( folder.getFullName() );
+    final long uidValidity = uidFolder.getUIDValidity();
+    int deleted = 0;
+    for ( Document document : searcher.fetchDocuments(
+          folder.getFullName(), Fields.uniqueId ) )
+    {
+      final String uid = document.get( Fields.uniqueId.toString() );
+      if ( ! uids.contains( uid ) )
+      {
+        deleteDocuments( new Term( KeyFields.messageKey.toString(),
+              Indexer.getMessageKey( folderId, uidValidity, uid, null ) ) );
+        indexer.commitIfDue();
+        ++deleted;
+      }
+    }
+
+    logger.fine( "Removed " + deleted + " expunged messages from folder: " +
+        folder.getFullName() );
+  }
+
+  /**
+   * Index all the messages in the folder by comparing the messages in the
+   * store with the indexed documents.  New messages are indexed (newest
+   * first) and the indices of messages that no longer exist in the store
+   * are removed.
+   * Pending updates are committed first, so that the comparison sees all
+   * the documents indexed by earlier tasks.
+   *
+   * @throws Exception If errors are encountered while fetching messages
+   *   or updating the indices.
+   */
+  private void indexAll() throws Exception
+  {
+    indexer.commitWriter();
+    HashMap<String,String> map = new HashMap<String,String>();
+    for ( Document document : searcher.fetchDocuments( folder.getFullName(),
+          Fields.messageId, Fields.uniqueId ) )
+    {
+      map.put( document.get( Fields.messageId.toString() ),
+          document.get( Fields.uniqueId.toString() ) );
+    }
+
+    final IndexPipeline pipeline = new IndexPipeline( this );
+    try
+    {
+      final FolderScanner scanner = new FolderScanner( folder,
+          folder.getMessageCount(), true );
+      while ( scanner.hasNext() )
+      {
+        for ( Message message : scanner.next() )
+        {
+          String messageId = MessageHandler.getMessageId( message );
+          if ( map.containsKey( messageId ) )
+          {
+            map.remove( messageId );
+          }
+          else
+          {
+            pipeline.add( message );
+          }
+        }
+      }
+
+      pipeline.finish();
+    }
+    finally
+    {
+      pipeline.cancel();
+    }
+
+    final String folderId = indexer.folders.getId( folder.getFullName() );
+    final long uidValidity = Indexer.getUIDValidity( folder );
+    for ( Map.Entry<String,String> entry : map.entrySet() )
+    {
+      deleteDocuments( new Term( KeyFields.messageKey.toString(),
+            Indexer.getMessageKey( folderId, uidValidity, entry.getValue(),
+              entry.getKey() ) ) );
+      indexer.commitIfDue();
+    }
+  }
+}
@@ -4,10 +4,15 @@ import java.io.Serializable;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
+import javax.mail.UIDFolder;
+
 import com.sptci.io.FileUtilities;
 import static com.sptci.io.FileUtilities.FILE_SEPARATOR;
 
@@ -41,6 +46,14 @@ public class FolderManager implements Serializable
    */
   public static final String INBOX = "INBOX";
 
+  /**
+   * The maximum time in milliseconds to wait for the indices of copied or
+   * moved messages to become visible to searches.
+   *
+   * {@value}
+   */
+  private static final long COMMIT_TIMEOUT = 5000;
+
   /**
    * The mail session for the current user.
    */
@@ -144,6 +157,25 @@ public class FolderManager implements Serializable
     return folder;
   }
 
+  /**
+   * Returns the cached representation of the folder associated with the
+   * full name specified.  Unlike {@link #getFolder( String )}, the
+   * message counts of a cached folder are not refreshed from the store,
+   * hence this method is cheap enough to be used for every row in the
+   * message list.  The folder is fetched from the store only if it has
+   * not been cached yet.
+   *
+   * @param name The fully qualified name of the folder.
+   * @return The requested folder object.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the folder.
+   */
+  Folder getCachedFolder( final String name ) throws MessagingException
+  {
+    final Folder folder = local.folders.get( name );
+    return ( folder == null ) ? getFolder( name ) : folder;
+  }
+
   /**
    * Returns the folder associated with the full name specified.  If the
    * specified folder does not exist, it is created.
@@ -306,8 +338,11 @@ public class FolderManager implements Serializable
 
   /**
    * Rename the specified folder as specified.  Note that the location of
-   * the folder in the over-all folder hierarchy is maintained.
+   * the folder in the over-all folder hierarchy is maintained.  The
+   * indexed messages of the folder and its child folders are carried over
+   * to the new name without being re-indexed.
    *
+   * @see Indexer#rename
    * @param name The new name to assign to the folder.
    * @param folder The folder that is to be renamed.
    * @return The renamed folder object.
@@ -322,11 +357,9 @@ public class FolderManager implements Serializable
     try
     {
       local.delete( folder.getFullName() );
-
-      imapFolder = impl.getFolder( folder.getFullName() );
-      session.getMessageIndexer().deIndex( imapFolder );
-
       imapFolder = impl.renameTo( name, folder.getFullName() );
+      session.getMessageIndexer().rename(
+          folder.getFullName(), imapFolder.getFullName() );
     }
     catch ( Throwable t )
     {
@@ -418,6 +451,41 @@ public class FolderManager implements Serializable
     return searcher.fetchMessageCount( folder );
   }
 
+  /**
+   * Return the date back to which the messages in the specified folder
+   * are searchable.  The newest messages are indexed first, hence the
+   * date moves back as the older messages are indexed.
+   *
+   * @see Indexer#getIndexedSince
+   * @param folder The folder whose index watermark is to be returned.
+   * @return The date of the oldest indexed message, or <code>null</code>
+   *   if all the messages in the folder are searchable.  Stores that do
+   *   not support <code>UID</code>s are always indexed in full, hence
+   *   <code>null</code> is returned for their folders.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the folder.
+   */
+  public Date getIndexedSince( final Folder folder )
+    throws MessagingException
+  {
+    try
+    {
+      if ( ! ( impl.getFolder( folder.getFullName() ) instanceof UIDFolder ) )
+      {
+        return null;
+      }
+
+      return session.getMessageIndexer().getIndexedSince(
+          folder.getFullName() );
+    }
+    catch ( Throwable t )
+    {
+      throw new MessagingException(
+          "Error fetching index status for folder: " +
+          folder.getFullName() + ".", t );
+    }
+  }
+
   /**
    * Return the messages in the specified folder.
    *
@@ -538,6 +606,96 @@ public class FolderManager implements Serializable
     return searcher.fetchMessages( folder, sortField, start, end );
   }
 
+  /**
+   * Return the summaries of the messages in the specified folder that are
+   * used to render the message list.  Return only the messages between
+   * the specified numbers.
+   *
+   * @see #getSummaries( String, SortFields, int, int )
+   * @param folder The folder from which messages are to be retrieved.
+   * @param sortField The {@link com.sptci.mail.SortFields} instance to use
+   *   to sort the messages.
+   * @param start The start index of the messages to retrieve.  Indexing
+   *   starts from <code>0</code>.
+   * @param end The ending index (non-inclusive) of the messages to retrieve.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the messages for the folder.
+   */
+  public Collection<MessageSummary> getSummaries( final Folder folder,
+      final SortFields sortField, final int start, final int end )
+    throws MessagingException
+  {
+    return getSummaries( folder.getFullName(), sortField, start, end );
+  }
+
+  /**
+   * Return the summaries of the messages in the specified folder that are
+   * used to render the message list.  The summaries are built from the
+   * search indices alone, and do not access the store.
+   *
+   * @see MessageSearcher#fetchSummaries
+   * @param folder The full name of the folder from which messages are to
+   *   be retrieved.
+   * @param sortField The {@link com.sptci.mail.SortFields} instance to use
+   *   to sort the messages.
+   * @param start The start index of the messages to retrieve.  Indexing
+   *   starts from <code>0</code>.
+   * @param end The ending index (non-inclusive) of the messages to retrieve.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the messages for the folder.
+   */
+  public Collection<MessageSummary> getSummaries( final String folder,
+      final SortFields sortField, final int start, final int end )
+    throws MessagingException
+  {
+    final MessageSearcher searcher = session.getMessageSearcher();
+    return searcher.fetchSummaries( folder, sortField, start, end );
+  }
+
+  /**
+   * Return a page of messages in the specified folder ordered by date.
+   *
+   * @see #getMessages( String, String, int, boolean )
+   * @param folder The folder from which messages are to be retrieved.
+   * @param after The token from the previous page, or <code>null</code>
+   *   for the first page.
+   * @param count The maximum number of messages to retrieve.
+   * @param reverse Flag indicating whether the newest messages are to be
+   *   returned first.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the messages for the folder.
+   */
+  public MessagePage getMessages( final Folder folder, final String after,
+      final int count, final boolean reverse ) throws MessagingException
+  {
+    return getMessages( folder.getFullName(), after, count, reverse );
+  }
+
+  /**
+   * Return a page of messages in the specified folder ordered by date.
+   * Unlike the index based variants, pages are identified by the opaque
+   * {@link MessagePage#getNext} token of the previous page.  Repeated
+   * invocations do not over-lap or skip messages when new messages are
+   * indexed in between.
+   *
+   * @see MessageSearcher#fetchPage
+   * @param folder The full name of the folder from which messages are to
+   *   be retrieved.
+   * @param after The token from the previous page, or <code>null</code>
+   *   for the first page.
+   * @param count The maximum number of messages to retrieve.
+   * @param reverse Flag indicating whether the newest messages are to be
+   *   returned first.  Must be the same for all pages.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the messages for the folder.
+   */
+  public MessagePage getMessages( final String folder, final String after,
+      final int count, final boolean reverse ) throws MessagingException
+  {
+    final MessageSearcher searcher = session.getMessageSearcher();
+    return searcher.fetchPage( folder, after, count, reverse );
+  }
+
   /**
    * Return the message identified by its <code>UID</code>.  The UID
    * specified is the normalised string equivalent.
@@ -588,6 +746,114 @@ public class FolderManager implements Serializable
     return message;
   }
 
+  /**
+   * Copy the specified messages to the specified folder.  The search
+   * indices of the copies are cloned from those of the messages, hence
+   * the copies are not fetched or parsed again.
+   *
+   * @see #transfer
+   * @param messages The messages that are to be copied.
+   * @param target The folder to which the messages are to be copied.
+   * @throws MessagingException If errors are encountered while copying
+   *   the messages.
+   */
+  public void copy( final Collection<Message> messages, final Folder target )
+    throws MessagingException
+  {
+    transfer( messages, target, false );
+  }
+
+  /**
+   * Move the specified messages to the specified folder.  The messages
+   * are copied to the folder and removed from their current folders.
+   * The search indices of the messages are moved along with them.
+   *
+   * @see #transfer
+   * @param messages The messages that are to be moved.
+   * @param target The folder to which the messages are to be moved.
+   * @throws MessagingException If errors are encountered while moving
+   *   the messages.
+   */
+  public void move( final Collection<Message> messages, final Folder target )
+    throws MessagingException
+  {
+    transfer( messages, target, true );
+  }
+
+  /**
+   * Copy or move the specified messages to the specified folder.  The
+   * messages are grouped by their current folder, and each group is
+   * copied in one operation.  The indexer is then notified of the
+   * <code>UID</code>s assigned to the copies and of the
+   * <code>UIDNEXT</code> of the target folder before the copy, and the
+   * target folder is queued for indexing to pick up any copies whose
+   * indices could not be cloned.  Waits (for up to {@link
+   * #COMMIT_TIMEOUT}) for the cloned indices to be visible, since the
+   * folders are listed from the indices right after.
+   *
+   * @see ProtocolFolderManager#copyMessages
+   * @see Indexer#copy
+   * @see Indexer#move
+   * @param messages The messages that are to be copied or moved.
+   * @param target The folder to which the messages are to be copied.
+   * @param move Specify <code>true</code> to move the messages.
+   * @throws MessagingException If errors are encountered while copying
+   *   the messages.
+   */
+  private void transfer( final Collection<Message> messages,
+      final Folder target, final boolean move ) throws MessagingException
+  {
+    final Map<String,List<String>> groups =
+      new LinkedHashMap<String,List<String>>();
+    for ( Message message : messages )
+    {
+      final String folder = message.getFolder().getFullName();
+      if ( folder.equals( target.getFullName() ) ) continue;
+
+      List<String> uids = groups.get( folder );
+      if ( uids == null )
+      {
+        uids = new ArrayList<String>();
+        groups.put( folder, uids );
+      }
+      uids.add( message.getUid() );
+    }
+
+    if ( groups.isEmpty() ) return;
+
+    try
+    {
+      final Indexer indexer = session.getMessageIndexer();
+      for ( Map.Entry<String,List<String>> entry : groups.entrySet() )
+      {
+        final String[] uids =
+          entry.getValue().toArray( new String[entry.getValue().size()] );
+        final String[] copies = new String[uids.length];
+        final long next = impl.copyMessages(
+            uids, entry.getKey(), target.getFullName(), move, copies );
+
+        if ( move )
+        {
+          indexer.move( entry.getKey(), uids, target.getFullName(), copies,
+              next );
+        }
+        else
+        {
+          indexer.copy( entry.getKey(), uids, target.getFullName(), copies,
+              next );
+        }
+      }
+
+      indexer.index( impl.getFolder( target.getFullName() ), impl );
+      indexer.commit( COMMIT_TIMEOUT );
+    }
+    catch ( Throwable t )
+    {
+      throw new MessagingException( "Error " + ( move ? "moving" : "copying" ) +
+          " messages to folder: " + target.getFullName() + ".", t );
+    }
+  }
+
   /**
    * Perform any clean up action required to cleanly disconnect from the
    * mail store(s).
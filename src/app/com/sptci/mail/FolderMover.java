@@ -2,14 +2,11 @@ package com.sptci.mail;
 
 import java.util.logging.Level;
 
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
 
 /**
  * The <code>Callable</code> instance used to queue a folder rename
- * operation for execution on a folder.
+ * operation for execution on a folder.  Queued by {@link Indexer#rename}.
  *
  * <p>&copy; Copyright 2007 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
  * @author Rakesh Vidyadharan 2008-03-03
@@ -23,6 +20,13 @@ class FolderMover extends Callable
   /** The full name of the renamed folder. */
   private final String newName;
 
+  /**
+   * The type of the {@link #getJournalRecord journal record}.
+   *
+   * {@value}
+   */
+  static final String JOURNAL_TYPE = "rename";
+
   /**
    * Create a new instance of the object using the specified full names.
    * 
@@ -40,8 +44,45 @@ class FolderMover extends Callable
   }
 
   /**
-   * De-index the message represented by {@link 
-   * Indexer.DeIndexer#uniqueId}.
+   * Return the key that identifies the folder to move and its new name.
+   * Only identical moves are coalesced, so that the {@link IndexJournal}
+   * records of all the coalesced tasks are finished along with the task
+   * that is executed.
+   *
+   * @return The key for the task.
+   */
+  @Override
+  String getKey()
+  {
+    return "move:" + oldName + '\t' + newName;
+  }
+
+  /**
+   * Return the journal record for the task.
+   *
+   * @return The {@link #JOURNAL_TYPE}, the {@link #oldName} and the
+   *   {@link #newName}.
+   */
+  @Override
+  String[] getJournalRecord()
+  {
+    return new String[] { JOURNAL_TYPE, oldName, newName };
+  }
+
+  /**
+   * Update the indices for the renamed folder.  The documents record the
+   * {@link FolderIds identifier} of their folder, hence only the names
+   * mapped to the identifiers of the folder and its child folders, and
+   * the checkpoints of the folders, are updated.  No documents are
+   * re-written, hence the searcher is notified directly so that results
+   * cached by folder name are discarded.
+   *
+   * <p>If the indices are sharded and the folder has moved to the shard
+   * of a different top-level folder, its documents cannot stay where
+   * they are.  The folder is de-indexed in that case, and is re-indexed
+   * by the {@link FolderIndexer} queued by the folder manager.</p>
+   *
+   * @return Returns <code>true</code> if the indices were updated.
    */
   public Boolean call()
   {
@@ -49,22 +90,31 @@ class FolderMover extends Callable
 
     try
     {
-      IndexWriter writer = getWriter();
-      int start = writer.docCount();
-
-      for ( Document document : searcher.fetchDocuments( oldName ) )
+      final char separator = indexer.getSeparator();
+      if ( ! indexer.sharded || isSameShard( separator ) )
+      {
+        indexer.folders.rename( oldName, newName, separator );
+        indexer.checkpoints.rename( oldName, newName, separator );
+        searcher.indexChanged();
+        logger.info( "Renamed folder: " + oldName + " to: " + newName );
+      }
+      else if ( indexer.isShard( oldName ) )
       {
-        Term term = new Term( Fields.uniqueId.toString(),
-              document.get( Fields.uniqueId.toString() ) );
-        document.removeField( Fields.folder.toString() );
-        document.add( new Field( Fields.folder.toString(),
-            newName, Field.Store.YES, Field.Index.TOKENIZED ) );
-        writer.updateDocument( term, document );
+        indexer.dropShard( oldName );
       }
+      else
+      {
+        for ( String id : indexer.folders.getIds( oldName, separator ) )
+        {
+          deleteDocuments( new Term( KeyFields.folderKey.toString(), id ) );
+        }
 
-      int end = writer.docCount();
-      logger.info( "Updated folderName from: " + oldName +
-          " to: " + newName + " in " + ( end - start ) + " documents" );
+        indexer.folders.remove( oldName, separator );
+        indexer.checkpoints.remove( oldName );
+        indexer.checkpoints.removeAll( oldName + separator );
+        logger.info( "De-indexed folder: " + oldName +
+            " moved to a different shard as: " + newName );
+      }
     }
     catch ( Throwable t )
     {
@@ -79,4 +129,22 @@ class FolderMover extends Callable
 
     return result;
   }
+
+  /**
+   * Check to see if the documents of the folder belong to the same shard
+   * after the folder is renamed.  This is the case if the folder remains
+   * a top-level folder (shards are identified by the identifier of the
+   * folder), or if it remains under the same top-level folder.
+   *
+   * @param separator The separator used in the full names of folders.
+   * @return Returns <code>true</code> if the shard is unchanged.
+   */
+  private boolean isSameShard( final char separator )
+  {
+    final int oldIndex = oldName.indexOf( separator );
+    final int newIndex = newName.indexOf( separator );
+    if ( oldIndex < 0 || newIndex < 0 ) return ( oldIndex < 0 && newIndex < 0 );
+    return oldName.substring( 0, oldIndex ).equals(
+        newName.substring( 0, newIndex ) );
+  }
 }
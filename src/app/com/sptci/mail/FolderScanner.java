@@ -0,0 +1,266 @@
+package com.sptci.mail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.FetchProfile;
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.UIDFolder;
+
+/**
+ * A scanner used to walk the messages in a folder in windows of a fixed
+ * number of messages.  The messages in each window are fetched from the
+ * store using a single {@link javax.mail.FetchProfile} request, hence
+ * scanning a folder needs one round trip per window instead of one round
+ * trip per message.  Callers process a window and drop their references
+ * to it before requesting the next window.
+ *
+ * <p>Typical usage is as follows:</p>
+ * <pre>
+ *   FolderScanner scanner = new FolderScanner( folder );
+ *   while ( scanner.hasNext() )
+ *   {
+ *     for ( Message message : scanner.next() )
+ *     {
+ *       // process message
+ *     }
+ *   }
+ * </pre>
+ *
+ * <p>Scanners created with the <code>reverse</code> flag walk the
+ * messages from the end of the folder (the newest messages) to the
+ * start, and return the messages in each window newest first.</p>
+ *
+ * <p><b>Note:</b> The size of the window is configured using {@link
+ * Properties#scanWindowSize}.  The folder must be open.</p>
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+class FolderScanner
+{
+  /**
+   * The logger to use to log errors and messages.
+   */
+  private static final Logger logger = MailSession.logger;
+
+  /**
+   * The folder being scanned.
+   */
+  private final Folder folder;
+
+  /**
+   * The messages being scanned.  <code>null</code> if all the messages in
+   * the {@link #folder} are being scanned by message number.
+   */
+  private final Message[] messages;
+
+  /**
+   * The profile used to fetch the messages in each window.
+   */
+  private final FetchProfile profile;
+
+  /**
+   * The number of messages in each window.
+   */
+  private final int window;
+
+  /**
+   * The total number of messages to scan.
+   */
+  private final int total;
+
+  /**
+   * A flag used to indicate that the messages are scanned newest first.
+   */
+  private final boolean reverse;
+
+  /**
+   * The index (0 based) of the first message in the next window.
+   */
+  private int position;
+
+  /**
+   * Create a new scanner for all the messages in the specified folder
+   * using the {@link #createProfile default profile}.
+   *
+   * @param folder The {@link #folder} to scan.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the message count.
+   */
+  FolderScanner( final Folder folder ) throws MessagingException
+  {
+    this( folder, null, createProfile() );
+  }
+
+  /**
+   * Create a new scanner for all the messages in the specified folder
+   * using the specified profile.
+   *
+   * @param folder The {@link #folder} to scan.
+   * @param profile The {@link #profile} to use.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the message count.
+   */
+  FolderScanner( final Folder folder, final FetchProfile profile )
+    throws MessagingException
+  {
+    this( folder, null, profile );
+  }
+
+  /**
+   * Create a new scanner for the specified messages (for eg. the results
+   * of a search) in the folder using the {@link #createProfile default
+   * profile}.
+   *
+   * @param folder The {@link #folder} that contains the messages.
+   * @param messages The {@link #messages} to scan.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the message count.
+   */
+  FolderScanner( final Folder folder, final Message[] messages )
+    throws MessagingException
+  {
+    this( folder, messages, createProfile() );
+  }
+
+  /**
+   * Create a new scanner for the specified messages in the folder using
+   * the specified profile.
+   *
+   * @param folder The {@link #folder} to scan.
+   * @param messages The {@link #messages} to scan.  Specify
+   *   <code>null</code> to scan all the messages in the folder.
+   * @param profile The {@link #profile} to use.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the message count.
+   */
+  FolderScanner( final Folder folder, final Message[] messages,
+      final FetchProfile profile ) throws MessagingException
+  {
+    this( folder, messages, profile, ( messages == null ) ?
+        folder.getMessageCount() : messages.length, false );
+  }
+
+  /**
+   * Create a new scanner for the messages numbered <code>1</code> to
+   * <code>count</code> in the specified folder using the {@link
+   * #createProfile default profile}.
+   *
+   * @param folder The {@link #folder} to scan.
+   * @param count The number of the last message to scan.
+   * @param reverse The {@link #reverse} flag to use.
+   */
+  FolderScanner( final Folder folder, final int count, final boolean reverse )
+  {
+    this( folder, null, createProfile(), count, reverse );
+  }
+
+  /**
+   * Create a new scanner using the specified values.
+   *
+   * @param folder The {@link #folder} to scan.
+   * @param messages The {@link #messages} to scan.  Specify
+   *   <code>null</code> to scan the messages in the folder by number.
+   * @param profile The {@link #profile} to use.
+   * @param total The {@link #total} to use.
+   * @param reverse The {@link #reverse} flag to use.
+   */
+  private FolderScanner( final Folder folder, final Message[] messages,
+      final FetchProfile profile, final int total, final boolean reverse )
+  {
+    this.folder = folder;
+    this.messages = messages;
+    this.profile = profile;
+    this.window = getWindowSize();
+    this.total = total;
+    this.reverse = reverse;
+  }
+
+  /**
+   * Create the default profile used to fetch messages.  Fetches the
+   * envelope, flags, <code>UID</code> and <code>Message-Id</code> header
+   * of the messages.
+   *
+   * @return The fetch profile.
+   */
+  static FetchProfile createProfile()
+  {
+    final FetchProfile profile = new FetchProfile();
+    profile.add( FetchProfile.Item.ENVELOPE );
+    profile.add( FetchProfile.Item.FLAGS );
+    profile.add( UIDFolder.FetchProfileItem.UID );
+    profile.add( "Message-Id" );
+    return profile;
+  }
+
+  /**
+   * Check to see if there are more messages to scan.
+   *
+   * @return Returns <code>true</code> if there is another window.
+   */
+  boolean hasNext()
+  {
+    return position < total;
+  }
+
+  /**
+   * Return the next window of messages.  The messages have been fetched
+   * using the {@link #profile}.  If the scanner is {@link #reverse}d, the
+   * window is taken from the end of the remaining messages, and is
+   * ordered newest first.
+   *
+   * @return The messages in the next window.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the messages.
+   */
+  Message[] next() throws MessagingException
+  {
+    if ( ! hasNext() ) throw new NoSuchElementException();
+
+    final int end = Math.min( position + window, total );
+    final int start = ( reverse ) ? total - end : position;
+    final Message[] result;
+
+    if ( messages == null )
+    {
+      result = folder.getMessages( start + 1, start + end - position );
+    }
+    else
+    {
+      result = new Message[end - position];
+      System.arraycopy( messages, start, result, 0, result.length );
+    }
+
+    folder.fetch( result, profile );
+    if ( reverse ) Collections.reverse( Arrays.asList( result ) );
+    position = end;
+    return result;
+  }
+
+  /**
+   * Return the configured window size.
+   *
+   * @return The number of messages in each window.
+   */
+  private static int getWindowSize()
+  {
+    int size = Properties.DEFAULT_SCAN_WINDOW_SIZE;
+    try
+    {
+      size = Properties.getInstance().scanWindowSize;
+    }
+    catch ( Throwable t )
+    {
+      logger.log( Level.WARNING, "Error reading scan window size", t );
+    }
+
+    return Math.max( 1, size );
+  }
+}
@@ -8,8 +8,12 @@ import java.util.Map;
 import java.util.TreeMap;
 
 import javax.mail.Folder;
+import javax.mail.Message;
 import javax.mail.MessagingException;
 
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.IMAPStore;
+
 /**
  * A class that is used to manage all interactions with <code>IMAP 
  * Folder</code> objects.  Also used to maintain a cache of folders to
@@ -219,6 +223,48 @@ class IMAPFolderManager extends UIDFolderManager
     }
   }
 
+  /**
+   * Return the <code>UIDNEXT</code> value of the specified folder.  The
+   * value is fetched using a <code>STATUS</code> command if the folder is
+   * not open.
+   *
+   * @param folder The folder whose next <code>UID</code> is to be
+   *   returned.
+   * @return The <code>UID</code> that will be assigned to the next
+   *   message added to the folder, or <code>-1</code> if the server did
+   *   not report it.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the value from the store.
+   */
+  @Override
+  protected long getUIDNext( final Folder folder ) throws MessagingException
+  {
+    return ( folder instanceof IMAPFolder ) ?
+      ( (IMAPFolder) folder ).getUIDNext() : -1;
+  }
+
+  /**
+   * Expunge only the specified messages from the specified folder using
+   * <code>UID EXPUNGE</code>.  This needs the <code>UIDPLUS</code>
+   * extension, hence the messages are left flagged as deleted if the
+   * server does not support it.
+   *
+   * @param folder The open folder that contains the messages.
+   * @param messages The messages that are to be expunged.
+   * @throws MessagingException If errors are encountered while expunging
+   *   the messages.
+   */
+  @Override
+  protected void expunge( final Folder folder, final Message[] messages )
+    throws MessagingException
+  {
+    if ( folder instanceof IMAPFolder &&
+        ( (IMAPStore) folder.getStore() ).hasCapability( "UIDPLUS" ) )
+    {
+      ( (IMAPFolder) folder ).expunge( messages );
+    }
+  }
+
   /**
    * If local maildir caching is enabled, destroy any tasks executing.
    *
@@ -0,0 +1,137 @@
+package com.sptci.mail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+
+/**
+ * The <code>Callable</code> instance used to copy the documents of a user
+ * into an index of their own.  The documents are selected by their {@link
+ * KeyFields#userKey} from each of the indices (or shards) of the user
+ * using a {@link SelectionReader}, and are merged into a new index
+ * without being re-created from the messages.  The folder identifiers and
+ * checkpoints of the user are copied along with them, hence the directory
+ * may be used as the index directory of the user.  Queued by {@link
+ * Indexer#export}.
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+class IndexExporter extends Callable
+{
+  /** The directory in which the index is created. */
+  private final File directory;
+
+  /**
+   * Create a new instance of the task.
+   *
+   * @param indexer The {@link #indexer} to use.
+   * @param searcher The {@link #searcher} to use.
+   * @param directory The {@link #directory} to use.
+   */
+  IndexExporter( final Indexer indexer, final MessageSearcher searcher,
+      final File directory )
+  {
+    super( indexer, searcher );
+    this.directory = directory;
+  }
+
+  /**
+   * Commit the pending updates of the user, and merge the documents of
+   * the user into a new index in the {@link #directory}.
+   *
+   * @return Returns <code>true</code> if the documents were exported
+   *   without errors.
+   */
+  public Boolean call()
+  {
+    boolean result = true;
+
+    try
+    {
+      indexer.commitWriter();
+      final Term term = new Term( KeyFields.userKey.toString(), indexer.user );
+      final List<IndexReader> readers = new ArrayList<IndexReader>();
+      final List<IndexReader> selections = new ArrayList<IndexReader>();
+
+      try
+      {
+        for ( File index : indexer.getDirectories() )
+        {
+          if ( ! IndexReader.indexExists( index ) ) continue;
+
+          final IndexReader reader = IndexReader.open( index );
+          readers.add( reader );
+          selections.add( new SelectionReader( reader,
+                select( reader, term ), Collections.<String>emptySet() ) );
+        }
+
+        directory.mkdirs();
+        final IndexWriter writer =
+          new IndexWriter( directory, indexer.analyzer, true );
+        try
+        {
+          writer.addIndexes(
+              selections.toArray( new IndexReader[selections.size()] ) );
+        }
+        finally
+        {
+          writer.close();
+        }
+      }
+      finally
+      {
+        for ( IndexReader reader : readers ) reader.close();
+      }
+
+      indexer.exportState( directory );
+      logger.info( "Exported search indices for user: " + indexer.user +
+          " to: " + directory );
+    }
+    catch ( Throwable t )
+    {
+      result = false;
+      logger.log( Level.WARNING, "Error exporting search indices for user: " +
+          indexer.user + " to: " + directory, t );
+    }
+
+    return result;
+  }
+
+  /**
+   * Return the numbers of the documents in the specified reader that
+   * contain the specified term.
+   *
+   * @param reader The reader for the index.
+   * @param term The term that identifies the documents of the user.
+   * @return The numbers of the matching documents.
+   * @throws IOException If errors are encountered while reading the
+   *   index.
+   */
+  private BitSet select( final IndexReader reader, final Term term )
+    throws IOException
+  {
+    final BitSet bits = new BitSet( reader.maxDoc() );
+    final TermDocs docs = reader.termDocs( term );
+    try
+    {
+      while ( docs.next() ) bits.set( docs.doc() );
+    }
+    finally
+    {
+      docs.close();
+    }
+
+    return bits;
+  }
+}
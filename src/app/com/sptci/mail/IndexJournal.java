@@ -0,0 +1,416 @@
+package com.sptci.mail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The write-ahead journal of the indexing tasks queued for a user.  A
+ * record is appended to the journal when a task is queued, and is
+ * removed once the task has finished and its updates have been
+ * committed.  Tasks that were still queued when the {@link Indexer} was
+ * destroyed (for eg. on session timeout or redeploy) are replayed when
+ * the indexer is next started.
+ *
+ * <p>Only tasks that describe their work using a {@link
+ * Callable#getJournalRecord record} are journaled.  The tasks are
+ * idempotent, hence replaying a task whose updates were committed before
+ * its record was removed does no harm.</p>
+ *
+ * <p>The journal is stored in {@link #JOURNAL_FILE} under the search index
+ * directory of the user, one record per line.</p>
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+class IndexJournal
+{
+  /**
+   * The name of the file under the index directory that is used to store
+   * the journal.
+   *
+   * {@value}
+   */
+  static final String JOURNAL_FILE = "journal.log";
+
+  /**
+   * The suffix of the temporary file to which the journal is rewritten
+   * before it replaces {@link #file}.
+   *
+   * {@value}
+   */
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  /**
+   * The character set used to encode the fields of the records.
+   *
+   * {@value}
+   */
+  private static final String ENCODING = "UTF-8";
+
+  /**
+   * The separator between the fields of a record.
+   */
+  private static final char SEPARATOR = '\t';
+
+  /**
+   * The logger to use to log errors and messages.
+   */
+  private static final Logger logger = MailSession.logger;
+
+  /**
+   * The file in which the journal is stored.
+   */
+  private final File file;
+
+  /**
+   * The records in the journal keyed by their sequence number.
+   */
+  private final Map<Long,String[]> records =
+    new LinkedHashMap<Long,String[]>();
+
+  /**
+   * The sequence numbers of the records whose tasks have finished, but
+   * whose updates are yet to be committed.
+   */
+  private final Set<Long> finished = new HashSet<Long>();
+
+  /**
+   * The sequence number to assign to the next record.
+   */
+  private long sequence;
+
+  /**
+   * The sequence number of the first record appended after the journal
+   * was loaded.  Records below this were left by the previous session.
+   */
+  private final long loaded;
+
+  /**
+   * Create a new instance for the index stored at the specified path.
+   * Loads the existing records if any.
+   *
+   * @param path The path under which the index files are stored.
+   */
+  IndexJournal( final String path )
+  {
+    this.file = new File( path, JOURNAL_FILE );
+    load();
+    this.loaded = sequence;
+  }
+
+  /**
+   * Return the records left by the previous session and remove them.
+   * Invoked once when the indexer is started, the tasks created from the
+   * records are journaled again when they are queued.
+   *
+   * @return The records in the order in which they were appended.
+   */
+  synchronized List<String[]> drain()
+  {
+    final List<String[]> list = new ArrayList<String[]>();
+    final Iterator<Map.Entry<Long,String[]>> iterator =
+      records.entrySet().iterator();
+    while ( iterator.hasNext() )
+    {
+      final Map.Entry<Long,String[]> entry = iterator.next();
+      if ( entry.getKey() >= loaded ) continue;
+
+      list.add( entry.getValue() );
+      finished.remove( entry.getKey() );
+      iterator.remove();
+    }
+
+    if ( ! list.isEmpty() ) save();
+    return list;
+  }
+
+  /**
+   * Append the specified record to the journal.
+   *
+   * @param record The fields that describe the task.
+   * @return The sequence number assigned to the record.
+   */
+  synchronized long append( final String[] record )
+  {
+    final long id = sequence++;
+    records.put( id, record );
+
+    try
+    {
+      final Writer writer = new OutputStreamWriter(
+          new FileOutputStream( file, true ), ENCODING );
+      try
+      {
+        writer.write( format( id, record ) );
+      }
+      finally
+      {
+        writer.close();
+      }
+    }
+    catch ( IOException ioex )
+    {
+      logger.log( Level.WARNING, "Error writing journal file: " + file, ioex );
+    }
+
+    return id;
+  }
+
+  /**
+   * Return the sequence number that will be assigned to the next record.
+   * Used to record when a task was started.
+   *
+   * @return The next sequence number.
+   */
+  synchronized long getSequence()
+  {
+    return sequence;
+  }
+
+  /**
+   * Mark the record with the specified sequence number as finished.
+   * Identical records appended before the task was started are marked as
+   * well, since they were coalesced with the task by the scheduler.
+   *
+   * @see #commit
+   * @param id The sequence number of the record of the task.
+   * @param started The {@link #getSequence sequence} when the task was
+   *   started.
+   */
+  synchronized void finish( final long id, final long started )
+  {
+    final String[] record = records.get( id );
+    if ( record == null ) return;
+
+    finished.add( id );
+    for ( Map.Entry<Long,String[]> entry : records.entrySet() )
+    {
+      if ( entry.getKey() < started &&
+          Arrays.equals( record, entry.getValue() ) )
+      {
+        finished.add( entry.getKey() );
+      }
+    }
+  }
+
+  /**
+   * Remove the {@link #finished} records from the journal.  Invoked after
+   * the updates have been committed to the indices.  The journal is
+   * truncated if no records remain.
+   */
+  synchronized void commit()
+  {
+    if ( finished.isEmpty() ) return;
+
+    records.keySet().removeAll( finished );
+    finished.clear();
+    save();
+  }
+
+  /**
+   * Remove all the records.  Invoked when the indices are re-created.
+   */
+  synchronized void clear()
+  {
+    records.clear();
+    finished.clear();
+    save();
+  }
+
+  /**
+   * Join the specified values into a single field of a record.  Used for
+   * the <code>UID</code>s of messages, which do not contain the separator.
+   *
+   * @see #split
+   * @param values The values to join.  Entries may be <code>null</code>.
+   * @return The comma separated values, with <code>null</code> entries
+   *   left empty.
+   */
+  static String join( final String[] values )
+  {
+    final StringBuilder builder = new StringBuilder( values.length * 8 );
+    for ( int i = 0; i < values.length; ++i )
+    {
+      if ( i > 0 ) builder.append( ',' );
+      if ( values[i] != null ) builder.append( values[i] );
+    }
+
+    return builder.toString();
+  }
+
+  /**
+   * Split a field created using {@link #join} into its values.
+   *
+   * @param field The field to split.
+   * @return The values, with empty entries returned as <code>null</code>.
+   */
+  static String[] split( final String field )
+  {
+    final String[] values = field.split( ",", -1 );
+    for ( int i = 0; i < values.length; ++i )
+    {
+      if ( values[i].length() == 0 ) values[i] = null;
+    }
+
+    return values;
+  }
+
+  /**
+   * Load the records from {@link #file}.  Lines that cannot be parsed
+   * (for eg. a partially written last line) are skipped.  The rewritten
+   * journal is used if a crash left it behind before it replaced the
+   * file.
+   */
+  private void load()
+  {
+    final File temp = getTempFile();
+    if ( ! file.exists() && temp.exists() ) temp.renameTo( file );
+    if ( ! file.exists() ) return;
+
+    try
+    {
+      final BufferedReader reader = new BufferedReader(
+          new InputStreamReader( new FileInputStream( file ), ENCODING ) );
+      try
+      {
+        String line;
+        while ( ( line = reader.readLine() ) != null )
+        {
+          parse( line );
+        }
+      }
+      finally
+      {
+        reader.close();
+      }
+    }
+    catch ( Throwable t )
+    {
+      logger.log( Level.WARNING, "Error reading journal file: " + file, t );
+    }
+
+    logger.fine( "Loaded " + records.size() + " records from journal: " +
+        file );
+  }
+
+  /**
+   * Parse the specified line and add the record to {@link #records}.
+   *
+   * @param line The line read from the journal.
+   */
+  private void parse( final String line )
+  {
+    final String[] fields = line.split( String.valueOf( SEPARATOR ), -1 );
+    if ( fields.length < 2 ) return;
+
+    try
+    {
+      final long id = Long.parseLong( fields[0] );
+      final String[] record = new String[fields.length - 1];
+      for ( int i = 0; i < record.length; ++i )
+      {
+        record[i] = URLDecoder.decode( fields[i + 1], ENCODING );
+      }
+
+      records.put( id, record );
+      sequence = Math.max( sequence, id + 1 );
+    }
+    catch ( Throwable t )
+    {
+      logger.log( Level.WARNING, "Skipping invalid journal record: " +
+          line, t );
+    }
+  }
+
+  /**
+   * Format the specified record as a line in the journal.
+   *
+   * @param id The sequence number of the record.
+   * @param record The fields of the record.
+   * @return The line terminated by a new line.
+   * @throws IOException If the encoding is not supported.
+   */
+  private String format( final long id, final String[] record )
+    throws IOException
+  {
+    final StringBuilder builder = new StringBuilder( 128 );
+    builder.append( id );
+    for ( String field : record )
+    {
+      builder.append( SEPARATOR );
+      if ( field != null ) builder.append( URLEncoder.encode( field, ENCODING ) );
+    }
+
+    return builder.append( '\n' ).toString();
+  }
+
+  /**
+   * Save the current {@link #records} to {@link #file}.  The records are
+   * written and synced to a temporary file, which then replaces the
+   * file, so that a crash while saving never loses the journal.
+   */
+  private void save()
+  {
+    final File temp = getTempFile();
+    try
+    {
+      final FileOutputStream stream = new FileOutputStream( temp );
+      final Writer writer = new OutputStreamWriter( stream, ENCODING );
+      try
+      {
+        for ( Map.Entry<Long,String[]> entry : records.entrySet() )
+        {
+          writer.write( format( entry.getKey(), entry.getValue() ) );
+        }
+
+        writer.flush();
+        stream.getFD().sync();
+      }
+      finally
+      {
+        writer.close();
+      }
+
+      // Windows does not allow renaming over an existing file
+      if ( ! temp.renameTo( file ) &&
+          ! ( file.delete() && temp.renameTo( file ) ) )
+      {
+        throw new IOException( "Unable to rename " + temp + " to " + file );
+      }
+    }
+    catch ( IOException ioex )
+    {
+      logger.log( Level.WARNING, "Error writing journal file: " + file, ioex );
+    }
+  }
+
+  /**
+   * Return the temporary file to which the journal is rewritten.
+   *
+   * @return The file with {@link #TEMP_SUFFIX} appended to {@link #file}.
+   */
+  private File getTempFile()
+  {
+    return new File( file.getPath() + TEMP_SUFFIX );
+  }
+
+}
@@ -0,0 +1,327 @@
+package com.sptci.mail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.Flags;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.lucene.document.Document;
+
+/**
+ * A pipeline used by indexing tasks to parse messages in parallel while
+ * still adding documents to the indices from a single thread.  The
+ * pipeline has three stages:
+ *
+ * <ol>
+ *   <li>The task thread fetches each message from the store and makes a
+ *   {@link DetachedMessage detached} copy of it.  Folders may only be
+ *   accessed by one thread at a time, hence this stage is sequential.</li>
+ *   <li>The copies are parsed into documents by a node wide pool of
+ *   parser threads.  This is the CPU intensive stage (MIME decoding,
+ *   text extraction and analysis).</li>
+ *   <li>The task thread adds the parsed documents to the indices in the
+ *   order in which the messages were fetched.  The task remains the only
+ *   writer for the indices of the user.</li>
+ * </ol>
+ *
+ * <p>Messages that are larger than {@link Indexer#contentLimit} are not
+ * copied.  They are indexed directly by the task thread, which streams
+ * their text parts from the store.</p>
+ *
+ * <p>Messages that cannot be parsed are logged and skipped, and their
+ * <code>UID</code>s are recorded as {@link #getFailed failed}, so that
+ * the task does not advance the checkpoint of the folder past them.</p>
+ *
+ * <p>The number of messages that have been fetched and not yet written is
+ * bounded, so that a large folder cannot fill the memory with copies of
+ * its messages.  The task thread writes completed documents before
+ * fetching more messages once the bound is reached.</p>
+ *
+ * <p>Typical usage is as follows:</p>
+ * <pre>
+ *   IndexPipeline pipeline = new IndexPipeline( task );
+ *   try
+ *   {
+ *     for ( Message message : messages ) pipeline.add( message );
+ *     pipeline.finish();
+ *   }
+ *   finally
+ *   {
+ *     pipeline.cancel();
+ *   }
+ * </pre>
+ *
+ * <p><b>Note:</b> The size of the parser pool is configured using {@link
+ * Properties#parsePoolSize}.</p>
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+class IndexPipeline
+{
+  /**
+   * The logger to use to log errors and messages.
+   */
+  private static final Logger logger = MailSession.logger;
+
+  /**
+   * The number of messages per parser thread that may be waiting to be
+   * written.
+   *
+   * {@value}
+   */
+  private static final int QUEUE_FACTOR = 2;
+
+  /**
+   * The node wide pool of threads used to parse messages.
+   */
+  private static ExecutorService parsers;
+
+  /**
+   * The number of threads in {@link #parsers}.
+   */
+  private static int poolSize;
+
+  /**
+   * The task that is using the pipeline.
+   */
+  private final Callable task;
+
+  /**
+   * The documents being parsed, in the order in which the messages were
+   * fetched.
+   */
+  private final LinkedList<Future<Document>> queue =
+    new LinkedList<Future<Document>>();
+
+  /**
+   * The <code>UID</code>s of the messages in {@link #queue}, in the same
+   * order.
+   */
+  private final LinkedList<String> pending = new LinkedList<String>();
+
+  /**
+   * The <code>UID</code>s of the messages that could not be parsed.
+   */
+  private final List<String> failed = new ArrayList<String>();
+
+  /**
+   * The maximum number of entries in {@link #queue}.
+   */
+  private final int capacity;
+
+  /**
+   * Create a new pipeline for the specified task.
+   *
+   * @param task The {@link #task} to use.
+   */
+  IndexPipeline( final Callable task )
+  {
+    this.task = task;
+    getParsers();
+    this.capacity = poolSize * QUEUE_FACTOR;
+  }
+
+  /**
+   * Return the {@link #parsers} pool.  The pool is created the first time
+   * it is requested.
+   *
+   * @return The pool of parser threads.
+   */
+  private static synchronized ExecutorService getParsers()
+  {
+    if ( parsers == null )
+    {
+      int size = Properties.DEFAULT_PARSE_POOL_SIZE;
+      try
+      {
+        size = Properties.getInstance().parsePoolSize;
+      }
+      catch ( Throwable t )
+      {
+        logger.log( Level.WARNING, "Error reading parse pool size", t );
+      }
+
+      poolSize = ( size > 0 ) ?
+        size : Runtime.getRuntime().availableProcessors();
+      parsers = Executors.newFixedThreadPool( poolSize,
+          new TaskScheduler.WorkerFactory( "sptmail-parser-" ) );
+      logger.info( "Created message parser pool with size: " + poolSize );
+    }
+
+    return parsers;
+  }
+
+  /**
+   * Queue the specified message for indexing.  Messages marked as deleted
+   * are ignored.  Documents that have been parsed are written to the
+   * indices first if the pipeline is full.
+   *
+   * @param message The message that is to be indexed.
+   * @throws Exception If errors are encountered while fetching the message
+   *   or writing documents to the indices.
+   */
+  void add( final Message message ) throws Exception
+  {
+    if ( message.isSet( Flags.Flag.DELETED ) ) return;
+
+    if ( ! ( message instanceof MimeMessage ) || isLarge( message ) )
+    {
+      task.indexMessage( message );
+      task.indexer.commitIfDue();
+      return;
+    }
+
+    final DetachedMessage copy = new DetachedMessage( (MimeMessage) message,
+        message.getFolder().getFullName(),
+        Indexer.getUIDValidity( message.getFolder() ), task.getUID( message ) );
+
+    while ( queue.size() >= capacity || ( ! queue.isEmpty() &&
+          queue.getFirst().isDone() ) )
+    {
+      write();
+    }
+
+    queue.add( getParsers().submit( new Parser( copy ) ) );
+    pending.add( copy.getUID() );
+  }
+
+  /**
+   * Return the <code>UID</code>s of the messages that could not be parsed,
+   * and hence were not indexed.  The list is complete once {@link #finish}
+   * has returned.
+   *
+   * @return The <code>UID</code>s of the failed messages, in the order in
+   *   which they were added.
+   */
+  List<String> getFailed()
+  {
+    return Collections.unmodifiableList( failed );
+  }
+
+  /**
+   * Check to see if the specified message is too large to be copied.  The
+   * content of large messages is streamed from the store by the task
+   * thread instead, so that only the text parts are read, and the copy
+   * of a huge message is never held in memory.
+   *
+   * @param message The message to check.
+   * @return Returns <code>true</code> if the message is larger than the
+   *   {@link Indexer#contentLimit}.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the size of the message.
+   */
+  private boolean isLarge( final Message message ) throws MessagingException
+  {
+    final long limit = task.indexer.contentLimit;
+    return ( limit > 0 && message.getSize() > limit );
+  }
+
+  /**
+   * Wait for all the queued messages to be parsed and write the documents
+   * to the indices.  Must be invoked before the indices are committed.
+   *
+   * @throws Exception If errors are encountered while writing documents to
+   *   the indices.
+   */
+  void finish() throws Exception
+  {
+    while ( ! queue.isEmpty() ) write();
+  }
+
+  /**
+   * Cancel the messages that are still queued.  Invoked when the task
+   * fails or is interrupted.  Has no effect if the pipeline has finished.
+   */
+  void cancel()
+  {
+    for ( Future<Document> future : queue )
+    {
+      future.cancel( true );
+    }
+
+    queue.clear();
+    pending.clear();
+  }
+
+  /**
+   * Wait for the document at the head of {@link #queue} and add it to the
+   * indices.  Messages that could not be parsed are logged, recorded as
+   * {@link #failed} and skipped.
+   *
+   * @throws Exception If errors are encountered while writing the document
+   *   to the indices.
+   */
+  private void write() throws Exception
+  {
+    final Future<Document> future = queue.removeFirst();
+    final String uid = pending.removeFirst();
+    final Document document;
+
+    try
+    {
+      document = future.get();
+    }
+    catch ( ExecutionException eex )
+    {
+      logger.log( Level.WARNING, "Error parsing message with UID: " + uid,
+          eex.getCause() );
+      failed.add( uid );
+      return;
+    }
+
+    task.updateDocument( document );
+    task.indexer.commitIfDue();
+    logger.info( "added index for message: " +
+        document.get( Fields.messageId.toString() ) );
+  }
+
+  /**
+   * The task used to parse a detached message into a document in a
+   * parser thread.
+   */
+  private class Parser implements java.util.concurrent.Callable<Document>
+  {
+    /**
+     * The message that is to be parsed.
+     */
+    private final DetachedMessage message;
+
+    /**
+     * Create a new parser for the specified message.
+     *
+     * @param message The {@link #message} to use.
+     */
+    private Parser( final DetachedMessage message )
+    {
+      this.message = message;
+    }
+
+    /**
+     * Parse the {@link #message}.
+     *
+     * @return The document that represents the message.
+     * @throws MessagingException If errors are encountered while parsing
+     *   the message.
+     * @throws java.io.IOException If errors are encountered while reading
+     *   the message content.
+     */
+    public Document call() throws MessagingException, java.io.IOException
+    {
+      return task.createDocument( message, message.getFolderName(),
+          message.getUIDValidity(), message.getUID() );
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package com.sptci.mail;
+
+import java.util.logging.Level;
+
+import org.apache.lucene.index.Term;
+
+/**
+ * The <code>Callable</code> instance used to delete all the documents of
+ * a user from the search indices.  The documents are deleted by their
+ * {@link KeyFields#userKey}, hence this works the same way whether the
+ * user has indices of their own or shares an index with other users.
+ * The checkpoints, folder identifiers and journal of the user are cleared
+ * once the deletes have been committed.  Queued by {@link Indexer#purge}.
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+class IndexPurger extends Callable
+{
+  /**
+   * Create a new instance of the task.
+   *
+   * @param indexer The {@link #indexer} to use.
+   * @param searcher The {@link #searcher} to use.
+   */
+  IndexPurger( final Indexer indexer, final MessageSearcher searcher )
+  {
+    super( indexer, searcher );
+  }
+
+  /**
+   * Return the key for the task.  Purges that are waiting are coalesced.
+   *
+   * @return The key for the task.
+   */
+  @Override
+  String getKey()
+  {
+    return "purge";
+  }
+
+  /**
+   * Delete the documents of the user, commit the deletes and clear the
+   * state recorded for the user.
+   *
+   * @return Returns <code>true</code> if the documents were deleted
+   *   without errors.
+   */
+  public Boolean call()
+  {
+    boolean result = true;
+
+    try
+    {
+      deleteDocuments( new Term( KeyFields.userKey.toString(), indexer.user ) );
+      indexer.commitWriter();
+      indexer.clearState();
+      logger.info( "Purged search indices for user: " + indexer.user );
+    }
+    catch ( Throwable t )
+    {
+      result = false;
+      logger.log( Level.WARNING, "Error purging search indices for user: " +
+          indexer.user, t );
+    }
+
+    return result;
+  }
+}
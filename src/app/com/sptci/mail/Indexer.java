@@ -1,28 +1,67 @@
 package com.sptci.mail;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
-
-import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.mail.Folder;
 import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.UIDFolder;
+
+import com.sptci.io.FileUtilities;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexFileNameFilter;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
 
 /**
  * Indexer used to index messages.  Use to index new messages as well as to
  * delete indices for deleted messages.
+ *
+ * <p>The indices are stored either as a single index under the index
+ * directory, or (if {@link Properties#indexShards} is set) as one index
+ * (shard) per top-level folder under the {@link #SHARD_DIRECTORY}.  Each
+ * document is written to the shard of the folder to which it belongs, and
+ * a top-level folder is de-indexed by dropping its shard.  Shards are
+ * named using the {@link FolderIds identifier} of the top-level folder,
+ * so that renaming a folder does not affect the shards.</p>
+ *
+ * <p>If {@link Properties#indexMode} is {@link
+ * Properties#SHARED_INDEX_MODE}, the documents are instead written to one
+ * of the shared indices under the {@link #SHARED_DIRECTORY}, chosen by the
+ * user name.  Documents are told apart by {@link KeyFields#userKey}, and
+ * the {@link FolderIds identifiers} of the folders are prefixed with the
+ * user name, hence the keys used to replace and delete documents never
+ * match the documents of other users.  The checkpoints, folder
+ * identifiers and journal are still kept under the index directory of the
+ * user.</p>
+ *
+ * <p>The index writers are leased from the node wide {@link WriterPool}
+ * by the task that uses them, and are released once the task has
+ * finished.  Writers are opened the first time an index is written to,
+ * and may be closed by the pool while the user is idle.</p>
  * 
  * <p>&copy; Copyright 2007 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
  * @author Rakesh Vidyadharan 2007-03-04
@@ -36,40 +75,212 @@ public class Indexer
   static final Logger logger = MailSession.logger;
 
   /**
-   * The executor service used to maintain the indices.
+   * The version of the document schema written by this indexer.  Indices
+   * written using a different version are rebuilt when the writer is
+   * initialised.
+   *
+   * {@value}
+   */
+  static final int SCHEMA_VERSION = 8;
+
+  /**
+   * The separator between the parts of a {@link KeyFields#messageKey}.
+   *
+   * {@value}
+   */
+  static final char KEY_SEPARATOR = ':';
+
+  /**
+   * The name of the file under the index directory that is used to record
+   * the schema version of the indices.
+   *
+   * {@value}
+   */
+  static final String SCHEMA_FILE = "schema.xml";
+
+  /**
+   * The property name used to store {@link #SCHEMA_VERSION} in {@link
+   * #SCHEMA_FILE}.
+   *
+   * {@value}
+   */
+  static final String SCHEMA_VERSION_KEY = "version";
+
+  /**
+   * The property name used to store the layout ({@link #sharded}) of the
+   * indices in {@link #SCHEMA_FILE}.
+   *
+   * {@value}
+   */
+  static final String SCHEMA_SHARDED_KEY = "sharded";
+
+  /**
+   * The property name used to store the path of the {@link #index} in
+   * {@link #SCHEMA_FILE}.  Not recorded if the user has indices of their
+   * own.
+   *
+   * {@value}
+   */
+  static final String SCHEMA_INDEX_KEY = "index";
+
+  /**
+   * The name of the directory under the index directory that holds the
+   * shards when the indices are {@link #sharded}.
+   *
+   * {@value}
+   */
+  static final String SHARD_DIRECTORY = "shards";
+
+  /**
+   * The name of the directory under the {@link Properties#dataDirectory}
+   * that holds the shared indices when the indices are {@link #shared}.
+   *
+   * {@value}
+   */
+  static final String SHARED_DIRECTORY = "search";
+
+  /**
+   * The character set used to encode shard names as directory names.
+   *
+   * {@value}
+   */
+  private static final String SHARD_ENCODING = "UTF-8";
+
+  /**
+   * The node wide scheduler used to execute the tasks that maintain the
+   * indices.  Tasks are queued in the lane identified by {@link #path}.
    */
-  final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final TaskScheduler scheduler = TaskScheduler.getInstance();
 
   /**
    * The analyser to use to analyse the text.
    */
-  private final Analyzer analyzer = new StandardAnalyzer();
+  final Analyzer analyzer = new StandardAnalyzer();
+
+  /**
+   * The node wide pool from which the index writers are leased.
+   */
+  private final WriterPool pool = WriterPool.getInstance();
+
+  /**
+   * The writers leased by the task currently being executed, keyed by
+   * the directory of their index.  Released once the task has finished.
+   */
+  private final Map<File,IndexWriter> leased = new HashMap<File,IndexWriter>();
+
+  /**
+   * The identifiers of the top-level folders that have a shard.  Used
+   * only if the indices are {@link #sharded}.
+   */
+  private final Set<String> shards = new HashSet<String>();
 
   /**
-   * A map of <code>Future</code> tasks that have been queued to {@link
-   * #executor} by instance.
+   * A flag used to indicate that the indices are split into one shard per
+   * top-level folder.
+   *
+   * @see Properties#indexShards
+   */
+  final boolean sharded;
+
+  /**
+   * A flag used to indicate that the documents are stored in an index
+   * shared with other users.
+   *
+   * @see Properties#indexMode
+   */
+  final boolean shared;
+
+  /**
+   * The name of the user whose messages are indexed.  Recorded in the
+   * {@link KeyFields#userKey} of the documents.
    */
-  final Map<Future<Boolean>,String> tasks =
-    new ConcurrentHashMap<Future<Boolean>,String>();
+  final String user;
 
   /**
-   * The index writer to use to update the search indices.
+   * The separator used in the full names of folders.  Fetched from the
+   * store the first time a shard is looked up.
    */
-  IndexWriter writer;
+  private Character separator;
 
   /**
-   * The path under which the index files are stored.
+   * The path under which the checkpoints, folder identifiers and journal
+   * of the user are stored.  This is also where the index files are
+   * stored, unless the indices are {@link #shared}.
    */
   private final String path;
 
+  /**
+   * The path of the index to which the documents are written.  Either
+   * the {@link #path}, or the shared index of the user.
+   */
+  private final String index;
+
   /**
    * The mail session associated with the current user.
    */
   final MailSession session;
 
+  /**
+   * The indexing checkpoints for the folders of the user.
+   */
+  final FolderCheckpoints checkpoints;
+
+  /**
+   * The identifiers assigned to the folders of the user.
+   */
+  final FolderIds folders;
+
+  /**
+   * The journal of the tasks queued for the user that have not been
+   * committed yet.
+   */
+  private final IndexJournal journal;
+
+  /**
+   * The number of updates made to the indices since they were last
+   * committed.
+   */
+  private final AtomicInteger pending = new AtomicInteger();
+
+  /**
+   * The time at which the indices were last committed.
+   */
+  private volatile long lastCommit = System.currentTimeMillis();
+
+  /**
+   * The maximum number of {@link #pending} updates before a commit.
+   *
+   * @see Properties#indexCommitSize
+   */
+  private final int commitSize;
+
+  /**
+   * The maximum time in milliseconds between commits while updates are
+   * pending.
+   *
+   * @see Properties#indexCommitInterval
+   */
+  private final long commitInterval;
+
+  /**
+   * The maximum number of bytes of message content that is indexed for
+   * each message.
+   *
+   * @see Properties#indexContentLimit
+   */
+  final long contentLimit;
+
+  /**
+   * The maximum number of documents in the indices for which copied
+   * documents are cloned by the {@link MessageCopier}.
+   *
+   * @see Properties#indexCloneLimit
+   */
+  final int cloneLimit;
+
   /**
    * Create a new instance of the indexer using the specified values.
-   * Initialises {@link #writer} using the specified path.
+   * Initialises the indices at the specified path.
    *
    * @param path The path to use to store the indices.
    * @param session The {@link #session} to use.
@@ -78,28 +289,72 @@ public class Indexer
   {
     this.path = path;
     this.session = session;
+    this.user = session.getUser();
+
+    int size = Properties.DEFAULT_INDEX_COMMIT_SIZE;
+    long interval = Properties.DEFAULT_INDEX_COMMIT_INTERVAL;
+    long limit = Properties.DEFAULT_INDEX_CONTENT_LIMIT;
+    int clone = Properties.DEFAULT_INDEX_CLONE_LIMIT;
+    boolean shard = false;
+    String mode = Properties.USER_INDEX_MODE;
+    int count = Properties.DEFAULT_SHARED_INDEX_COUNT;
+    try
+    {
+      final Properties properties = Properties.getInstance();
+      size = properties.indexCommitSize;
+      interval = properties.indexCommitInterval;
+      limit = properties.indexContentLimit;
+      clone = properties.indexCloneLimit;
+      shard = properties.indexShards;
+      mode = properties.indexMode;
+      count = properties.sharedIndexCount;
+    }
+    catch ( Throwable t )
+    {
+      logger.log( Level.WARNING, "Error reading index commit properties", t );
+    }
+
+    this.commitSize = size;
+    this.commitInterval = interval;
+    this.contentLimit = limit;
+    this.cloneLimit = clone;
+    this.shared = Properties.SHARED_INDEX_MODE.equals( mode );
+    this.sharded = shard && ! shared;
+    this.index = ( shared ) ? getSharedDirectory( count ) : path;
+    this.checkpoints = new FolderCheckpoints( path );
+    this.folders = new FolderIds( path, ( shared ) ? user + '/' : "" );
+    if ( shard && shared )
+    {
+      logger.warning( "Ignoring " + Properties.INDEX_SHARDS +
+          " since the search indices are shared" );
+    }
+
+    this.journal = new IndexJournal( path );
     initWriter();
+    // Starts the background merges of the indices stored on the node
+    MaintenanceScheduler.getInstance();
   }
 
   /**
    * Destroy this instance of the indexer.  Normally invoked when user
-   * logs out of the mail store.  Cancels any indexing {@link #tasks} in
-   * progress and optimises and closes the {@link #writer}.
+   * logs out of the mail store.  Cancels any indexing tasks queued for
+   * this user in the {@link #scheduler} and closes the writers.
+   * The indices are not merged, merges are left to the {@link
+   * MaintenanceScheduler}.  The cancelled tasks remain in the {@link #journal}
+   * and are {@link #replay replayed} when the indexer is next started.  The
+   * journal is committed only if all the writers were closed, a writer
+   * that is still leased by a task that is winding down is closed by the
+   * pool once it is released.
    * 
+   * @see TaskScheduler#cancel
    * @see #closeWriter
    */
   public void destroy()
   {
     try
     {
-      for ( Future<Boolean> future : tasks.keySet() )
-      {
-        future.cancel( true );
-        tasks.remove( future );
-      }
-
-      executor.shutdownNow();
-      closeWriter();
+      scheduler.cancel( path );
+      if ( closeWriter() ) journal.commit();
       logger.fine( "Safely destroyed indexer" );
     }
     catch ( Throwable t )
@@ -117,9 +372,8 @@ public class Indexer
    */
   public void index( final Folder folder, final ProtocolFolderManager manager )
   {
-    Future<Boolean> future = executor.submit(
-        new FolderIndexer( this, session.getMessageSearcher(), folder, manager ) );
-    tasks.put( future, "" );
+    submit( new FolderIndexer(
+          this, session.getMessageSearcher(), folder, manager ) );
   }
   
   /**
@@ -130,33 +384,43 @@ public class Indexer
    */
   public void index( final Message message )
   {
-    Future<Boolean> future = executor.submit(
-        new MessageIndexer( this, session.getMessageSearcher(), message ) );
-    tasks.put( future, "" );
+    submit( new MessageIndexer( this, session.getMessageSearcher(), message ) );
   }
   
   /**
-   * Remove the index associated with specified <code>message-id</code>.
-   * This method should be used after deleting a message as well as when
-   * it is determined that a previously indexed message has been purged
-   * from the mail store.
+   * Remove the index associated with the specified message.  This method
+   * should be used before expunging a message from its folder, while its
+   * <code>UID</code> is still available.
    *
    * @see DeIndexer
-   * @see #getUniqueId
-   * @param messageId The message-id to use to fetch the index.
-   * @param folder The full name of the folder in which this message exists.
+   * @see #getMessageKey
+   * @param message The message whose index is to be removed.
    */
-  public void deIndex( final String messageId, final String folder )
+  public void deIndex( final Message message )
   {
-    Future<Boolean> future = executor.submit( new DeIndexer(
-        this, session.getMessageSearcher(), getUniqueId( messageId, folder ) ) );
-    tasks.put( future, "" );
+    try
+    {
+      final Folder folder = message.getFolder();
+      final String folderId = folders.lookupId( folder.getFullName() );
+      if ( folderId == null ) return;
+
+      final String uid = session.getFolderManager().impl.getUID( message );
+      submit( new DeIndexer( this, session.getMessageSearcher(),
+            getMessageKey( folderId, getUIDValidity( folder ), uid,
+              MessageHandler.getMessageId( message ) ) ) );
+    }
+    catch ( Throwable t )
+    {
+      logger.log( Level.WARNING, "Error deindexing message", t );
+    }
   }
   
   /**
    * Remove the indices associated with specified folder name.
    * This method should be used before deleting a folder.  Recursively
    * deletes the indices for all child folders of the specified folder.
+   * The shard of a top-level folder holds the indices of its child
+   * folders as well, hence it is dropped as a whole.
    *
    * @see FolderDeIndexer
    * @param folder The folder that along with its child folders and all
@@ -166,14 +430,20 @@ public class Indexer
   {
     try
     {
+      if ( isShard( folder.getFullName() ) )
+      {
+        submit( new FolderDeIndexer(
+              this, session.getMessageSearcher(), folder.getFullName() ) );
+        return;
+      }
+
       for ( Folder child : folder.list() )
       {
         deIndex( child );
       }
       
-      Future<Boolean> future = executor.submit( new FolderDeIndexer(
-          this, session.getMessageSearcher(), folder.getFullName() ) );
-      tasks.put( future, "" );
+      submit( new FolderDeIndexer(
+            this, session.getMessageSearcher(), folder.getFullName() ) );
     }
     catch ( Throwable t )
     {
@@ -183,93 +453,1101 @@ public class Indexer
   }
 
   /**
-   * Initialise the {@link #writer} instance that is to be used to maintain
-   * the indices.
+   * Update the indices after the specified folder has been renamed or
+   * moved in the store.  The documents record the identifier of their
+   * folder, hence only the name mapped to the identifier of the folder
+   * (and its child folders) is updated.
+   *
+   * @see FolderMover
+   * @param oldName The full name of the folder before it was renamed.
+   * @param newName The full name of the folder after it was renamed.
    */
-  private void initWriter()
+  public void rename( final String oldName, final String newName )
   {
-    try
+    submit( new FolderMover(
+          this, session.getMessageSearcher(), oldName, newName ) );
+  }
+
+  /**
+   * Update the indices after the specified messages have been copied to
+   * another folder.  The documents of the copies are cloned from the
+   * indexed documents of the messages, without fetching the copies.
+   *
+   * @see MessageCopier
+   * @param source The full name of the folder that contains the messages.
+   * @param uids The <code>UID</code>s of the messages in the source folder.
+   * @param target The full name of the folder to which the messages were
+   *   copied.
+   * @param copies The <code>UID</code>s of the copies in the target
+   *   folder, in the order of the messages.  Entries are
+   *   <code>null</code> if not known.
+   * @param uidNext The <code>UIDNEXT</code> of the target folder before
+   *   the messages were copied, or <code>-1</code> if not known.
+   */
+  public void copy( final String source, final String[] uids,
+      final String target, final String[] copies, final long uidNext )
+  {
+    submit( new MessageCopier( this, session.getMessageSearcher(),
+          source, uids, target, copies, uidNext, false ) );
+  }
+
+  /**
+   * Update the indices after the specified messages have been moved to
+   * another folder.  The documents of the messages are cloned as for
+   * {@link #copy}, and the original documents are removed.
+   *
+   * @see MessageCopier
+   * @param source The full name of the folder that contained the messages.
+   * @param uids The <code>UID</code>s of the messages in the source folder.
+   * @param target The full name of the folder to which the messages were
+   *   moved.
+   * @param copies The <code>UID</code>s of the messages in the target
+   *   folder, in the order of the messages.  Entries are
+   *   <code>null</code> if not known.
+   * @param uidNext The <code>UIDNEXT</code> of the target folder before
+   *   the messages were moved, or <code>-1</code> if not known.
+   */
+  public void move( final String source, final String[] uids,
+      final String target, final String[] copies, final long uidNext )
+  {
+    submit( new MessageCopier( this, session.getMessageSearcher(),
+          source, uids, target, copies, uidNext, true ) );
+  }
+
+  /**
+   * Queue the specified task in the lane for this user in the {@link
+   * #scheduler}.
+   *
+   * @param task The task to queue.
+   * @return The future that represents the pending result of the task.
+   */
+  Future<Boolean> submit( final Callable task )
+  {
+    final String[] record = task.getJournalRecord();
+    return scheduler.submit( path, task.getKey(), task.getPriority(),
+        new LeasingTask( task,
+          ( record == null ) ? -1 : journal.append( record ) ) );
+  }
+
+  /**
+   * Queue the tasks that were left in the {@link #journal} by the
+   * previous session.  Invoked once the store has been connected, since
+   * the tasks look up folders through the folder manager.  The tasks are
+   * idempotent, hence tasks whose updates were committed before the
+   * journal was truncated may safely be executed again.
+   *
+   * @see IndexJournal#drain
+   */
+  void replay()
+  {
+    final Collection<String[]> records = journal.drain();
+    for ( String[] record : records )
     {
-      File file = new File( path );
-      boolean create = ( file.exists() ? false : true );
-      writer = new IndexWriter( path, analyzer, create );
+      final Callable task = createTask( record );
+      if ( task == null )
+      {
+        logger.warning( "Ignoring unknown journal record: " + record[0] );
+        continue;
+      }
+
+      submit( task );
     }
-    catch ( Throwable t )
+
+    if ( ! records.isEmpty() )
     {
-      logger.log( Level.SEVERE, "Error initialising writer for path: " +
-          path, t );
+      logger.info( "Replayed " + records.size() +
+          " journaled tasks for path: " + path );
     }
   }
 
   /**
-   * Return the {@link #writer} instance that is to be used to maintain
-   * the indices.
+   * Create the task described by the specified journal record.
    *
-   * @return Returns the opened index writer instance.
+   * @see Callable#getJournalRecord
+   * @param record The journal record of the task.
+   * @return The task, or <code>null</code> if the type of the record is
+   *   not known.
+   */
+  Callable createTask( final String[] record )
+  {
+    final MessageSearcher searcher = session.getMessageSearcher();
+    final String type = record[0];
+
+    if ( DeIndexer.JOURNAL_TYPE.equals( type ) )
+    {
+      return new DeIndexer( this, searcher, record[1] );
+    }
+    else if ( FolderDeIndexer.JOURNAL_TYPE.equals( type ) )
+    {
+      return new FolderDeIndexer( this, searcher, record[1] );
+    }
+    else if ( FolderMover.JOURNAL_TYPE.equals( type ) )
+    {
+      return new FolderMover( this, searcher, record[1], record[2] );
+    }
+    else if ( MessageCopier.JOURNAL_COPY.equals( type ) ||
+        MessageCopier.JOURNAL_MOVE.equals( type ) )
+    {
+      return new MessageCopier( this, searcher, record[1],
+          IndexJournal.split( record[3] ), record[2],
+          IndexJournal.split( record[4] ),
+          ( record.length > 5 ) ? Long.parseLong( record[5] ) : -1,
+          MessageCopier.JOURNAL_MOVE.equals( type ) );
+    }
+
+    return null;
+  }
+
+  /**
+   * Return the number of tasks queued for this user that are waiting to
+   * be executed.
+   *
+   * @return The depth of the indexing queue.
+   */
+  public int getQueueDepth()
+  {
+    return scheduler.getQueueSize( path );
+  }
+
+  /**
+   * Return the date back to which the messages in the specified folder
+   * have been indexed.  Folders are indexed newest first, hence searches
+   * only find messages received on or after this date while the older
+   * messages are still being indexed.
+   *
+   * @see FolderCheckpoints.Checkpoint#since
+   * @param folder The full name of the folder.
+   * @return The date of the oldest indexed message, the current date if
+   *   the folder has not been indexed yet, or <code>null</code> if all the
+   *   messages in the folder have been indexed.
+   */
+  public Date getIndexedSince( final String folder )
+  {
+    final FolderCheckpoints.Checkpoint checkpoint = checkpoints.get( folder );
+    if ( checkpoint == null ) return new Date();
+    return ( checkpoint.isComplete() ) ? null : new Date( checkpoint.since );
+  }
+
+  /**
+   * Return the path of the index to which the documents of the user are
+   * written.  Searches are executed against this index.
+   *
+   * @return The {@link #index} path.
+   */
+  String getIndexDirectory()
+  {
+    return index;
+  }
+
+  /**
+   * Copy the documents of this user into a new index in the specified
+   * directory, along with the folder identifiers and checkpoints.  The
+   * directory may be used as the index directory of the user with
+   * indices of their own, for instance when moving the user out of a
+   * shared index.
+   *
+   * @see IndexExporter
+   * @param directory The directory in which the index is created.  Any
+   *   existing index in the directory is replaced.
+   * @return The future that completes once the index has been written.
+   */
+  public Future<Boolean> export( final File directory )
+  {
+    return submit( new IndexExporter(
+          this, session.getMessageSearcher(), directory ) );
+  }
+
+  /**
+   * Delete all the documents of this user from the indices, along with
+   * the folder identifiers, checkpoints and journal.  Folders are indexed
+   * again by the folder scans queued after the purge (or the next time
+   * they are loaded), hence the user should be logged out first if the
+   * documents are to stay deleted.
+   *
+   * @see IndexPurger
+   * @return The future that completes once the documents have been
+   *   deleted.
+   */
+  public Future<Boolean> purge()
+  {
+    return submit( new IndexPurger( this, session.getMessageSearcher() ) );
+  }
+
+  /**
+   * Return the path of the shared index to which the documents of the
+   * user are written.  The shared index recorded in the schema file of
+   * the user is kept as long as it is one of the shared indices, so that
+   * changing the number of shared indices does not move (and hence
+   * re-index) the users that have already been indexed.  Other users are
+   * spread across the shared indices by the hash code of their name.
+   *
+   * @param count The number of shared indices.
+   * @return The path of the shared index.
    */
-  protected IndexWriter getWriter()
+  private String getSharedDirectory( final int count )
   {
-    return writer;
+    final int partitions = Math.max( 1, count );
+    final File root =
+      new File( session.getDataDirectory(), SHARED_DIRECTORY );
+
+    final String recorded = loadSchema().getProperty( SCHEMA_INDEX_KEY );
+    if ( recorded != null )
+    {
+      final File file = new File( recorded );
+      if ( root.equals( file.getParentFile() ) )
+      {
+        try
+        {
+          if ( Integer.parseInt( file.getName() ) < partitions )
+          {
+            return recorded;
+          }
+        }
+        catch ( NumberFormatException nfex )
+        {
+          logger.warning( "Ignoring invalid shared index: " + recorded );
+        }
+      }
+    }
+
+    final int partition = ( user.hashCode() & Integer.MAX_VALUE ) % partitions;
+    return new File( root, String.valueOf( partition ) ).getPath();
   }
 
+
   /**
-   * Close the {@link #writer} after updating the indices.
+   * Initialise the indices (or the {@link #shards}) that are to be used
+   * to maintain the indices.  An empty index is created if necessary, so
+   * that searches may be executed before anything has been written.  The
+   * writers themselves are opened on demand.  Existing indices that were written
+   * using an older {@link #SCHEMA_VERSION} or a different layout are
+   * migrated by re-creating the indices in place.  If the indices are
+   * {@link #shared}, or were previously stored in a shared index, only the
+   * documents of the user are deleted from the shared index.  Message content is not
+   * stored in the indices, hence the documents are re-created by the
+   * {@link FolderIndexer} tasks that are queued when the folders are
+   * loaded.
+   *
+   * @see #loadSchema
+   * @see #saveSchemaVersion
    */
-  private void closeWriter()
+  private void initWriter()
   {
     try
     {
-      writer.optimize();
-      writer.close();
+      File file = new File( index );
+      boolean create = ( new File( path ).exists() ? false : true );
+      String previous = path;
+
+      if ( ! create )
+      {
+        final java.util.Properties schema = loadSchema();
+        final int version = Integer.parseInt(
+            schema.getProperty( SCHEMA_VERSION_KEY, "1" ) );
+        final boolean layout = Boolean.valueOf( schema.getProperty(
+              SCHEMA_SHARDED_KEY, "false" ) ).booleanValue();
+        previous = schema.getProperty( SCHEMA_INDEX_KEY, path );
+
+        if ( version != SCHEMA_VERSION )
+        {
+          logger.info( "Migrating search indices at path: " + path +
+              " from schema version: " + version + " to: " + SCHEMA_VERSION );
+          create = true;
+        }
+        else if ( layout != sharded )
+        {
+          logger.info( "Changing layout of search indices at path: " +
+              path + " to sharded: " + sharded );
+          create = true;
+        }
+        else if ( ! previous.equals( index ) )
+        {
+          logger.info( "Moving search indices at path: " + path +
+              " from: " + previous + " to: " + index );
+          create = true;
+        }
+      }
+
+      if ( create )
+      {
+        clearIndices();
+        if ( ! previous.equals( path ) && ! previous.equals( index ) )
+        {
+          deleteUser( new File( previous ) );
+        }
+        if ( shared ) deleteUser( file );
+      }
+
+      if ( sharded )
+      {
+        loadShards();
+      }
+      else if ( shared )
+      {
+        pool.acquire( file, index );
+        pool.release( file );
+      }
+      else if ( ! IndexReader.indexExists( file ) )
+      {
+        openWriter( file ).close();
+      }
+
+      if ( create )
+      {
+        new File( path ).mkdirs();
+        saveSchemaVersion();
+        clearState();
+      }
     }
     catch ( Throwable t )
     {
-      logger.log( Level.SEVERE, "Error closing writer for path: " +
+      logger.log( Level.SEVERE, "Error initialising writer for path: " +
           path, t );
     }
   }
 
   /**
-   * Flush the {@link #writer} after updating the indices.  As long as the
-   * {@link #writer} is opened in <code>autoCommit</code> mode, readers
-   * will pick up flushed updated to the index.
+   * Open a writer for the index in the specified directory.  The index is
+   * created if it does not exist.  Invoked by the {@link #pool} when a
+   * writer that is not open is leased.
+   *
+   * @param directory The directory in which the index is stored.
+   * @return The opened writer.
+   * @throws IOException If errors are encountered while opening the index.
    */
-  protected void flush()
+  static IndexWriter openWriter( final File directory ) throws IOException
   {
+    final IndexWriter result = new IndexWriter( directory,
+        new StandardAnalyzer(), ! IndexReader.indexExists( directory ) );
+    // Message content is capped by contentLimit rather than term count
+    result.setMaxFieldLength( Integer.MAX_VALUE );
+    return result;
+  }
+
+  /**
+   * Delete the documents of this user from the shared index in the
+   * specified directory.  The deletes are flushed right away, since the
+   * checkpoints of the user are cleared along with them.
+   *
+   * @param directory The directory in which the shared index is stored.
+   * @throws IOException If errors are encountered while writing the
+   *   index.
+   */
+  private void deleteUser( final File directory ) throws IOException
+  {
+    if ( ! IndexReader.indexExists( directory ) ) return;
+
+    final IndexWriter writer = pool.acquire( directory, index );
     try
     {
+      writer.deleteDocuments(
+          new Term( KeyFields.userKey.toString(), user ) );
       writer.flush();
     }
-    catch ( Throwable t )
+    finally
     {
-      logger.log( Level.SEVERE, "Error flushing writer for path: " +
-          path, t );
+      pool.release( directory );
     }
+
+    logger.info( "Deleted documents for user: " + user +
+        " from shared index: " + directory );
   }
 
   /**
-   * Create the unique identifier for the specified <code>message-id</code>
-   * and <code>folder</code> name.
+   * Load the identifiers of the existing shards under the {@link
+   * #SHARD_DIRECTORY}.
    *
-   * @param messageId The unique id for the message.
-   * @param folder The full name of the folder in which the message belongs.
-   * @return The unique identifier for the message.
-   * @throws MessagingException If errors are encountered while fetching
-   *   properties from the message.
+   * @throws IOException If errors are encountered while decoding the
+   *   names of the shards.
+   */
+  private void loadShards() throws IOException
+  {
+    final File root = new File( path, SHARD_DIRECTORY );
+    root.mkdirs();
+
+    for ( File directory : root.listFiles() )
+    {
+      if ( ! directory.isDirectory() ) continue;
+      shards.add( URLDecoder.decode( directory.getName(), SHARD_ENCODING ) );
+    }
+
+    logger.fine( "Found " + shards.size() + " shards for path: " + path );
+  }
+
+  /**
+   * Remove the index files for both layouts from under the {@link #path}.
+   * Other files (checkpoints, schema) are left in place.
    */
-  protected String getUniqueId( final String messageId, final String folder )
+  private void clearIndices()
   {
-    String result = "";
-    int id = ( folder + ":_-_:" + messageId ).hashCode();
-    if ( id < 0 )
+    final File[] files =
+      new File( path ).listFiles( new IndexFileNameFilter() );
+    if ( files != null )
     {
-      result = "0" + Math.abs( id );
+      for ( File file : files ) file.delete();
     }
-    else
+
+    delete( new File( path, SHARD_DIRECTORY ) );
+  }
+
+  /**
+   * Delete the specified file or directory along with its contents.
+   *
+   * @param file The file or directory to delete.
+   * @return Returns <code>true</code> if the file no longer exists.
+   */
+  private static boolean delete( final File file )
+  {
+    final File[] children = file.listFiles();
+    if ( children != null )
     {
-      result = String.valueOf( id );
+      for ( File child : children ) delete( child );
     }
 
-    return result;
+    return file.delete() || ! file.exists();
+  }
+
+  /**
+   * Load the properties recorded in {@link #SCHEMA_FILE} for the indices
+   * at {@link #path}.
+   *
+   * @return The recorded properties.  Returns empty properties for indices
+   *   created before schema versions were recorded.
+   */
+  private java.util.Properties loadSchema()
+  {
+    final java.util.Properties properties = new java.util.Properties();
+    final File file = new File( path, SCHEMA_FILE );
+    if ( ! file.exists() ) return properties;
+
+    try
+    {
+      FileInputStream fis = new FileInputStream( file );
+      try
+      {
+        properties.loadFromXML( fis );
+      }
+      finally
+      {
+        fis.close();
+      }
+    }
+    catch ( Throwable t )
+    {
+      logger.log( Level.WARNING, "Error reading schema version file: " +
+          file, t );
+    }
+
+    return properties;
+  }
+
+  /**
+   * Record {@link #SCHEMA_VERSION} and the layout of the indices in {@link
+   * #SCHEMA_FILE} under {@link #path}.
+   *
+   * @throws IOException If errors are encountered while writing the file.
+   */
+  private void saveSchemaVersion() throws IOException
+  {
+    saveSchemaVersion( new File( path ), sharded, ( shared ) ? index : null );
+  }
+
+  /**
+   * Record {@link #SCHEMA_VERSION} and the specified layout in {@link
+   * #SCHEMA_FILE} under the specified directory.
+   *
+   * @param directory The directory in which the file is written.
+   * @param sharded The value to record for {@link #SCHEMA_SHARDED_KEY}.
+   * @param index The value to record for {@link #SCHEMA_INDEX_KEY}.
+   *   Specify <code>null</code> for indices that are not shared.
+   * @throws IOException If errors are encountered while writing the file.
+   */
+  private static void saveSchemaVersion( final File directory,
+      final boolean sharded, final String index ) throws IOException
+  {
+    final java.util.Properties properties = new java.util.Properties();
+    properties.setProperty(
+        SCHEMA_VERSION_KEY, String.valueOf( SCHEMA_VERSION ) );
+    properties.setProperty( SCHEMA_SHARDED_KEY, String.valueOf( sharded ) );
+    if ( index != null ) properties.setProperty( SCHEMA_INDEX_KEY, index );
+
+    FileOutputStream fos =
+      new FileOutputStream( new File( directory, SCHEMA_FILE ) );
+    try
+    {
+      properties.storeToXML( fos, "Search index schema" );
+    }
+    finally
+    {
+      fos.close();
+    }
+  }
+
+  /**
+   * Clear the checkpoints, folder identifiers and journal of the user.
+   * Invoked when the documents of the user have been deleted from the
+   * indices.
+   */
+  void clearState()
+  {
+    checkpoints.clear();
+    folders.clear();
+    journal.clear();
+  }
+
+  /**
+   * Copy the folder identifiers and checkpoints of the user to the
+   * specified directory, and record the schema of an index that is not
+   * shared or sharded.  Invoked once the documents of the user have been
+   * exported to the directory.
+   *
+   * @see IndexExporter
+   * @param directory The directory to which the index was exported.
+   * @throws IOException If errors are encountered while writing the
+   *   files.
+   */
+  void exportState( final File directory ) throws IOException
+  {
+    for ( String name : new String[] {
+        FolderIds.FOLDER_FILE, FolderCheckpoints.CHECKPOINT_FILE } )
+    {
+      final File file = new File( path, name );
+      if ( file.exists() ) FileUtilities.copy( file, new File( directory, name ) );
+    }
+
+    saveSchemaVersion( directory, false, null );
+  }
+
+  /**
+   * Return the writer that is to be used to maintain the indices for the
+   * specified folder.  If the indices are {@link #sharded}, this is the
+   * writer for the shard of the top-level folder, which is created the
+   * first time it is requested.
+   *
+   * @param folderId The {@link FolderIds identifier} of the folder.
+   * @return Returns the opened index writer instance.
+   * @throws IOException If errors are encountered while creating the
+   *   shard.
+   */
+  synchronized IndexWriter getWriter( final String folderId )
+    throws IOException
+  {
+    if ( ! sharded ) return getWriter( new File( index ) );
+
+    final String shard = getShard( folders.getName( folderId ) );
+    if ( shards.add( shard ) )
+    {
+      logger.info( "Created shard: " + shard + " under path: " + path );
+    }
+
+    return getWriter( getShardDirectory( shard ) );
+  }
+
+  /**
+   * Return the writer for the index in the specified directory.  The
+   * writer is leased from the {@link #pool} until the current task has
+   * finished.
+   *
+   * @see #releaseWriters
+   * @param directory The directory in which the index is stored.
+   * @return The leased writer.
+   * @throws IOException If errors are encountered while opening the
+   *   writer.
+   */
+  synchronized IndexWriter getWriter( final File directory )
+    throws IOException
+  {
+    IndexWriter result = leased.get( directory );
+    if ( result == null )
+    {
+      result = pool.acquire( directory, index );
+      leased.put( directory, result );
+    }
+
+    return result;
+  }
+
+  /**
+   * Return all the writers that are used to maintain the indices.
+   * Writers that are not open are opened.
+   *
+   * @return The writer, or the writers for all the shards.
+   * @throws IOException If errors are encountered while opening the
+   *   writers.
+   */
+  synchronized Collection<IndexWriter> getWriters() throws IOException
+  {
+    final Collection<File> directories = getDirectories();
+    final Collection<IndexWriter> writers =
+      new ArrayList<IndexWriter>( directories.size() );
+    for ( File directory : directories )
+    {
+      writers.add( getWriter( directory ) );
+    }
+
+    return writers;
+  }
+
+  /**
+   * Return the writers that are currently open.  The writers are leased
+   * as for {@link #getWriter( File )}.  Writers that are not open have no
+   * buffered updates, hence there is no need to open them to commit.
+   *
+   * @return The open writers.
+   */
+  private synchronized Collection<IndexWriter> getOpenWriters()
+  {
+    final Collection<IndexWriter> writers = new ArrayList<IndexWriter>();
+    for ( File directory : getDirectories() )
+    {
+      IndexWriter writer = leased.get( directory );
+      if ( writer == null )
+      {
+        writer = pool.acquireIfOpen( directory );
+        if ( writer == null ) continue;
+        leased.put( directory, writer );
+      }
+
+      writers.add( writer );
+    }
+
+    return writers;
+  }
+
+  /**
+   * Return the directories in which the indices are stored.
+   *
+   * @return The index directory, or the directories of all the shards.
+   */
+  synchronized Collection<File> getDirectories()
+  {
+    if ( ! sharded ) return Collections.singletonList( new File( index ) );
+
+    final Collection<File> directories = new ArrayList<File>( shards.size() );
+    for ( String shard : shards )
+    {
+      try
+      {
+        directories.add( getShardDirectory( shard ) );
+      }
+      catch ( IOException ioex )
+      {
+        logger.log( Level.WARNING, "Error encoding shard: " + shard, ioex );
+      }
+    }
+
+    return directories;
+  }
+
+  /**
+   * Release the writers {@link #leased} by the current task back to the
+   * {@link #pool}.
+   */
+  synchronized void releaseWriters()
+  {
+    for ( File directory : leased.keySet() )
+    {
+      pool.release( directory );
+    }
+
+    leased.clear();
+  }
+
+  /**
+   * Check to see if the indices for the specified folder are held in a
+   * shard of their own.  This is the case for top-level folders if the
+   * indices are {@link #sharded}.
+   *
+   * @param folder The full name of the folder.
+   * @return Returns <code>true</code> if the folder is a shard.
+   * @throws IOException If errors are encountered while fetching the
+   *   folder separator.
+   */
+  boolean isShard( final String folder ) throws IOException
+  {
+    return sharded && folder.indexOf( getSeparator() ) < 0;
+  }
+
+  /**
+   * Drop the shard for the specified top-level folder.  The writer for
+   * the shard is closed and its directory is deleted, along with the
+   * checkpoints for the folder and its child folders.  The shard is
+   * emptied instead if the directory cannot be deleted (the files are
+   * still open by a searcher on some platforms).
+   *
+   * @param folder The full name of the top-level folder.
+   * @throws IOException If errors are encountered while closing the
+   *   writer.
+   */
+  synchronized void dropShard( final String folder ) throws IOException
+  {
+    final String id = folders.lookupId( folder );
+    if ( id != null && shards.remove( id ) )
+    {
+      final File directory = getShardDirectory( id );
+      if ( leased.remove( directory ) != null ) pool.release( directory );
+      if ( ! pool.close( directory ) )
+      {
+        logger.warning( "Shard writer still leased for: " + directory );
+      }
+
+      if ( ! delete( directory ) )
+      {
+        logger.warning( "Unable to delete shard directory: " + directory );
+        new IndexWriter( directory, analyzer, true ).close();
+        shards.add( id );
+      }
+    }
+
+    checkpoints.remove( folder );
+    checkpoints.removeAll( folder + getSeparator() );
+    folders.remove( folder, getSeparator() );
+    setModified();
+    logger.info( "Dropped shard: " + folder + " under path: " + path );
+  }
+
+  /**
+   * Return the name of the shard that holds the indices for the specified
+   * folder.  This is the identifier of the top-level folder.
+   *
+   * @param folder The full name of the folder.
+   * @return The name of the shard.
+   * @throws IOException If errors are encountered while fetching the
+   *   folder separator.
+   */
+  private String getShard( final String folder ) throws IOException
+  {
+    final int index = folder.indexOf( getSeparator() );
+    return folders.getId( ( index < 0 ) ? folder : folder.substring( 0, index ) );
+  }
+
+  /**
+   * Return the directory in which the specified shard is stored.  Shard
+   * names are URL encoded (including periods) so that they always map to
+   * valid directory names.
+   *
+   * @param shard The name of the shard.
+   * @return The directory for the shard.
+   * @throws IOException If the encoding is not supported.
+   */
+  private File getShardDirectory( final String shard ) throws IOException
+  {
+    return new File( new File( path, SHARD_DIRECTORY ),
+        URLEncoder.encode( shard, SHARD_ENCODING ).replace( ".", "%2E" ) );
+  }
+
+  /**
+   * Return the {@link #separator}, fetching it from the store if
+   * necessary.
+   *
+   * @return The separator used in folder names.
+   * @throws IOException If errors are encountered while fetching the
+   *   separator.
+   */
+  synchronized char getSeparator() throws IOException
+  {
+    if ( separator == null )
+    {
+      try
+      {
+        separator = session.getFolderManager().getSeparator();
+      }
+      catch ( Throwable t )
+      {
+        final IOException ioex =
+          new IOException( "Error fetching folder separator" );
+        ioex.initCause( t );
+        throw ioex;
+      }
+    }
+
+    return separator;
+  }
+
+  /**
+   * Close the writers (for all the {@link #shards}) that are open in the
+   * {@link #pool}.  The segments are left as they are, merging them is
+   * left to the {@link MaintenanceScheduler}.  A {@link #shared} writer is
+   * used by other users as well, hence it is only flushed.  Writers that
+   * are still {@link #leased} by a task are closed by the pool when the
+   * task releases them.
+   *
+   * @see WriterPool#close( File )
+   * @return Returns <code>true</code> if all the writers were closed (or
+   *   flushed).
+   */
+  private synchronized boolean closeWriter()
+  {
+    if ( shared )
+    {
+      flushShared();
+      return true;
+    }
+
+    boolean result = true;
+    for ( File directory : getDirectories() )
+    {
+      try
+      {
+        if ( ! pool.close( directory ) ) result = false;
+      }
+      catch ( Throwable t )
+      {
+        result = false;
+        logger.log( Level.SEVERE, "Error closing writer for path: " +
+            path, t );
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Flush the {@link #shared} writer if it is open, without closing it.
+   * The leases held by a task that is still running are left alone, the
+   * task releases them once it has finished.
+   */
+  private void flushShared()
+  {
+    final File directory = new File( index );
+    final IndexWriter writer = pool.acquireIfOpen( directory );
+    if ( writer == null ) return;
+
+    try
+    {
+      writer.flush();
+    }
+    catch ( Throwable t )
+    {
+      logger.log( Level.SEVERE, "Error flushing writer for path: " +
+          index, t );
+    }
+    finally
+    {
+      pool.release( directory );
+    }
+  }
+
+  /**
+   * Mark the indices as having been modified.  Invoked by the
+   * indexing tasks after adding, updating or deleting documents.
+   */
+  void setModified()
+  {
+    pending.incrementAndGet();
+  }
+
+  /**
+   * Invoked by the indexing tasks once they have finished updating the
+   * indices.  Updates are batched and committed only when either
+   * {@link #commitSize} updates are {@link #pending}, {@link
+   * #commitInterval} has elapsed since the last commit, or there are no
+   * further tasks queued for this user in the {@link #scheduler} (end of
+   * a burst of updates).  This avoids a commit for each of the small tasks queued
+   * while scanning folders.
+   *
+   * @see #commitIfDue
+   */
+  protected void flush()
+  {
+    if ( pending.get() == 0 ) return;
+    if ( isCommitDue() || scheduler.getQueueSize( path ) == 0 )
+    {
+      commitWriter();
+    }
+  }
+
+  /**
+   * Commit the indices only if either the size or time threshold
+   * has been reached.  Used by long running tasks to make progress visible
+   * while they are still updating the indices.
+   */
+  void commitIfDue()
+  {
+    if ( isCommitDue() ) commitWriter();
+  }
+
+  /**
+   * Queue a barrier that commits the updates of the interactive tasks
+   * queued before it.  Interactive operations that need their updates to
+   * be visible to searches may wait on the returned future.  The barrier
+   * is executed with {@link TaskScheduler.Priority#INTERACTIVE} priority,
+   * hence it does not wait for background folder scans queued before it.
+   *
+   * @see Committer
+   * @return The future that completes once the updates are visible.
+   */
+  public Future<Boolean> commit()
+  {
+    return submit( new Committer( this, session.getMessageSearcher() ) );
+  }
+
+  /**
+   * Queue a {@link #commit} barrier and wait for it to complete.  Used by
+   * interactive operations whose results are listed by the user right
+   * away.  The wait is bounded, since the lane may be busy with a long
+   * running task.  Updates that are not visible when the wait times out
+   * are committed as usual once the barrier runs.
+   *
+   * @param timeout The maximum time in milliseconds to wait for.
+   * @return Returns <code>true</code> if the updates are visible to
+   *   searches.
+   */
+  public boolean commit( final long timeout )
+  {
+    try
+    {
+      return commit().get( timeout, TimeUnit.MILLISECONDS );
+    }
+    catch ( Throwable t )
+    {
+      logger.log( Level.FINE, "Commit not complete for path: " + path +
+          " after " + timeout + " milliseconds", t );
+      return false;
+    }
+  }
+
+  /**
+   * Check to see if the {@link #pending} updates are to be committed based
+   * on {@link #commitSize} and {@link #commitInterval}.
+   *
+   * @return Returns <code>true</code> if a commit is due.
+   */
+  private boolean isCommitDue()
+  {
+    final int count = pending.get();
+    if ( count == 0 ) return false;
+
+    return ( count >= commitSize ) ||
+      ( ( System.currentTimeMillis() - lastCommit ) >= commitInterval );
+  }
+
+  /**
+   * Flush the open writers if there are {@link #pending} updates.  As
+   * long as the writers are opened in <code>autoCommit</code> mode,
+   * readers will pick up flushed updated to the index.  The shared
+   * searcher is notified only when changes were actually flushed.
+   *
+   * @see MessageSearcher#indexChanged
+   */
+  void commitWriter()
+  {
+    final int count = pending.getAndSet( 0 );
+    if ( count == 0 ) return;
+
+    try
+    {
+      for ( IndexWriter w : getOpenWriters() ) w.flush();
+      journal.commit();
+      lastCommit = System.currentTimeMillis();
+      session.getMessageSearcher().indexChanged();
+      logger.fine( "Committed " + count + " updates to path: " + path );
+    }
+    catch ( Throwable t )
+    {
+      logger.log( Level.SEVERE, "Error flushing writer for path: " +
+          path, t );
+    }
+  }
+
+  /**
+   * Create the {@link KeyFields#messageKey} for a message.  The key is a
+   * concatenation of the {@link FolderIds identifier} of the folder, the
+   * <code>UIDVALIDITY</code> of the folder and the <code>UID</code> of the
+   * message, which is unique for the lifetime of the folder.  The
+   * <code>message-id</code> is used in place of the <code>UID</code> for
+   * stores that do not assign <code>UID</code>s.
+   *
+   * @param folderId The identifier of the folder of the message.
+   * @param uidValidity The <code>UIDVALIDITY</code> of the folder, or
+   *   <code>0</code> if the folder does not assign <code>UID</code>s.
+   * @param uid The <code>UID</code> of the message.  May be
+   *   <code>null</code> or empty.
+   * @param messageId The <code>message-id</code> of the message.
+   * @return The key for the message.
+   */
+  static String getMessageKey( final String folderId, final long uidValidity,
+      final String uid, final String messageId )
+  {
+    final StringBuilder builder = new StringBuilder( 64 );
+    builder.append( folderId ).append( KEY_SEPARATOR );
+    builder.append( uidValidity ).append( KEY_SEPARATOR );
+    builder.append( ( uid == null || uid.length() == 0 ) ? messageId : uid );
+    return builder.toString();
+  }
+
+  /**
+   * Return the <code>UIDVALIDITY</code> of the specified folder.
+   *
+   * @param folder The folder whose <code>UIDVALIDITY</code> is to be
+   *   returned.
+   * @return The <code>UIDVALIDITY</code>, or <code>0</code> if the folder
+   *   does not assign <code>UID</code>s.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the value from the store.
+   */
+  static long getUIDValidity( final Folder folder ) throws MessagingException
+  {
+    return ( folder instanceof UIDFolder ) ?
+      ( (UIDFolder) folder ).getUIDValidity() : 0;
+  }
+
+  /**
+   * The wrapper used to execute the tasks queued by the indexer.  The
+   * writers leased by a task are released once it has finished.  If the
+   * task has been recorded in the {@link #journal}, the record is marked
+   * as finished, and is removed from the journal when the updates made by
+   * the task are committed.  Tasks that were interrupted (cancelled) are
+   * left in the journal.
+   */
+  private class LeasingTask
+    implements java.util.concurrent.Callable<Boolean>
+  {
+    /** The task that is to be executed. */
+    private final Callable task;
+
+    /**
+     * The sequence number of the journal record of the task, or
+     * <code>-1</code> if the task is not journaled.
+     */
+    private final long id;
+
+    /**
+     * Create a new instance for the specified task.
+     *
+     * @param task The {@link #task} to execute.
+     * @param id The {@link #id} to use.
+     */
+    private LeasingTask( final Callable task, final long id )
+    {
+      this.task = task;
+      this.id = id;
+    }
+
+    /**
+     * Execute the {@link #task}, release the writers it leased and mark
+     * its journal record as finished.  The journal is committed right away
+     * if the updates made by the task have already been committed.
+     *
+     * @return The result of the task.
+     * @throws Exception If errors are encountered while executing the task.
+     */
+    public Boolean call() throws Exception
+    {
+      try
+      {
+        final long started = journal.getSequence();
+        final Boolean result = task.call();
+        if ( id < 0 || Thread.currentThread().isInterrupted() ) return result;
+
+        journal.finish( id, started );
+        if ( pending.get() == 0 ) journal.commit();
+        return result;
+      }
+      finally
+      {
+        releaseWriters();
+      }
+    }
   }
 }
@@ -0,0 +1,21 @@
+package com.sptci.mail;
+
+/**
+ * The enumeration of keys used to store un-tokenised copies of the
+ * identifying {@link Fields} of a message.  These are used to look up
+ * messages using exact term matches, and to count search results by
+ * {@link Facets}.  The {@link #messageKey} is the composite key (see
+ * {@link Indexer#getMessageKey}) that uniquely identifies the document of
+ * a message, and is used to replace and delete documents.  The {@link
+ * #userKey} identifies the user to whom the message belongs, which tells
+ * the documents of the users apart in shared indices (see {@link
+ * Properties#indexMode}).
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+public enum KeyFields
+{
+  uniqueIdKey, messageIdKey, folderKey, senderKey, messageKey, userKey
+}
\ No newline at end of file
@@ -249,8 +249,10 @@ public class MailSession implements Serializable
     try
     {
       messageIndexer = new Indexer( getSearchIndexDirectory(), this );
-      messageSearcher =
-        new MessageSearcher( getSearchIndexDirectory(), folderManager );
+      messageSearcher = new MessageSearcher(
+          messageIndexer.getIndexDirectory(), folderManager,
+          messageIndexer.folders, ( messageIndexer.shared ) ? user : null );
+      messageSearcher.warm();
     }
     catch ( Throwable t )
     {
@@ -299,8 +301,10 @@ public class MailSession implements Serializable
   
   /**
    * Set {@link #store}.  Also initialise {@link #folderManager} with
-   * a new instance using the specified store.
+   * a new instance using the specified store, and replay the indexing
+   * tasks left over by the previous session of the user.
    *
+   * @see Indexer#replay
    * @param store The value to set.
    * @throws MessagingException If errore are encountered while initialising
    *   {@link #folderManager}.
@@ -312,6 +316,7 @@ public class MailSession implements Serializable
     {
       folderManager =
         new FolderManager( this, Properties.getInstance().protocol );
+      if ( messageIndexer != null ) messageIndexer.replay();
     }
   }
 
@@ -384,7 +389,9 @@ public class MailSession implements Serializable
 
   /**
    * Return the directory that is to be used to store search indices
-   * for messages in the user's mailboxes.
+   * for messages in the user's mailboxes.  If the indices are shared (see
+   * {@link Properties#indexMode}), only the indexing state of the user is
+   * stored here.
    */
   public String getSearchIndexDirectory()
   {
@@ -0,0 +1,442 @@
+package com.sptci.mail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.lucene.index.IndexFileNameFilter;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+
+import static com.sptci.io.FileUtilities.FILE_SEPARATOR;
+
+/**
+ * A node wide scheduler used to merge the search indices stored on the
+ * node in the background.  The indices are found by walking the {@link
+ * Properties#dataDirectory}, hence the indices of users who are not
+ * logged in, and the shared indices, are merged as well.  Only indices
+ * with enough deleted documents to be worth reclaiming are merged.
+ *
+ * <p>Merges are admitted against a budget of bytes that is replenished at
+ * a constant rate.  An index larger than the available budget is left
+ * alone until the budget has been replenished.  The budget bounds the
+ * number of bytes rewritten per hour, the merge of an admitted index is
+ * not throttled.  Indices are checked in round-robin order, at most
+ * {@link #CHECKS_PER_INTERVAL} per check, and are merged by the thread of
+ * the scheduler, hence merges do not occupy the workers of the {@link
+ * TaskScheduler}.</p>
+ *
+ * <p>Merges are run during low load.  A check is skipped while tasks are
+ * queued in the {@link TaskScheduler}, unless checks have been skipped
+ * for {@link #MAX_DEFERRAL}, so that indices on a node that is never idle
+ * are still merged.  An index whose writer is leased by an indexing task
+ * is skipped until its next turn, since the task would block on the
+ * writer for the duration of the merge.  The writer is leased from the
+ * {@link WriterPool}, so that merges never run alongside another writer
+ * for the same index.</p>
+ *
+ * <p><b>Note:</b> The scheduler is configured using {@link
+ * Properties#indexMaintenanceInterval}, {@link
+ * Properties#indexMaintenanceBudget} and {@link
+ * Properties#indexDeletedRatio}.</p>
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+class MaintenanceScheduler
+{
+  /**
+   * The logger to use to log errors and messages.
+   */
+  private static final Logger logger = MailSession.logger;
+
+  /**
+   * The period over which the {@link #budget} is replenished.
+   *
+   * {@value}
+   */
+  private static final long BUDGET_PERIOD = 3600000;
+
+  /**
+   * The maximum number of indices that are checked for deleted documents
+   * per check.
+   *
+   * {@value}
+   */
+  private static final int CHECKS_PER_INTERVAL = 16;
+
+  /**
+   * The maximum time in milliseconds for which checks are skipped because
+   * tasks are queued in the {@link TaskScheduler}.
+   *
+   * {@value}
+   */
+  private static final long MAX_DEFERRAL = 3600000;
+
+  /**
+   * The name of the directory under the directory of a user in which the
+   * search indices of the user are stored.
+   *
+   * {@value}
+   */
+  private static final String USER_DIRECTORY = "search";
+
+  /**
+   * The singleton instance of this class.
+   */
+  private static MaintenanceScheduler singleton;
+
+  /**
+   * The thread used to check for indices that are to be merged.
+   */
+  private final ScheduledExecutorService timer;
+
+  /**
+   * The maximum number of bytes that may be rewritten per {@link
+   * #BUDGET_PERIOD}.
+   */
+  private final long budget;
+
+  /**
+   * The minimum ratio of deleted documents for an index to be merged.
+   */
+  private final double deletedRatio;
+
+  /**
+   * The path of the index that was checked last.  The next check resumes
+   * with the index that follows it.
+   */
+  private String cursor = "";
+
+  /**
+   * The number of bytes that may be rewritten right away.  May be
+   * negative after merging an index larger than the {@link #budget}.
+   */
+  private long available;
+
+  /**
+   * The time at which {@link #available} was last replenished.
+   */
+  private long replenished = System.currentTimeMillis();
+
+  /**
+   * The time at which the last check that was not skipped because of
+   * load was run.
+   */
+  private long lastCheck = System.currentTimeMillis();
+
+  /**
+   * Return the {@link #singleton} instance of this class.  The instance is
+   * created the first time it is requested.
+   *
+   * @return The singleton instance.
+   */
+  static synchronized MaintenanceScheduler getInstance()
+  {
+    if ( singleton == null )
+    {
+      long interval = Properties.DEFAULT_INDEX_MAINTENANCE_INTERVAL;
+      long budget = Properties.DEFAULT_INDEX_MAINTENANCE_BUDGET;
+      double ratio = Properties.DEFAULT_INDEX_DELETED_RATIO;
+      try
+      {
+        final Properties properties = Properties.getInstance();
+        interval = properties.indexMaintenanceInterval;
+        budget = properties.indexMaintenanceBudget;
+        ratio = properties.indexDeletedRatio;
+      }
+      catch ( Throwable t )
+      {
+        logger.log( Level.WARNING, "Error reading index maintenance properties", t );
+      }
+
+      singleton = new MaintenanceScheduler( interval, budget, ratio );
+    }
+
+    return singleton;
+  }
+
+  /**
+   * Create a new scheduler using the specified values.  Checks are not
+   * scheduled if either the interval or the budget is not positive.
+   *
+   * @param interval The time in milliseconds between checks.
+   * @param budget The {@link #budget} to use.
+   * @param deletedRatio The {@link #deletedRatio} to use.
+   */
+  private MaintenanceScheduler( final long interval, final long budget,
+      final double deletedRatio )
+  {
+    this.budget = budget;
+    this.deletedRatio = deletedRatio;
+    this.available = budget;
+    this.timer = Executors.newSingleThreadScheduledExecutor(
+        new TaskScheduler.WorkerFactory( "sptmail-maintenance-" ) );
+
+    if ( interval > 0 && budget > 0 )
+    {
+      timer.scheduleWithFixedDelay( new Runnable()
+          {
+            public void run()
+            {
+              check();
+            }
+          }, interval, interval, TimeUnit.MILLISECONDS );
+      logger.info( "Scheduled index maintenance every " + interval +
+          " ms with budget of " + budget + " bytes per hour" );
+    }
+  }
+
+  /**
+   * Reserve the specified number of bytes from the budget.  An index
+   * larger than the {@link #budget} may be merged once the budget has
+   * been fully replenished, and the excess is paid back before the next
+   * merge.
+   *
+   * @param bytes The size of the index that is to be merged.
+   * @return Returns <code>true</code> if the index may be merged.
+   */
+  private boolean reserve( final long bytes )
+  {
+    replenish();
+    if ( available < Math.min( bytes, budget ) ) return false;
+
+    available -= bytes;
+    return true;
+  }
+
+  /**
+   * Check the indices that follow the {@link #cursor} for indices to
+   * merge, and merge those that have enough deleted documents.  Stops at
+   * the first index that does not fit in the remaining budget, which is
+   * checked again by the next check.  Errors merging an index are logged
+   * and the index is skipped until its next turn.  The check is skipped
+   * if the {@link TaskScheduler} is busy, for at most {@link
+   * #MAX_DEFERRAL}.
+   */
+  private void check()
+  {
+    try
+    {
+      replenish();
+      if ( available <= 0 ) return;
+
+      final long now = System.currentTimeMillis();
+      if ( TaskScheduler.getInstance().getQueueSize() > 0 &&
+          now - lastCheck < MAX_DEFERRAL )
+      {
+        logger.fine( "Deferring index maintenance while tasks are queued" );
+        return;
+      }
+      lastCheck = now;
+
+      final SortedMap<String,String> indices = getIndices();
+      if ( indices.isEmpty() ) return;
+
+      final List<String> order = new ArrayList<String>(
+          indices.tailMap( cursor + '\0' ).keySet() );
+      order.addAll( indices.headMap( cursor + '\0' ).keySet() );
+
+      int checked = 0;
+      for ( String directory : order )
+      {
+        if ( checked++ >= CHECKS_PER_INTERVAL ) break;
+
+        try
+        {
+          if ( ! maintain( new File( directory ), indices.get( directory ) ) )
+          {
+            break;
+          }
+        }
+        catch ( IOException ioex )
+        {
+          logger.log( Level.WARNING, "Error merging index: " + directory, ioex );
+        }
+
+        cursor = directory;
+      }
+    }
+    catch ( Throwable t )
+    {
+      logger.log( Level.WARNING, "Error checking indices for maintenance", t );
+    }
+  }
+
+  /**
+   * Merge the index in the specified directory if it has enough deleted
+   * documents and fits in the budget.  Indices whose writer is leased by
+   * an indexing task are skipped.  The writer is leased from the {@link
+   * WriterPool}, and the searcher for the index is invalidated once the
+   * index has been merged.
+   *
+   * @param directory The directory in which the index is stored.
+   * @param searcherPath The path of the indices searched by the {@link
+   *   SearcherManager} that includes the index.
+   * @return Returns <code>false</code> if the index did not fit in the
+   *   budget.
+   * @throws IOException If errors are encountered while merging the index.
+   */
+  private boolean maintain( final File directory, final String searcherPath )
+    throws IOException
+  {
+    if ( ! IndexReader.indexExists( directory ) ) return true;
+
+    final WriterPool pool = WriterPool.getInstance();
+    if ( pool.isLeased( directory ) )
+    {
+      logger.fine( "Skipping merge of index: " + directory +
+          " while its writer is in use" );
+      return true;
+    }
+
+    final double ratio = getDeletedRatio( directory );
+    if ( ratio < deletedRatio ) return true;
+
+    final long size = getSize( directory );
+    if ( ! reserve( size ) )
+    {
+      logger.fine( "Deferring merge of index: " + directory +
+          " of size: " + size + " until budget is available" );
+      return false;
+    }
+
+    final long start = System.currentTimeMillis();
+    final IndexWriter writer = pool.acquire( directory, searcherPath );
+    try
+    {
+      writer.optimize();
+    }
+    finally
+    {
+      pool.release( directory );
+    }
+
+    SearcherManager.invalidate( searcherPath );
+    logger.info( "Merged index: " + directory + " of size: " + size +
+        " with deleted ratio: " + ratio + " in " +
+        ( System.currentTimeMillis() - start ) / 1000.0 + " seconds" );
+    return true;
+  }
+
+  /**
+   * Return the indices that are stored under the {@link
+   * Properties#dataDirectory}.  These are the index and shards of each
+   * user, and the shared indices.
+   *
+   * @return The paths of the index directories, mapped to the paths of
+   *   the indices searched by the {@link SearcherManager} that includes
+   *   them.
+   */
+  private SortedMap<String,String> getIndices()
+  {
+    final SortedMap<String,String> indices = new TreeMap<String,String>();
+    final String data = Properties.dataDirectory;
+    if ( data == null ) return indices;
+
+    final File[] users = new File( data ).listFiles();
+    if ( users == null ) return indices;
+
+    for ( File user : users )
+    {
+      if ( user.getName().equals( Indexer.SHARED_DIRECTORY ) )
+      {
+        final File[] shared = user.listFiles();
+        if ( shared == null ) continue;
+
+        for ( File directory : shared )
+        {
+          if ( directory.isDirectory() )
+          {
+            indices.put( directory.getPath(), directory.getPath() );
+          }
+        }
+
+        continue;
+      }
+
+      final String path = data + FILE_SEPARATOR + user.getName() +
+        FILE_SEPARATOR + USER_DIRECTORY;
+      final File root = new File( path );
+      if ( ! root.isDirectory() ) continue;
+
+      indices.put( root.getPath(), path );
+      final File[] shards =
+        new File( root, Indexer.SHARD_DIRECTORY ).listFiles();
+      if ( shards == null ) continue;
+
+      for ( File shard : shards )
+      {
+        if ( shard.isDirectory() ) indices.put( shard.getPath(), path );
+      }
+    }
+
+    return indices;
+  }
+
+  /**
+   * Return the ratio of deleted documents to all the documents in the
+   * index stored in the specified directory.
+   *
+   * @param directory The directory that contains the index.
+   * @return The ratio of deleted documents, <code>0</code> if the index is
+   *   empty.
+   * @throws IOException If errors are encountered while reading the index.
+   */
+  private static double getDeletedRatio( final File directory )
+    throws IOException
+  {
+    final IndexReader reader = IndexReader.open( directory );
+    try
+    {
+      final int max = reader.maxDoc();
+      return ( max == 0 ) ? 0 : (double) ( max - reader.numDocs() ) / max;
+    }
+    finally
+    {
+      reader.close();
+    }
+  }
+
+  /**
+   * Return the total size of the index files in the specified directory.
+   *
+   * @param directory The directory that contains the index.
+   * @return The size in bytes.
+   */
+  private static long getSize( final File directory )
+  {
+    long size = 0;
+    final File[] files = directory.listFiles( new IndexFileNameFilter() );
+    if ( files != null )
+    {
+      for ( File file : files ) size += file.length();
+    }
+
+    return size;
+  }
+
+  /**
+   * Replenish {@link #available} in proportion to the time elapsed since
+   * it was last replenished, up to the {@link #budget}.
+   */
+  private void replenish()
+  {
+    final long now = System.currentTimeMillis();
+    final long elapsed = now - replenished;
+    if ( elapsed <= 0 ) return;
+
+    available = Math.min( budget, available +
+        (long) ( (double) budget * elapsed / BUDGET_PERIOD ) );
+    replenished = now;
+  }
+}
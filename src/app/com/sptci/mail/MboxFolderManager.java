@@ -5,16 +5,11 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.Serializable;
 
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
-import java.util.Map;
 import java.util.logging.Level;
 
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
 import javax.mail.FetchProfile;
 import javax.mail.Flags;
@@ -73,18 +68,11 @@ class MboxFolderManager extends UIDFolderManager
   protected MStorStore store;
 
   /**
-   * The executor service used to synchronise the local folders from the
-   * mail store.
+   * The node wide scheduler used to synchronise the local folders from the
+   * mail store.  Tasks are queued in the lane identified by {@link
+   * #rootDirectory}.
    */
-  protected final ExecutorService executor =
-    Executors.newSingleThreadExecutor();
-
-  /**
-   * A map of <code>Future</code> tasks that have been queued to {@link
-   * #executor} by instance.
-   */
-  protected final Map<Future<Boolean>,String> tasks =
-    new ConcurrentHashMap<Future<Boolean>,String>();
+  protected final TaskScheduler scheduler = TaskScheduler.getInstance();
 
   /**
    * Create a new instance of the manager for the specified session.
@@ -104,20 +92,14 @@ class MboxFolderManager extends UIDFolderManager
   }
 
   /**
-   * Destroy any {@link #tasks} scheduled in the {@link #executor}.
+   * Cancel any tasks queued for this user in the {@link #scheduler}.
    */
   @Override
   public void destroy()
   {
     try
     {
-      for ( Future<Boolean> future : tasks.keySet() )
-      {
-        future.cancel( true );
-        tasks.remove( future );
-      }
-
-      executor.shutdownNow();
+      scheduler.cancel( getRootPath() );
       store.close();
       logger.fine( "Safely destroyed synchroniser" );
     }
@@ -305,9 +287,19 @@ class MboxFolderManager extends UIDFolderManager
    */
   protected void synchronise( Folder imapFolder ) throws MessagingException
   {
-    Future<Boolean> future =
-      executor.submit( new FolderSynchroniser( imapFolder ) );
-    tasks.put( future, "" );
+    try
+    {
+      final String name = imapFolder.getFullName();
+      scheduler.submit( getRootPath(), "synchronise:" + name,
+          ( FolderManager.INBOX.equalsIgnoreCase( name ) ?
+            TaskScheduler.Priority.INBOX :
+            TaskScheduler.Priority.BACKGROUND ),
+          new FolderSynchroniser( imapFolder ) );
+    }
+    catch ( com.sptci.mail.MessagingException mex )
+    {
+      throw new MessagingException( mex.getMessage(), mex );
+    }
   }
 
   /**
@@ -374,8 +366,6 @@ class MboxFolderManager extends UIDFolderManager
   protected void synchMessages( Folder imapFolder, SearchTerm term )
     throws MessagingException
   {
-    HashMap<String,MimeMessage> source = new HashMap<String,MimeMessage>();
-    HashMap<String,MimeMessage> local = new HashMap<String,MimeMessage>();
     Folder localFolder = create( imapFolder.getName(), imapFolder.getParent() );
     FetchProfile fetchProfile = new FetchProfile();
     fetchProfile.add( FetchProfileItem.UID );
@@ -389,46 +379,50 @@ class MboxFolderManager extends UIDFolderManager
       close = true;
     }
 
-    Message[] msgs = imapFolder.search( term );
-    imapFolder.fetch( msgs, fetchProfile );
-    for( Message message : msgs )
+    HashSet<String> local = new HashSet<String>();
+    FolderScanner scanner = new FolderScanner(
+        localFolder, localFolder.search( term ), fetchProfile );
+    while ( scanner.hasNext() )
     {
-      MimeMessage mm = (MimeMessage) message;
-      String id = ( mm.getMessageID() != null ) ? mm.getMessageID() : getUID( message );
-      source.put( mm.getMessageID(), mm );
-    }
-
-    msgs = localFolder.search( term );
-    localFolder.fetch( msgs, fetchProfile );
-    for ( Message message : msgs )
-    {
-      MimeMessage mm = (MimeMessage) message;
-      local.put( mm.getMessageID(), mm );
+      for ( Message message : scanner.next() )
+      {
+        local.add( ( (MimeMessage) message ).getMessageID() );
+      }
     }
 
-    // Add missing messages
-    LinkedList<Message> messages = new LinkedList<Message>();
-    for ( Map.Entry<String,MimeMessage> entry : source.entrySet() )
+    // Add missing messages one window at a time
+    HashSet<String> source = new HashSet<String>();
+    scanner = new FolderScanner(
+        imapFolder, imapFolder.search( term ), fetchProfile );
+    while ( scanner.hasNext() )
     {
-      if ( ! local.containsKey( entry.getKey() ) )
+      LinkedList<Message> messages = new LinkedList<Message>();
+      for ( Message message : scanner.next() )
       {
-        messages.add( entry.getValue() );
+        String id = ( (MimeMessage) message ).getMessageID();
+        source.add( id );
+        if ( ! local.contains( id ) ) messages.add( message );
       }
-    }
 
-    if ( ! messages.isEmpty() )
-    {
-      logger.fine( "Adding " + messages.size() + " messages" );
-      add( messages.toArray( new MimeMessage[]{} ), localFolder );
+      if ( ! messages.isEmpty() )
+      {
+        logger.fine( "Adding " + messages.size() + " messages" );
+        add( messages.toArray( new Message[]{} ), localFolder );
+      }
     }
 
     // Remove deleted messages
-    messages = new LinkedList<Message>();
-    for ( Map.Entry<String,MimeMessage> entry : local.entrySet() )
+    LinkedList<Message> messages = new LinkedList<Message>();
+    scanner = new FolderScanner(
+        localFolder, localFolder.search( term ), fetchProfile );
+    while ( scanner.hasNext() )
     {
-      if ( ! source.containsKey( entry.getKey() ) )
+      for ( Message message : scanner.next() )
       {
-        messages.add( entry.getValue() );
+        if ( ! source.contains( ( (MimeMessage) message ).getMessageID() ) )
+        {
+          messages.add( message );
+        }
       }
     }
 
@@ -556,7 +550,7 @@ class MboxFolderManager extends UIDFolderManager
    * The <code>Callable</code> instance used to queue a folder synching
    * operation of messages in a specified IMAP folder for execution.
    */
-  protected class FolderSynchroniser implements Callable
+  protected class FolderSynchroniser implements Callable<Boolean>
   {
     /**
      * The folder whose messageas are to be indexed.
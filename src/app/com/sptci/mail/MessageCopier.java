@@ -0,0 +1,512 @@
+package com.sptci.mail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.UIDFolder;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.ParallelReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+/**
+ * The <code>Callable</code> instance used to update the indices after
+ * messages have been copied or moved to another folder.  Queued by {@link
+ * Indexer#copy} and {@link Indexer#move}.
+ *
+ * <p>The documents of the copies are cloned from the indexed documents of
+ * the original messages, without fetching or parsing the messages.  The
+ * postings of the original documents (including those of the un-stored
+ * content) are merged into a new segment through a reader that exposes
+ * only those documents, with the folder and <code>UID</code> fields
+ * replaced by those of the copies.  The segment is then added to the
+ * indices of the target folder.</p>
+ *
+ * <p>The copies are cloned only if the indexing checkpoint of the target
+ * folder can be advanced over them, which is the case when the
+ * <code>UID</code>s of the copies are known, are contiguous and start at
+ * the <code>UIDNEXT</code> of the folder before the copy, and no message
+ * in the folder lies between the checkpoint and the copies.  The
+ * <code>UID</code>s between the checkpoint and <code>UIDNEXT</code>
+ * usually belong to messages that have since been deleted or moved out
+ * of the folder, hence the store is asked for the messages in that range
+ * only.  Otherwise the copies are left to be indexed by the next scan of
+ * the target folder, since cloning them would lead to duplicate documents
+ * or skip messages that have not been indexed.  The copies are not cloned when the index
+ * is {@link Indexer#shared shared}, since the merge walks the postings of
+ * every user of the index, nor when the indices hold more than {@link
+ * Indexer#cloneLimit} documents, since the cost of the merge grows with
+ * the size of the indices rather than the number of copies.</p>
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+class MessageCopier extends Callable
+{
+  /**
+   * The names of the fields that identify the folder and
+   * <code>UID</code> of a document, and that are replaced in the clones.
+   */
+  private static final Set<String> REPLACED = new HashSet<String>(
+      Arrays.asList( Fields.uniqueId.toString(), Fields.folder.toString(),
+        KeyFields.uniqueIdKey.toString(), KeyFields.folderKey.toString(),
+        KeyFields.messageKey.toString() ) );
+
+  /** The full name of the folder from which the messages were copied. */
+  private final String source;
+
+  /** The <code>UID</code>s of the messages in the {@link #source}. */
+  private final String[] uids;
+
+  /** The full name of the folder to which the messages were copied. */
+  private final String target;
+
+  /**
+   * The <code>UID</code>s of the copies in the {@link #target}, in the
+   * order of the {@link #uids}.  Entries are <code>null</code> if not
+   * known.
+   */
+  private final String[] copies;
+
+  /**
+   * The <code>UIDNEXT</code> of the {@link #target} before the messages
+   * were copied.  <code>-1</code> if not known.
+   */
+  private final long uidNext;
+
+  /**
+   * Flag indicating whether the messages were moved (expunged from the
+   * {@link #source}).
+   */
+  private final boolean move;
+
+  /**
+   * The type of the {@link #getJournalRecord journal record} for copied
+   * messages.
+   *
+   * {@value}
+   */
+  static final String JOURNAL_COPY = "copy";
+
+  /**
+   * The type of the {@link #getJournalRecord journal record} for moved
+   * messages.
+   *
+   * {@value}
+   */
+  static final String JOURNAL_MOVE = "move";
+
+  /**
+   * Create a new instance of the object using the specified values.
+   *
+   * @param indexer The {@link #indexer} to use.
+   * @param searcher The {@link #searcher} to use.
+   * @param source The {@link #source} to use.
+   * @param uids The {@link #uids} to use.
+   * @param target The {@link #target} to use.
+   * @param copies The {@link #copies} to use.
+   * @param uidNext The {@link #uidNext} to use.
+   * @param move The {@link #move} to use.
+   */
+  MessageCopier( final Indexer indexer, final MessageSearcher searcher,
+      final String source, final String[] uids, final String target,
+      final String[] copies, final long uidNext, final boolean move )
+  {
+    super( indexer, searcher );
+    this.source = source;
+    this.uids = uids;
+    this.target = target;
+    this.copies = copies;
+    this.uidNext = uidNext;
+    this.move = move;
+  }
+
+  /**
+   * Return the journal record for the task.
+   *
+   * @see IndexJournal#join
+   * @return The {@link #JOURNAL_COPY} or {@link #JOURNAL_MOVE} type, the
+   *   {@link #source}, the {@link #target}, the {@link #uids}, the
+   *   {@link #copies} and the {@link #uidNext}.
+   */
+  @Override
+  String[] getJournalRecord()
+  {
+    return new String[] { ( move ) ? JOURNAL_MOVE : JOURNAL_COPY, source,
+      target, IndexJournal.join( uids ), IndexJournal.join( copies ),
+      String.valueOf( uidNext ) };
+  }
+
+  /**
+   * Clone the documents of the copied messages into the {@link #target},
+   * and remove the documents of moved messages from the {@link #source}.
+   * Pending updates are committed first, so that the documents indexed by
+   * earlier tasks are visible.
+   *
+   * @return Returns <code>true</code> if the indices were updated.
+   */
+  public Boolean call()
+  {
+    boolean result = true;
+
+    try
+    {
+      indexer.commitWriter();
+      final String[] keys = new String[uids.length];
+      Directory clones = null;
+
+      final IndexSearcher shared = searcher.acquire();
+      try
+      {
+        final IndexReader reader = shared.getIndexReader();
+        final int[] docs = findDocuments( reader, keys );
+        if ( canClone( reader, docs ) )
+        {
+          clones = cloneDocuments( reader, docs );
+        }
+      }
+      finally
+      {
+        searcher.release( shared );
+      }
+
+      int removed = 0;
+      for ( int i = 0; move && i < keys.length; ++i )
+      {
+        if ( keys[i] == null ) continue;
+        deleteDocuments(
+            new Term( KeyFields.messageKey.toString(), keys[i] ) );
+        ++removed;
+      }
+
+      if ( removed > 0 ) updateSourceCheckpoint( removed );
+      if ( clones != null ) addClones( clones );
+    }
+    catch ( Throwable t )
+    {
+      result = false;
+      logger.log( Level.WARNING, "Error updating indexes for messages " +
+          ( move ? "moved" : "copied" ) + " from folder: " + source +
+          " to: " + target, t );
+    }
+    finally
+    {
+      flush();
+    }
+
+    return result;
+  }
+
+  /**
+   * Find the documents of the messages in the {@link #source}.  Only the
+   * unique id and message key are loaded from the documents in the
+   * folder.
+   *
+   * @param reader The reader for the indices.
+   * @param keys The array in which the {@link KeyFields#messageKey}s of
+   *   the documents are stored, in the order of the {@link #uids}.
+   * @return The document numbers, in the order of the {@link #uids}.
+   *   Entries are <code>-1</code> for messages that are not indexed.
+   * @throws IOException If errors are encountered while reading the
+   *   indices.
+   */
+  private int[] findDocuments( final IndexReader reader, final String[] keys )
+    throws IOException
+  {
+    final int[] docs = new int[uids.length];
+    Arrays.fill( docs, -1 );
+
+    final String id = indexer.folders.lookupId( source );
+    if ( id == null ) return docs;
+
+    final Map<String,Integer> positions = new HashMap<String,Integer>();
+    for ( int i = 0; i < uids.length; ++i )
+    {
+      positions.put( uids[i], i );
+    }
+
+    final FieldSelector selector = new MapFieldSelector( new String[] {
+        Fields.uniqueId.toString(), KeyFields.messageKey.toString() } );
+    final TermDocs termDocs =
+      reader.termDocs( new Term( KeyFields.folderKey.toString(), id ) );
+    try
+    {
+      while ( termDocs.next() )
+      {
+        final Document document =
+          reader.document( termDocs.doc(), selector );
+        final Integer position =
+          positions.get( document.get( Fields.uniqueId.toString() ) );
+        if ( position == null ) continue;
+
+        docs[position] = termDocs.doc();
+        keys[position] = document.get( KeyFields.messageKey.toString() );
+      }
+    }
+    finally
+    {
+      termDocs.close();
+    }
+
+    return docs;
+  }
+
+  /**
+   * Check to see if the copies may be cloned.  All the original messages
+   * must be indexed, and the <code>UID</code>s of all the copies must be
+   * known and contiguous.  If the {@link #uidNext} is known, the copies
+   * must start at it, and the {@link #target} must have been indexed up to
+   * it: the checkpoint must be below it, and there must be no message in
+   * the folder between the checkpoint and the copies.  Otherwise the
+   * copies must immediately follow the highest <code>UID</code> indexed
+   * in the folder.  Never the case for a {@link Indexer#shared shared}
+   * index, or for indices with more than {@link Indexer#cloneLimit}
+   * documents.
+   *
+   * @param reader The reader for the indices.
+   * @param docs The document numbers of the original messages.
+   * @return Returns <code>true</code> if the copies may be cloned.
+   */
+  private boolean canClone( final IndexReader reader, final int[] docs )
+  {
+    if ( indexer.shared || reader.maxDoc() > indexer.cloneLimit ) return false;
+
+    final FolderCheckpoints.Checkpoint checkpoint =
+      indexer.checkpoints.get( target );
+    if ( checkpoint == null || docs.length == 0 ) return false;
+
+    final long[] values = new long[copies.length];
+    for ( int i = 0; i < copies.length; ++i )
+    {
+      if ( docs[i] < 0 || copies[i] == null ) return false;
+      values[i] = Long.parseLong( copies[i] );
+    }
+
+    Arrays.sort( values );
+    for ( int i = 1; i < values.length; ++i )
+    {
+      if ( values[i] != values[i - 1] + 1 ) return false;
+    }
+
+    if ( uidNext <= 0 ) return ( checkpoint.highUid == values[0] - 1 );
+    if ( values[0] != uidNext || checkpoint.highUid >= uidNext ) return false;
+
+    try
+    {
+      return ! hasMessages( checkpoint.highUid + 1, uidNext - 1 );
+    }
+    catch ( Throwable t )
+    {
+      logger.log( Level.FINE, "Error checking messages below UID: " +
+          uidNext + " in folder: " + target, t );
+      return false;
+    }
+  }
+
+  /**
+   * Check to see if the {@link #target} has messages with a
+   * <code>UID</code> in the specified range.  Only the
+   * <code>UID</code>s of the messages in the range are fetched.
+   *
+   * @param start The lowest <code>UID</code> of the range.
+   * @param end The highest <code>UID</code> of the range.
+   * @return Returns <code>true</code> if the folder has messages in the
+   *   range.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the messages.
+   */
+  private boolean hasMessages( final long start, final long end )
+    throws MessagingException
+  {
+    if ( start > end ) return false;
+
+    final Folder folder =
+      indexer.session.getFolderManager().impl.getFolder( target );
+    final boolean open = folder.isOpen();
+    if ( ! open ) folder.open( Folder.READ_ONLY );
+
+    try
+    {
+      final UIDFolder uidFolder = (UIDFolder) folder;
+      for ( Message message : uidFolder.getMessagesByUID( start, end ) )
+      {
+        if ( message == null ) continue;
+        final long uid = uidFolder.getUID( message );
+        if ( uid >= start && uid <= end ) return true;
+      }
+    }
+    finally
+    {
+      if ( ! open ) folder.close( false );
+    }
+
+    return false;
+  }
+
+  /**
+   * Clone the specified documents with the folder and <code>UID</code>
+   * fields of the copies.  The postings and stored fields of the
+   * originals (other than the replaced fields) are merged into one
+   * in-memory index, the replaced fields are written in the same document
+   * order to another, and the two are merged side by side into the
+   * returned index.
+   *
+   * @param reader The reader for the indices.
+   * @param docs The document numbers of the original messages.
+   * @return The directory that contains the clones.
+   * @throws IOException If errors are encountered while reading or
+   *   writing the indices.
+   */
+  private Directory cloneDocuments( final IndexReader reader,
+      final int[] docs ) throws IOException
+  {
+    final String folderId = indexer.folders.getId( target );
+    final long uidValidity = indexer.checkpoints.get( target ).uidValidity;
+    final BitSet selected = new BitSet( reader.maxDoc() );
+    final TreeMap<Integer,String> ordered = new TreeMap<Integer,String>();
+    for ( int i = 0; i < docs.length; ++i )
+    {
+      selected.set( docs[i] );
+      ordered.put( docs[i], copies[i] );
+    }
+
+    final RAMDirectory content = new RAMDirectory();
+    merge( content, new SelectionReader( reader, selected, REPLACED ) );
+
+    final RAMDirectory keys = new RAMDirectory();
+    final IndexWriter writer = new IndexWriter( keys, indexer.analyzer, true );
+    try
+    {
+      for ( String uid : ordered.values() )
+      {
+        final Document document = new Document();
+        document.add( new Field( Fields.uniqueId.toString(), uid,
+              Field.Store.YES, Field.Index.TOKENIZED ) );
+        document.add( new Field( Fields.folder.toString(), folderId,
+              Field.Store.YES, Field.Index.NO ) );
+        document.add( new Field( KeyFields.uniqueIdKey.toString(), uid,
+              Field.Store.NO, Field.Index.UN_TOKENIZED ) );
+        document.add( new Field( KeyFields.folderKey.toString(), folderId,
+              Field.Store.NO, Field.Index.UN_TOKENIZED ) );
+        document.add( new Field( KeyFields.messageKey.toString(),
+              Indexer.getMessageKey( folderId, uidValidity, uid, null ),
+              Field.Store.YES, Field.Index.UN_TOKENIZED ) );
+        writer.addDocument( document );
+      }
+    }
+    finally
+    {
+      writer.close();
+    }
+
+    final RAMDirectory clones = new RAMDirectory();
+    final ParallelReader parallel = new ParallelReader();
+    try
+    {
+      parallel.add( IndexReader.open( content ) );
+      parallel.add( IndexReader.open( keys ) );
+      merge( clones, parallel );
+    }
+    finally
+    {
+      parallel.close();
+    }
+
+    return clones;
+  }
+
+  /**
+   * Merge the documents exposed by the specified reader into a new index
+   * in the specified directory.
+   *
+   * @param directory The directory in which the index is created.
+   * @param reader The reader whose documents are merged.
+   * @throws IOException If errors are encountered while writing the
+   *   index.
+   */
+  private void merge( final Directory directory, final IndexReader reader )
+    throws IOException
+  {
+    final IndexWriter writer =
+      new IndexWriter( directory, indexer.analyzer, true );
+    try
+    {
+      writer.addIndexes( new IndexReader[] { reader } );
+    }
+    finally
+    {
+      writer.close();
+    }
+  }
+
+  /**
+   * Add the cloned documents to the indices of the {@link #target}, and
+   * advance the checkpoint of the folder over the copies (and the unused
+   * <code>UID</code>s below them), so that the next scan of the folder
+   * does not index them again.
+   *
+   * @param clones The directory that contains the clones.
+   * @throws IOException If errors are encountered while writing the
+   *   indices.
+   */
+  private void addClones( final Directory clones ) throws IOException
+  {
+    indexer.getWriter( indexer.folders.getId( target ) )
+      .addIndexesNoOptimize( new Directory[] { clones } );
+    indexer.setModified();
+
+    long highUid = 0;
+    for ( String uid : copies )
+    {
+      highUid = Math.max( highUid, Long.parseLong( uid ) );
+    }
+
+    final FolderCheckpoints.Checkpoint checkpoint =
+      indexer.checkpoints.get( target );
+    indexer.checkpoints.put( target, new FolderCheckpoints.Checkpoint(
+          checkpoint.uidValidity, highUid, checkpoint.count + copies.length,
+          checkpoint.lowUid, checkpoint.since ) );
+    logger.info( "Cloned indexes for " + copies.length +
+        " messages copied from folder: " + source + " to: " + target );
+  }
+
+  /**
+   * Reduce the message count recorded in the checkpoint of the {@link
+   * #source} by the number of moved messages whose documents were
+   * removed.  If some of the messages were not indexed, the count no
+   * longer matches the folder and the next scan reconciles it.
+   *
+   * @param removed The number of documents removed.
+   */
+  private void updateSourceCheckpoint( final int removed )
+  {
+    final FolderCheckpoints.Checkpoint checkpoint =
+      indexer.checkpoints.get( source );
+    if ( checkpoint == null ) return;
+
+    indexer.checkpoints.put( source, new FolderCheckpoints.Checkpoint(
+          checkpoint.uidValidity, checkpoint.highUid,
+          Math.max( 0, checkpoint.count - removed ),
+          checkpoint.lowUid, checkpoint.since ) );
+  }
+}
@@ -200,10 +200,25 @@ public class MessageHandler
    *   data from the message store.
    */
   public String getSender() throws MessagingException
+  {
+    return getSender( message );
+  }
+
+  /**
+   * Returns the sender of the specified message.
+   *
+   * @see #getSender()
+   * @param message The message whose sender is to be returned.
+   * @return The sender of the message, or <code>null</code> if the
+   *   message has no <code>from</code> address.
+   * @throws MessagingException If errors are encountered while retrieving
+   *   data from the message store.
+   */
+  public static String getSender( Message message ) throws MessagingException
   {
     String sender = null;
     Address[] address = message.getFrom();
-    if ( address != null )
+    if ( address != null && address.length > 0 )
     {
       sender = address[0].toString();
     }
@@ -236,6 +251,21 @@ public class MessageHandler
    *   data from the message store.
    */
   public Date getDate() throws MessagingException
+  {
+    return getDate( message );
+  }
+
+  /**
+   * Return the date at which the specified message was received or sent.
+   *
+   * @see #getDate()
+   * @param message The message whose date is to be returned.
+   * @return The date at which the message was received or sent.  The
+   *   returned value may be <code>null</code>.
+   * @throws MessagingException If errors are encountered while retrieving
+   *   data from the message store.
+   */
+  public static Date getDate( Message message ) throws MessagingException
   {
     Date date = message.getReceivedDate();
     if ( date == null ) date = message.getSentDate();
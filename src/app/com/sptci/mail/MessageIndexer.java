@@ -32,9 +32,35 @@ class MessageIndexer extends Callable
   }
 
   /**
-   * Index the {@link #message}.
+   * Return the key that identifies the {@link #message} within its
+   * folder.  The key uses the <code>UID</code> of the message, since the
+   * message number changes when messages are expunged from the folder.
+   * The message number is used only if the store does not assign
+   * <code>UID</code>s, or the <code>UID</code> could not be fetched.
+   *
+   * @return The key for the task.
+   */
+  @Override
+  String getKey()
+  {
+    String uid = "";
+    try
+    {
+      uid = getUID( message );
+    }
+    catch ( Throwable t )
+    {
+      logger.log( Level.FINE, "Error fetching UID for message", t );
+    }
+
+    return "index:" + message.getFolder().getFullName() + ":" +
+      ( ( uid.length() > 0 ) ? uid : "#" + message.getMessageNumber() );
+  }
+
+  /**
+   * Index the {@link #message}.  A message that has already been indexed
+   * has its document replaced.
    *
-   * @see MessageSearcher#checkMessage
    * @see #indexMessage
    */
   public Boolean call()
@@ -43,16 +69,6 @@ class MessageIndexer extends Callable
 
     try
     {
-      getWriter();
-      String messageId = MessageHandler.getMessageId( message );
-
-      if ( searcher.checkMessage(
-              messageId, message.getFolder().getFullName() ) )
-      {
-        //logger.fine( "Skipping indexed message: " + messageId );
-        return result;
-      }
-
       indexMessage( message );
     } 
     catch ( Throwable t )
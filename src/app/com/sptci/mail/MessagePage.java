@@ -0,0 +1,73 @@
+package com.sptci.mail;
+
+import java.util.Collection;
+
+/**
+ * A page of messages fetched from the search indices using keyset (cursor)
+ * pagination.  Each page carries an opaque token that identifies the
+ * position of the last message in the page.  The token is passed back to
+ * fetch the next page, which ensures that pages do not shift when new
+ * messages are indexed, and that fetching a deep page is as cheap as
+ * fetching the first page.  Pages are fetched using {@link
+ * FolderManager#getMessages( String, String, int, boolean )}.
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+public class MessagePage
+{
+  /**
+   * The messages in this page.
+   */
+  private final Collection<Message> messages;
+
+  /**
+   * The token to use to fetch the page after this one.  This is
+   * <code>null</code> if there are no more messages.
+   */
+  private final String next;
+
+  /**
+   * Create a new page with the specified values.
+   *
+   * @param messages The {@link #messages} to use.
+   * @param next The {@link #next} to use.
+   */
+  MessagePage( final Collection<Message> messages, final String next )
+  {
+    this.messages = messages;
+    this.next = next;
+  }
+
+  /**
+   * Returns {@link #messages}.
+   *
+   * @return The messages in this page.
+   */
+  public Collection<Message> getMessages()
+  {
+    return messages;
+  }
+
+  /**
+   * Returns {@link #next}.
+   *
+   * @return The opaque token to use to fetch the next page, or
+   *   <code>null</code> if this is the last page.
+   */
+  public String getNext()
+  {
+    return next;
+  }
+
+  /**
+   * Check to see if there are more messages after this page.
+   *
+   * @return Returns <code>true</code> if {@link #next} is available.
+   */
+  public boolean hasNext()
+  {
+    return ( next != null );
+  }
+}
@@ -1,10 +1,18 @@
 package com.sptci.mail;
 
 import java.io.IOException;
-import java.text.SimpleDateFormat;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -13,26 +21,52 @@ import javax.mail.internet.InternetAddress;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.queryParser.MultiFieldQueryParser;
-import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.CachingWrapperFilter;
+import org.apache.lucene.search.ConstantScoreRangeQuery;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.Hits;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.Searcher;
+import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocCollector;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldDocCollector;
+import org.apache.lucene.search.TopFieldDocs;
 
 /**
  * Class used to search across the message indices.
  *
+ * <p>If the indices are shared by several users (see {@link
+ * Properties#indexMode}), all searches, including folder listings and
+ * counts, are filtered by the {@link #user}.  Folder identifiers are
+ * prefixed with the user, but the filter ensures that a document is never
+ * returned to another user, even if its folder identifier collides.</p>
+ *
  *<p>&copy; Copyright 2007 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
  * @author Rakesh Vidyadharan 2007-03-05
  * @version $Id: MessageSearcher.java 52 2009-03-10 19:11:21Z sptrakesh $
  */
 class MessageSearcher
 {
+  /**
+   * The separator used between the values encoded in a page token.
+   */
+  private static final char TOKEN_SEPARATOR = '/';
+
   /**
    * The logger to use for logging messages.
    */
@@ -43,86 +77,119 @@ class MessageSearcher
    */
   private final String path;
 
+  /**
+   * The manager used to share a searcher across searches.
+   */
+  private final SearcherManager searchers;
+
+  /**
+   * The cache of the results of recent searches.  Entries are invalidated
+   * when the {@link #searchers} generation changes.
+   */
+  private final ResultCache results;
+
   /**
    * The folder manager to use to retrieve the appropriate folder instances
    * when recreating the message objects from the indexed data.
    */
   private FolderManager manager;
 
+  /**
+   * The identifiers of the folders.  Documents record the identifier of
+   * their folder, which is mapped to the full name of the folder when
+   * documents are read.
+   */
+  private final FolderIds folders;
+
   /**
    * The analyser to use to analyse the text.
    */
   private final Analyzer analyser = new StandardAnalyzer();
 
   /**
-   * The date formatter to use to parse stored dates.
+   * The name of the user whose messages are searched if the indices are
+   * shared.  <code>null</code> if the user has indices of their own.
+   */
+  private final String user;
+
+  /**
+   * The cached filter used to restrict searches to the messages of the
+   * {@link #user}.  Applied to all searches, including those restricted
+   * to a folder.  <code>null</code> if the user has indices of their own.
+   */
+  private final Filter userFilter;
+
+  /**
+   * The selector used to load only the stored fields needed to create a
+   * {@link MessageSummary}.
+   */
+  private static final FieldSelector SUMMARY_FIELDS = new MapFieldSelector(
+      new String[] { Fields.uniqueId.toString(), Fields.messageId.toString(),
+        Fields.folder.toString(), Fields.subject.toString(),
+        StoredFields.fromName.toString(), StoredFields.fromAddress.toString(),
+        StoredFields.dateMillis.toString() } );
+
+  /**
+   * The maximum number of date range filters retained in {@link
+   * #dateFilters}.
+   *
+   * {@value}
    */
-  private final SimpleDateFormat sdf = new SimpleDateFormat( "yyyyMMddHHmmss" );
+  private static final int MAX_DATE_FILTERS = 32;
+
+  /**
+   * The cache of date range filters used by searches.  Each filter caches
+   * its bit set for the current reader, so that repeated searches over the
+   * same range do not re-compute it.  The least recently used filters are
+   * dropped once {@link #MAX_DATE_FILTERS} is reached.
+   */
+  private final Map<DateRangeFilter,Filter> dateFilters =
+    new LinkedHashMap<DateRangeFilter,Filter>( 16, 0.75f, true )
+    {
+      @Override
+      protected boolean removeEldestEntry(
+          final Map.Entry<DateRangeFilter,Filter> eldest )
+      {
+        return size() > MAX_DATE_FILTERS;
+      }
+    };
 
   /**
    * Create a new instance of the searcher for the specified path.
    *
    * @param path The path on which to execute searches.
    * @param manager The {@link #manager} to use.
+   * @param folders The {@link #folders} to use.
+   * @param user The {@link #user} to use.  Specify <code>null</code> if
+   *   the indices are not shared.
    */
-  MessageSearcher( final String path, final FolderManager manager )
+  MessageSearcher( final String path, final FolderManager manager,
+      final FolderIds folders, final String user )
   {
     this.path = path;
     this.manager = manager;
-  }
-
-  /**
-   * Check to see if the specified message exists in the specified folder.
-   * This method is usually used to ensure that duplicates index entries are
-   * not created.
-   *
-   * @param messageId The <code>message-id</code> used to uniquely identify
-   *   the message.
-   * @param folder The full name of the folder in which the message resides.
-   * @return Returns <code>true</code> if the matching message was found in
-   *   the index.
-   * @throws MessagingException If errors are encountered while parsing the
-   *   query, searching the indices or converting the indexed documents
-   *   into messages.
-   */
-  public boolean checkMessage( final String messageId, final String folder )
-    throws MessagingException
-  {
-    boolean result = false;
-    Searcher searcher = null;
-
+    this.folders = folders;
+    this.user = user;
+    this.userFilter = ( user == null ) ?
+      null : new CachingWrapperFilter( new UserFilter( user, null ) );
+    this.searchers = SearcherManager.getInstance( path );
+
+    int entries = Properties.DEFAULT_RESULT_CACHE_SIZE;
+    long bytes = Properties.DEFAULT_RESULT_CACHE_BYTES;
     try
     {
-      searcher = new IndexSearcher( path );
-      BooleanQuery query = new BooleanQuery();
-      QueryParser parser = new QueryParser(
-          Fields.messageId.toString(), analyser );
-      query.add( parser.parse( messageId ), BooleanClause.Occur.MUST );
-
-      parser = new QueryParser( Fields.folder.toString(), analyser );
-      query.add( parser.parse( folder ), BooleanClause.Occur.MUST );
-
-      Hits hits = searcher.search( query );
-      for ( int i = 0; i < hits.length(); ++i )
-      {
-        if ( hits.doc( i ).get( Fields.folder.toString() ).equals( folder ) )
-        {
-          result = true;
-        }
-      }
+      final Properties properties = Properties.getInstance();
+      entries = properties.resultCacheSize;
+      bytes = properties.resultCacheBytes;
     }
     catch ( Throwable t )
     {
-      throw new MessagingException( t );
-    }
-    finally
-    {
-      close( searcher );
+      logger.log( Level.WARNING, "Error reading result cache properties", t );
     }
 
-    return result;
+    this.results = new ResultCache( entries, bytes );
   }
-  
+
   /**
    * Return a count of all the documents that exist in the specified
    * folder.
@@ -135,18 +202,20 @@ class MessageSearcher
   protected int fetchMessageCount( final String folder )
     throws MessagingException
   {
+    final List<?> key = Arrays.asList( KeyFields.folderKey, folder );
+    final long generation = searchers.getGeneration();
+    final Integer cached = (Integer) results.get( key, generation );
+    if ( cached != null ) return cached;
+
     int count = 0;
-    Searcher searcher = null;
+    IndexSearcher searcher = null;
     
     try
     {
-      searcher = new IndexSearcher( path );
-      QueryParser parser =
-        new QueryParser( Fields.folder.toString(), analyser );
-      Query query = parser.parse( folder );
-      
-      Hits hits = searcher.search( query );
-      count = hits.length();
+      searcher = searchers.acquire();
+      count = searcher.search(
+          getFolderQuery( folder ), userFilter, 1 ).totalHits;
+      results.put( key, generation, count, 0 );
     }
     catch ( Throwable t )
     {
@@ -154,7 +223,7 @@ class MessageSearcher
     }
     finally
     {
-      close( searcher );
+      searchers.release( searcher );
     }
     
     return count;
@@ -166,42 +235,91 @@ class MessageSearcher
    *
    * @param folder The full name of the folder in which to find messages.
    * @return Returns the collection of matching documents.
-   * @throws ParseException If errors are encountered while parsing the
-   *   query.
    * @throws IOException If errors are encountered while searching the
    *   indices.
    */
   protected Collection<Document> fetchDocuments( final String folder )
-    throws ParseException, IOException
+    throws IOException
   {
     Collection<Document> messages = new ArrayList<Document>();
-    Searcher searcher = null;
+    IndexSearcher searcher = null;
 
     try
     {
-      searcher = new IndexSearcher( path );
-      QueryParser parser =
-        new QueryParser( Fields.folder.toString(), analyser );
-      Query query = parser.parse( folder );
-
-      Hits hits = searcher.search( query );
+      searcher = searchers.acquire();
+      Hits hits = searcher.search( getFolderQuery( folder ), userFilter );
       for ( int i = 0; i < hits.length(); ++i )
       {
-        Document document = hits.doc( i );
-        // check to get around fact that tokenised folder names lead to
-        // imprecise match
-        if ( document.get( Fields.folder.toString() ).equals( folder ) )
+        messages.add( hits.doc( i ) );
+      }
+    }
+    finally
+    {
+      searchers.release( searcher );
+    }
+
+    return messages;
+  }
+
+  /**
+   * Return all the documents that exist in the specified folder, with
+   * only the specified fields loaded from the stored documents.  Used to
+   * compare the contents of a folder with the indices without loading
+   * the full documents.  The documents are read from a searcher that
+   * reflects all the committed updates (see {@link
+   * SearcherManager#acquireCurrent}), since the indexing tasks compare
+   * against their own writes.
+   *
+   * @param folder The full name of the folder.
+   * @param fields The stored fields that are to be loaded.
+   * @return Returns the collection of partially loaded documents.
+   * @throws MessagingException If errors are encountered while reading
+   *   the indices.
+   */
+  protected Collection<Document> fetchDocuments( final String folder,
+      final Fields... fields ) throws MessagingException
+  {
+    final Collection<Document> documents = new ArrayList<Document>();
+    final String[] names = new String[fields.length];
+    for ( int i = 0; i < fields.length; ++i )
+    {
+      names[i] = fields[i].toString();
+    }
+
+    final FieldSelector selector = new MapFieldSelector( names );
+    final String id = folders.lookupId( folder );
+    if ( id == null ) return documents;
+    IndexSearcher searcher = null;
+
+    try
+    {
+      searcher = searchers.acquireCurrent();
+      final IndexReader reader = searcher.getIndexReader();
+      final TermDocs docs = reader.termDocs(
+          new Term( KeyFields.folderKey.toString(), id ) );
+
+      try
+      {
+        while ( docs.next() )
         {
-          messages.add( hits.doc( i ) );
+          documents.add( reader.document( docs.doc(), selector ) );
         }
       }
+      finally
+      {
+        docs.close();
+      }
+    }
+    catch ( Throwable t )
+    {
+      throw new MessagingException( t );
     }
     finally
     {
-      close( searcher );
+      searchers.release( searcher );
     }
 
-    return messages;
+    return documents;
   }
 
   /**
@@ -220,11 +338,9 @@ class MessageSearcher
     throws MessagingException
   {
     Collection<Message> messages = new ArrayList<Message>();
-    Searcher searcher = null;
 
     try
     {
-      searcher = new IndexSearcher( path );
       for ( Document document : fetchDocuments( folder ) )
       {
         messages.add( createMessage( document ) );
@@ -235,10 +351,6 @@ class MessageSearcher
     {
       throw new MessagingException( t );
     }
-    finally
-    {
-      close( searcher );
-    }
 
     return messages;
   }
@@ -249,7 +361,7 @@ class MessageSearcher
    * in the default ordering used in the search index.  The range parameters
    * behave similar to <code>JDO Query.setRange</code>.
    *
-   * @see #fetchDocuments( String )
+   * @see #fetchDocuments( Query, Sort, int, int )
    * @see #createMessage
    * @param folder The full name of the folder in which to find messages.
    * @param start The starting index within the results from which to fetch
@@ -265,34 +377,8 @@ class MessageSearcher
   public Collection<Message> fetchMessages( final String folder,
       final int start, final int end ) throws MessagingException
   {
-    final Collection<Message> messages = new ArrayList<Message>();
-    Searcher searcher = null;
-
-    try
-    {
-      searcher = new IndexSearcher( path );
-      int count = 0;
-      for ( Document document : fetchDocuments( folder ) )
-      {
-        if ( ( count >= start ) && ( count < end ) )
-        {
-          messages.add( createMessage( document ) );
-        }
-
-        if ( ++count >= end ) break;
-      }
-    }
-    catch ( MessagingException mex ) { throw mex; }
-    catch ( Throwable t )
-    {
-      throw new MessagingException( t );
-    }
-    finally
-    {
-      close( searcher );
-    }
-
-    return messages;
+    return createMessages(
+        fetchDocuments( getFolderQuery( folder ), null, start, end ) );
   }
 
   /**
@@ -310,26 +396,17 @@ class MessageSearcher
       final SortFields sortField ) throws MessagingException
   {
     final Collection<Document> messages = new ArrayList<Document>();
-    Searcher searcher = null;
+    IndexSearcher searcher = null;
 
     try
     {
-      searcher = new IndexSearcher( path );
-      QueryParser parser =
-        new QueryParser( Fields.folder.toString(), analyser );
-      Query query = parser.parse( folder );
+      searcher = searchers.acquire();
       Sort sort = new Sort( sortField.toString() );
 
-      Hits hits = searcher.search( query, sort );
+      Hits hits = searcher.search( getFolderQuery( folder ), userFilter, sort );
       for ( int i = 0; i < hits.length(); ++i )
       {
-        Document document = hits.doc( i );
-        // check to get around fact that tokenised folder names lead to
-        // imprecise match
-        if ( document.get( Fields.folder.toString() ).equals( folder ) )
-        {
-          messages.add( hits.doc( i ) );
-        }
+        messages.add( hits.doc( i ) );
       }
     }
     catch ( Throwable t )
@@ -338,7 +415,7 @@ class MessageSearcher
     }
     finally
     {
-      close( searcher );
+      searchers.release( searcher );
     }
 
     return messages;
@@ -360,23 +437,10 @@ class MessageSearcher
       final SortFields sortField ) throws MessagingException
   {
     final Collection<Message> messages = new ArrayList<Message>();
-    Searcher searcher = null;
 
-    try
+    for ( Document document : fetchDocuments( folder, sortField ) )
     {
-      searcher = new IndexSearcher( path );
-      for ( Document document : fetchDocuments( folder, sortField ) )
-      {
-        messages.add( createMessage( document ) );
-      }
-    }
-    catch ( IOException ciex )
-    {
-      throw new MessagingException( ciex );
-    }
-    finally
-    {
-      close( searcher );
+      messages.add( createMessage( document ) );
     }
 
     return messages;
@@ -386,7 +450,7 @@ class MessageSearcher
    * Return a collection of all the messages that exist in the specified
    * folder.
    *
-   * @see #fetchDocuments( String, SortFields )
+   * @see #fetchDocuments( Query, Sort, int, int )
    * @param folder The full name of the folder in which to find messages.
    * @param sortField The sort field to use to sort the search results.
    * @param start The starting index within the results from which to fetch
@@ -403,35 +467,166 @@ class MessageSearcher
       final SortFields sortField, final int start, final int end )
     throws MessagingException
   {
-    final Collection<Message> messages = new ArrayList<Message>();
-    Searcher searcher = null;
+    return createMessages( fetchDocuments( getFolderQuery( folder ),
+          new Sort( sortField.toString() ), start, end ) );
+  }
+
+  /**
+   * Return the summaries of the messages in the specified window of the
+   * messages in the folder.  Only the stored fields needed for the
+   * summaries are loaded from the indices.
+   *
+   * @see #fetchMessages( String, SortFields, int, int )
+   * @param folder The full name of the folder in which to find messages.
+   * @param sortField The sort field to use to sort the search results.
+   * @param start The starting index within the results from which to fetch
+   *   results.  This index is included in the results.  Indexes start
+   *   from <b>0</b> and not <b>1</b>
+   * @param end The ending index within the results till which to fetch
+   *   results.  This index is excluded in the results.
+   * @return Returns the summaries of the matching messages.
+   * @throws MessagingException If errors are encountered while searching
+   *   the indices.
+   */
+  public Collection<MessageSummary> fetchSummaries( final String folder,
+      final SortFields sortField, final int start, final int end )
+    throws MessagingException
+  {
+    return createSummaries( fetchDocuments( getFolderQuery( folder ), null,
+          new Sort( sortField.toString() ), start, end, SUMMARY_FIELDS ) );
+  }
+  
+  /**
+   * Return a page of messages in the specified folder sorted by {@link
+   * SortFields#dateSort}, with ties broken by {@link KeyFields#uniqueIdKey}.
+   * Only messages that sort after the position identified by the token
+   * are returned, hence pages do not shift when new messages are indexed
+   * and the cost of a page does not depend upon its depth.
+   *
+   * @param folder The full name of the folder in which to find messages.
+   * @param after The {@link MessagePage#getNext} token from the previous
+   *   page.  Specify <code>null</code> to fetch the first page.
+   * @param count The maximum number of messages to return.
+   * @param reverse Flag indicating whether the newest messages are to be
+   *   returned first.  Must be the same value as was used to fetch the
+   *   previous page.
+   * @return The page of messages.
+   * @throws MessagingException If the token is invalid or if errors are
+   *   encountered while searching the indices or converting the indexed
+   *   documents into messages.
+   */
+  public MessagePage fetchPage( final String folder, final String after,
+      final int count, final boolean reverse ) throws MessagingException
+  {
+    final Collection<Document> documents = new ArrayList<Document>();
+    String next = null;
+    IndexSearcher searcher = null;
 
     try
     {
-      searcher = new IndexSearcher( path );
-      int count = 0;
-      for ( Document document : fetchDocuments( folder, sortField ) )
+      final BooleanQuery query = new BooleanQuery();
+      query.add( getFolderQuery( folder ), BooleanClause.Occur.MUST );
+      if ( after != null )
+      {
+        query.add( getAfterQuery( after, reverse ), BooleanClause.Occur.MUST );
+      }
+
+      final Sort sort = new Sort( new SortField[] {
+          new SortField( SortFields.dateSort.toString(),
+            SortField.STRING, reverse ),
+          new SortField( KeyFields.uniqueIdKey.toString(),
+            SortField.STRING, reverse ) } );
+
+      searcher = searchers.acquire();
+      final int size = Math.min( count, searcher.maxDoc() );
+      if ( size > 0 )
       {
-        if ( ( count >= start ) && ( count < end ) )
+        final TopFieldDocs hits = searcher.search( query, userFilter, size,
+            sort );
+        for ( ScoreDoc hit : hits.scoreDocs )
         {
-          messages.add( createMessage( document ) );
+          documents.add( searcher.doc( hit.doc ) );
         }
 
-        if ( ++count >= end ) break;
+        if ( hits.totalHits > hits.scoreDocs.length )
+        {
+          final FieldDoc last =
+            (FieldDoc) hits.scoreDocs[hits.scoreDocs.length - 1];
+          next = createToken( (String) last.fields[0],
+              (String) last.fields[1] );
+        }
       }
     }
-    catch ( IOException ciex )
+    catch ( MessagingException mex ) { throw mex; }
+    catch ( Throwable t )
     {
-      throw new MessagingException( ciex );
+      throw new MessagingException( t );
     }
     finally
     {
-      close( searcher );
+      searchers.release( searcher );
     }
 
-    return messages;
+    return new MessagePage( createMessages( documents ), next );
   }
-  
+
+  /**
+   * Create the opaque token that identifies the position of a message
+   * within a page sorted by {@link SortFields#dateSort} and {@link
+   * KeyFields#uniqueIdKey}.  Date values never contain the separator, hence
+   * the unique id may contain any character.
+   *
+   * @param date The indexed {@link SortFields#dateSort} value.
+   * @param uniqueId The indexed {@link KeyFields#uniqueIdKey} value.
+   * @return The token to hand out to clients.
+   */
+  private String createToken( final String date, final String uniqueId )
+  {
+    return ( ( date == null ) ? "" : date ) + TOKEN_SEPARATOR + uniqueId;
+  }
+
+  /**
+   * Return a query that matches the messages that sort after the position
+   * identified by the specified token.
+   *
+   * @see #createToken
+   * @param token The token that identifies the last message returned.
+   * @param reverse Flag indicating whether the sort order is reversed.
+   * @return The query that restricts results to the following messages.
+   * @throws MessagingException If the token is invalid.
+   */
+  private Query getAfterQuery( final String token, final boolean reverse )
+    throws MessagingException
+  {
+    final int index = token.indexOf( TOKEN_SEPARATOR );
+    if ( index < 0 )
+    {
+      throw new MessagingException( "Invalid page token: " + token );
+    }
+
+    final String date = token.substring( 0, index );
+    final String uniqueId = token.substring( index + 1 );
+    final String dateField = SortFields.dateSort.toString();
+    final String idField = KeyFields.uniqueIdKey.toString();
+
+    final BooleanQuery sameDate = new BooleanQuery();
+    sameDate.add( new TermQuery( new Term( dateField, date ) ),
+        BooleanClause.Occur.MUST );
+    sameDate.add( ( reverse ) ?
+        new ConstantScoreRangeQuery( idField, null, uniqueId, false, false ) :
+        new ConstantScoreRangeQuery( idField, uniqueId, null, false, false ),
+        BooleanClause.Occur.MUST );
+
+    final BooleanQuery query = new BooleanQuery();
+    query.add( ( reverse ) ?
+        new ConstantScoreRangeQuery( dateField, null, date, false, false ) :
+        new ConstantScoreRangeQuery( dateField, date, null, false, false ),
+        BooleanClause.Occur.SHOULD );
+    query.add( sameDate, BooleanClause.Occur.SHOULD );
+
+    return query;
+  }
+
   /**
    * Search for messages that match the conditions specified in the map.
    * The keys of the map are the enums defined in {@link Indexer}.
@@ -448,40 +643,13 @@ class MessageSearcher
       final SearchConditions conditions ) throws MessagingException
   {
     final Collection<Document> results = new ArrayList<Document>();
-    Searcher searcher = null;
+    IndexSearcher searcher = null;
 
     try
     {
-      searcher = new IndexSearcher( path );
-      BooleanQuery query = new BooleanQuery();
-
-      if ( conditions.getFolder() != null )
-      {
-        QueryParser parser =
-          new QueryParser( Fields.folder.toString(), analyser );
-        query.add( parser.parse( conditions.getFolder() ),
-            BooleanClause.Occur.MUST );
-      }
-
-      ArrayList<String> list = new ArrayList<String>();
-      if ( conditions.getSubject() )
-      {
-        list.add( Fields.subject.toString() );
-      }
-      if ( conditions.getContent() )
-      {
-        list.add( Fields.content.toString() );
-      }
-      if ( conditions.getFrom() )
-      {
-        list.add( Fields.from.toString() );
-      }
-
-      MultiFieldQueryParser mparser = new MultiFieldQueryParser(
-          (String[]) list.toArray( new String[]{} ), analyser );
-      query.add(
-          mparser.parse( conditions.getText() ), BooleanClause.Occur.MUST );
-      logger.fine( "Search query: " + query );
+      searcher = searchers.acquire();
+      final Query query = createQuery( conditions );
+      final Filter filter = createFilter( conditions );
 
       Sort sort = null;
       Hits hits = null;
@@ -489,22 +657,16 @@ class MessageSearcher
       if ( conditions.getSort() != null )
       {
         sort = new Sort( conditions.getSort().toString() );
-        hits = searcher.search( query, sort );
+        hits = searcher.search( query, filter, sort );
       }
       else
       {
-        hits = searcher.search( query );
+        hits = searcher.search( query, filter );
       }
 
       for ( int i = 0; i < hits.length(); ++i )
       {
-        Document document = hits.doc( i );
-        if ( conditions.getFolder() == null || document.get(
-              Fields.folder.toString() ).equals(
-              conditions.getFolder() ) )
-        {
-          results.add( hits.doc( i ) );
-        }
+        results.add( hits.doc( i ) );
       }
     }
     catch ( Throwable t )
@@ -513,7 +675,7 @@ class MessageSearcher
     }
     finally
     {
-      close( searcher );
+      searchers.release( searcher );
     }
 
     return results;
@@ -536,23 +698,10 @@ class MessageSearcher
     throws MessagingException
   {
     final Collection<Message> results = new ArrayList<Message>();
-    Searcher searcher = null;
 
-    try
-    {
-      searcher = new IndexSearcher( path );
-      for ( Document document : searchDocuments( conditions ) )
-      {
-        results.add( createMessage( document ) );
-      }
-    }
-    catch ( IOException ciex )
+    for ( Document document : searchDocuments( conditions ) )
     {
-      throw new MessagingException( ciex );
-    }
-    finally
-    {
-      close( searcher );
+      results.add( createMessage( document ) );
     }
 
     return results;
@@ -571,7 +720,7 @@ class MessageSearcher
    * @param end The ending index within the results till which to fetch
    *   results.  This index is excluded in the results.
    * @return The message instances that represent the matching documents.
-   * @see #searchDocuments
+   * @see #fetchDocuments( Query, Sort, int, int )
    * @throws MessagingException If errors are encountered while parsing the
    *   query, searching the indices or converting the indexed documents
    *   into messages.
@@ -579,43 +728,418 @@ class MessageSearcher
   public Collection<Message> search( final SearchConditions conditions,
       final int start, final int end ) throws MessagingException
   {
-    Collection<Message> results = new ArrayList<Message>();
-    Searcher searcher = null;
+    final Query query;
+    try
+    {
+      query = createQuery( conditions );
+    }
+    catch ( Throwable t )
+    {
+      throw new MessagingException( t );
+    }
 
+    final Sort sort = ( conditions.getSort() == null ) ?
+      null : new Sort( conditions.getSort().toString() );
+    return createMessages( fetchDocuments(
+          query, createFilter( conditions ), sort, start, end, null ) );
+  }
+
+  /**
+   * Return the summaries of the messages in the specified window of the
+   * messages that match the search conditions.
+   *
+   * @see #search( SearchConditions, int, int )
+   * @param conditions The conditions object that specifies the Fields
+   *   that are to be searched.
+   * @param start The starting index within the results from which to fetch
+   *   results.  This index is included in the results.
+   * @param end The ending index within the results till which to fetch
+   *   results.  This index is excluded in the results.
+   * @return The summaries of the matching messages.
+   * @throws MessagingException If errors are encountered while parsing the
+   *   query or searching the indices.
+   */
+  public Collection<MessageSummary> searchSummaries(
+      final SearchConditions conditions, final int start, final int end )
+    throws MessagingException
+  {
+    final Query query;
     try
     {
-      searcher = new IndexSearcher( path );
-      int count = 0;
+      query = createQuery( conditions );
+    }
+    catch ( Throwable t )
+    {
+      throw new MessagingException( t );
+    }
+
+    final Sort sort = ( conditions.getSort() == null ) ?
+      null : new Sort( conditions.getSort().toString() );
+    return createSummaries(
+        fetchDocuments( query, createFilter( conditions ), sort,
+          start, end, SUMMARY_FIELDS ) );
+  }
+
+  /**
+   * Return the summaries of the messages in the specified window of the
+   * messages that match the search conditions, along with the counts of
+   * the matching messages by the {@link SearchConditions#getFacets
+   * requested facets}.  The counts and the top documents are computed in
+   * a single pass over the matching documents, using the field caches for
+   * the facet fields.  Stored fields are loaded only for the messages in
+   * the window.
+   *
+   * @see FacetCollector
+   * @param conditions The conditions object that specifies the Fields
+   *   that are to be searched and the facets that are to be counted.
+   * @param start The starting index within the results from which to fetch
+   *   results.  This index is included in the results.
+   * @param end The ending index within the results till which to fetch
+   *   results.  This index is excluded in the results.
+   * @return The summaries of the matching messages and the facet counts.
+   * @throws MessagingException If errors are encountered while parsing the
+   *   query or searching the indices.
+   */
+  public FacetedResults searchWithFacets( final SearchConditions conditions,
+      final int start, final int end ) throws MessagingException
+  {
+    final Collection<Document> documents = new ArrayList<Document>();
+    final Map<Facets,Map<String,Integer>> facets =
+      new EnumMap<Facets,Map<String,Integer>>( Facets.class );
+    IndexSearcher searcher = null;
 
-      for ( Document document : searchDocuments( conditions ) )
+    try
+    {
+      searcher = searchers.acquire();
+      final IndexReader reader = searcher.getIndexReader();
+      final int count = Math.max( 1, Math.min( end, searcher.maxDoc() ) );
+
+      final TopDocCollector top = ( conditions.getSort() == null ) ?
+        new TopDocCollector( count ) :
+        new TopFieldDocCollector( reader,
+            new Sort( conditions.getSort().toString() ), count );
+      final FacetCollector collector =
+        new FacetCollector( reader, conditions.getFacets(), top );
+
+      searcher.search( createQuery( conditions ),
+          createFilter( conditions ), collector );
+
+      final TopDocs hits = top.topDocs();
+      for ( int i = Math.max( 0, start );
+          i < end && i < hits.scoreDocs.length; ++i )
       {
-        if ( ( count >= start ) && ( count < end ) )
-        {
-          results.add( createMessage( document ) );
-        }
+        documents.add(
+            reader.document( hits.scoreDocs[i].doc, SUMMARY_FIELDS ) );
+      }
 
-        if ( ++count >= end ) break;
+      for ( Facets facet : conditions.getFacets() )
+      {
+        Map<String,Integer> counts =
+          collector.getCounts( facet, conditions.getFacetLimit() );
+        if ( facet == Facets.folder ) counts = getFolderCounts( counts );
+        facets.put( facet, counts );
       }
+
+      return new FacetedResults( createSummaries( documents ),
+          hits.totalHits, facets );
     }
-    catch ( IOException ciex )
+    catch ( Throwable t )
     {
-      throw new MessagingException( ciex );
+      throw new MessagingException( t );
     }
     finally
     {
-      close( searcher );
+      searchers.release( searcher );
     }
+  }
 
-    return results;
+  /**
+   * Map the folder identifiers in the specified facet counts to the full
+   * names of the folders.  Folders that are no longer known are omitted.
+   *
+   * @param counts The counts keyed by folder identifier.
+   * @return The counts keyed by folder name, in the same order.
+   */
+  private Map<String,Integer> getFolderCounts(
+      final Map<String,Integer> counts )
+  {
+    final Map<String,Integer> result = new LinkedHashMap<String,Integer>();
+    for ( Map.Entry<String,Integer> entry : counts.entrySet() )
+    {
+      final String name = folders.getName( entry.getKey() );
+      if ( name != null ) result.put( name, entry.getValue() );
+    }
+
+    return result;
+  }
+
+  /**
+   * Notify this searcher that the {@link Indexer} has flushed changes to
+   * the search indices, or has renamed folders.  The shared searcher is
+   * re-opened and warmed in the background.  The cached {@link #results}
+   * are cleared right away, since they remain valid for the current
+   * searcher until the new one is swapped in, and results cached by
+   * folder name are wrong as soon as a folder is renamed.
+   *
+   * @see SearcherManager#invalidate
+   */
+  void indexChanged()
+  {
+    results.clear();
+    searchers.invalidate();
+  }
+
+  /**
+   * Acquire the shared searcher for tasks that read the indices directly.
+   * The searcher reflects all the updates committed before this method was
+   * invoked, re-opening it in the calling thread if necessary.  The
+   * searcher must be returned using {@link #release}.
+   *
+   * @see SearcherManager#acquireCurrent
+   * @return The shared searcher.
+   * @throws IOException If errors are encountered while opening the
+   *   indices.
+   */
+  IndexSearcher acquire() throws IOException
+  {
+    return searchers.acquireCurrent();
+  }
+
+  /**
+   * Release a searcher acquired using {@link #acquire}.
+   *
+   * @param searcher The searcher that is to be released.
+   */
+  void release( final IndexSearcher searcher )
+  {
+    searchers.release( searcher );
+  }
+
+  /**
+   * Open and warm the shared searcher in the background.  Invoked at login
+   * so that the first listing does not pay the cost of loading the sort
+   * caches.
+   *
+   * @see SearcherManager#warm
+   */
+  void warm()
+  {
+    searchers.warm();
   }
 
   /**
    * Destroy this instance of the searcher.  Normally invoked when user
-   * logs out of the mail store.
+   * logs out of the mail store.  Closes the shared searcher once any
+   * in-flight searches have completed.
+   *
+   * @see SearcherManager#close
    */
   public void destroy()
   {
-    // Not necessary since we are not using a global searcher.
+    searchers.close();
+    results.clear();
+  }
+
+  /**
+   * Return the documents that fall within the specified window of the
+   * results for the query.  Only the top <code>end</code> hits are
+   * collected, and stored fields are loaded only for the hits within the
+   * window, so that the cost of fetching a page of results depends upon
+   * the page size and not on the total number of matching documents.
+   *
+   * @param query The query to execute.
+   * @param sort The sort order to use.  Results are returned in the
+   *   default relevance order if <code>null</code>.
+   * @param start The starting index within the results from which to fetch
+   *   results.  This index is included in the results.
+   * @param end The ending index within the results till which to fetch
+   *   results.  This index is excluded in the results.
+   * @return Returns the collection of matching documents.
+   * @throws MessagingException If errors are encountered while searching
+   *   the indices.
+   */
+  protected Collection<Document> fetchDocuments( final Query query,
+      final Sort sort, final int start, final int end )
+    throws MessagingException
+  {
+    return fetchDocuments( query, null, sort, start, end, null );
+  }
+
+  /**
+   * Return the documents in the specified window of the results for the
+   * query, loading only the fields accepted by the selector.
+   *
+   * @see #fetchDocuments( Query, Sort, int, int )
+   * @param query The query to execute.
+   * @param filter The filter to apply to the results.  Specify
+   *   <code>null</code> for no filtering.
+   * @param sort The sort to apply to the results.  Specify
+   *   <code>null</code> to sort by relevance.
+   * @param start The index (inclusive) of the first result to return.
+   * @param end The index (exclusive) of the last result to return.
+   * @param selector The selector for the stored fields to load.  Specify
+   *   <code>null</code> to load all the stored fields.
+   * @return The documents in the window.
+   * @throws MessagingException If errors are encountered while searching
+   *   the indices.
+   */
+  @SuppressWarnings( "unchecked" )
+  private Collection<Document> fetchDocuments( final Query query,
+      final Filter filter, final Sort sort, final int start, final int end,
+      final FieldSelector selector ) throws MessagingException
+  {
+    final List<?> key = Arrays.asList( query, filter,
+        ( sort == null ) ? null : sort.toString(), start, end, selector );
+    final long generation = searchers.getGeneration();
+    final Collection<Document> cached =
+      (Collection<Document>) results.get( key, generation );
+    if ( cached != null ) return cached;
+
+    final Collection<Document> documents = new ArrayList<Document>();
+    if ( end <= start ) return documents;
+
+    IndexSearcher searcher = null;
+
+    try
+    {
+      searcher = searchers.acquire();
+      final int count = Math.min( end, searcher.maxDoc() );
+      if ( count <= start ) return documents;
+
+      final TopDocs hits = ( sort == null ) ?
+        searcher.search( query, filter, count ) :
+        searcher.search( query, filter, count, sort );
+
+      final IndexReader reader = searcher.getIndexReader();
+      for ( int i = start; i < hits.scoreDocs.length; ++i )
+      {
+        documents.add( ( selector == null ) ?
+            searcher.doc( hits.scoreDocs[i].doc ) :
+            reader.document( hits.scoreDocs[i].doc, selector ) );
+      }
+
+      results.put( key, generation,
+          Collections.unmodifiableCollection( documents ),
+          ResultCache.estimate( documents ) );
+    }
+    catch ( Throwable t )
+    {
+      throw new MessagingException( t );
+    }
+    finally
+    {
+      searchers.release( searcher );
+    }
+
+    return documents;
+  }
+
+  /**
+   * Create the query that represents the specified search conditions.
+   *
+   * @param conditions The conditions object that specifies the Fields
+   *   that are to be searched.
+   * @return The query to execute against the indices.
+   * @throws ParseException If errors are encountered while parsing the
+   *   search text.
+   */
+  private Query createQuery( final SearchConditions conditions )
+    throws ParseException
+  {
+    final BooleanQuery query = new BooleanQuery();
+
+    if ( conditions.getFolder() != null )
+    {
+      query.add( getFolderQuery( conditions.getFolder() ),
+          BooleanClause.Occur.MUST );
+    }
+
+    final ArrayList<String> list = new ArrayList<String>();
+    if ( conditions.getSubject() )
+    {
+      list.add( Fields.subject.toString() );
+    }
+    if ( conditions.getContent() )
+    {
+      list.add( Fields.content.toString() );
+    }
+    if ( conditions.getFrom() )
+    {
+      list.add( Fields.from.toString() );
+    }
+
+    if ( conditions.getText() != null &&
+        conditions.getText().trim().length() > 0 )
+    {
+      final MultiFieldQueryParser mparser = new MultiFieldQueryParser(
+          (String[]) list.toArray( new String[]{} ), analyser );
+      query.add(
+          mparser.parse( conditions.getText() ), BooleanClause.Occur.MUST );
+    }
+
+    if ( query.getClauses().length == 0 )
+    {
+      query.add( new MatchAllDocsQuery(), BooleanClause.Occur.MUST );
+    }
+
+    logger.fine( "Search query: " + query );
+    return query;
+  }
+
+  /**
+   * Create the filter for the date range specified in the search
+   * conditions.  Filters are shared through {@link #dateFilters}.  If the
+   * indices are shared, the filter also restricts the results to the
+   * messages of the {@link #user}.
+   *
+   * @param conditions The search conditions.
+   * @return The filter to apply, or the {@link #userFilter} if the
+   *   conditions do not specify a date range.
+   */
+  private Filter createFilter( final SearchConditions conditions )
+  {
+    if ( conditions.getFromDate() == null &&
+        conditions.getToDate() == null ) return userFilter;
+
+    final DateRangeFilter range = new DateRangeFilter(
+        conditions.getFromDate(), conditions.getToDate() );
+    synchronized ( dateFilters )
+    {
+      Filter filter = dateFilters.get( range );
+      if ( filter == null )
+      {
+        filter = new CachingWrapperFilter(
+            ( user == null ) ? range : new UserFilter( user, range ) );
+        dateFilters.put( range, filter );
+      }
+
+      return filter;
+    }
+  }
+
+  /**
+   * Create the {@link Message} objects that represent the specified
+   * documents.
+   *
+   * @see #createMessage
+   * @param documents The documents from which the messages are to be
+   *   constructed.
+   * @return The messages in the same order as the documents.
+   * @throws MessagingException If errors are encountered while recreating
+   *   the message objects from the indexed documents.
+   */
+  private Collection<Message> createMessages(
+      final Collection<Document> documents ) throws MessagingException
+  {
+    final Collection<Message> messages =
+      new ArrayList<Message>( documents.size() );
+
+    for ( Document document : documents )
+    {
+      messages.add( createMessage( document ) );
+    }
+
+    return messages;
   }
 
   /**
@@ -633,10 +1157,11 @@ class MessageSearcher
   {
     final String uniqueId = document.get( Fields.uniqueId.toString() );
     final String messageId = document.get( Fields.messageId.toString() );
-    final String folderName = document.get( Fields.folder.toString() );
-    final Folder folder = manager.getFolder( folderName );
-    final String from = document.get( Fields.from.toString() );
-    final String date = document.get( Fields.date.toString() );
+    final Folder folder = getFolder( document );
+    final String fromName = document.get( StoredFields.fromName.toString() );
+    final String fromAddress =
+      document.get( StoredFields.fromAddress.toString() );
+    final long date = getTime( document );
 
     final Message message = new Message( uniqueId, folder );
     final MessageHeaders headers = new MessageHeaders();
@@ -645,12 +1170,14 @@ class MessageSearcher
     try
     {
       headers.setMessageId( messageId );
-      headers.setSender( new InternetAddress( from ) );
+      headers.setSender( new InternetAddress( fromAddress,
+            ( fromName == null || fromName.length() == 0 ) ?
+            null : fromName ) );
       headers.setSubject( document.get( Fields.subject.toString() ) );
 
-      if ( date.length() > 0 )
+      if ( date != 0 )
       {
-        headers.setReceivedDate( sdf.parse( date ) );
+        headers.setReceivedDate( new Date( date ) );
       }
     }
     catch ( Throwable t )
@@ -663,33 +1190,108 @@ class MessageSearcher
   }
   
   /**
-   * Set {@link #manager}.
+   * Create {@link MessageSummary} objects out of the specified documents.
    *
-   * @param manager The value to set.
+   * @see #createSummary
+   * @param documents The documents retrieved from the index.
+   * @return The summaries that represent the documents.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the folders of the messages.
    */
-  protected void setManager( final FolderManager manager )
+  private Collection<MessageSummary> createSummaries(
+      final Collection<Document> documents ) throws MessagingException
   {
-    this.manager = manager;
+    final Collection<MessageSummary> summaries =
+      new ArrayList<MessageSummary>( documents.size() );
+
+    for ( Document document : documents )
+    {
+      summaries.add( createSummary( document ) );
+    }
+
+    return summaries;
   }
 
   /**
-   * Close the specified searcher instance.
+   * Create a {@link MessageSummary} out of the stored fields of the
+   * specified document.  The folder is looked up using {@link
+   * #getFolder( Document )}, and no stored values are parsed other than
+   * the date in milliseconds.
    *
-   * @param searcher The searcher instance to close.
+   * @param document The document loaded using {@link #SUMMARY_FIELDS}.
+   * @return The summary that represents the indexed message.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the folder of the message.
    */
-  private void close( final Searcher searcher )
+  protected MessageSummary createSummary( final Document document )
+    throws MessagingException
   {
-    if ( searcher == null ) return;
+    return new MessageSummary( document.get( Fields.uniqueId.toString() ),
+        document.get( Fields.messageId.toString() ),
+        getFolder( document ),
+        document.get( Fields.subject.toString() ),
+        document.get( StoredFields.fromName.toString() ),
+        document.get( StoredFields.fromAddress.toString() ),
+        getTime( document ) );
+  }
 
-    try
-    {
-      searcher.close();
-    }
-    catch ( Throwable t )
-    {
-      logger.log( Level.INFO, "Error closing searcher for path: " +
-          path, t );
-    }
+  /**
+   * Return the folder of the message represented by the specified
+   * document.  The {@link FolderIds identifier} stored in the document is
+   * mapped to the current full name of the folder, which is looked up
+   * using {@link FolderManager#getCachedFolder}.
+   *
+   * @param document The document whose folder is to be returned.
+   * @return The folder of the message, or <code>null</code> if the folder
+   *   is no longer known.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the folder.
+   */
+  private Folder getFolder( final Document document )
+    throws MessagingException
+  {
+    final String name =
+      folders.getName( document.get( Fields.folder.toString() ) );
+    return ( name == null ) ? null : manager.getCachedFolder( name );
+  }
+
+  /**
+   * Return the value of the {@link StoredFields#dateMillis} field of the
+   * specified document.
+   *
+   * @param document The document whose date is to be returned.
+   * @return The date in milliseconds, or <code>0</code> if not known.
+   */
+  private long getTime( final Document document )
+  {
+    final String value = document.get( StoredFields.dateMillis.toString() );
+    return ( value == null ) ? 0 : Long.parseLong( value );
+  }
+
+  /**
+   * Return a query that exactly matches all the documents in the specified
+   * folder.
+   *
+   * @param folder The full name of the folder.
+   * @return The term query on {@link KeyFields#folderKey} for the {@link
+   *   FolderIds identifier} of the folder.  Returns an empty query that
+   *   matches no documents if the folder has not been indexed.
+   */
+  private Query getFolderQuery( final String folder )
+  {
+    final String id = folders.lookupId( folder );
+    if ( id == null ) return new BooleanQuery();
+    return new TermQuery( new Term( KeyFields.folderKey.toString(), id ) );
+  }
+
+  /**
+   * Set {@link #manager}.
+   *
+   * @param manager The value to set.
+   */
+  protected void setManager( final FolderManager manager )
+  {
+    this.manager = manager;
   }
 
   /**
@@ -729,6 +1331,29 @@ class MessageSearcher
      * use the default relevance based ordering used by search engine.
      */
     private SortFields sort;
+
+    /**
+     * The earliest (inclusive) date of the messages to return.  Leave
+     * <code>null</code> to not restrict the start of the range.
+     */
+    private Date fromDate;
+
+    /**
+     * The latest (inclusive) date of the messages to return.  Leave
+     * <code>null</code> to not restrict the end of the range.
+     */
+    private Date toDate;
+
+    /**
+     * The facets by which the matching messages are to be counted.
+     */
+    private final Set<Facets> facets = EnumSet.noneOf( Facets.class );
+
+    /**
+     * The maximum number of values to return for each facet.  Specify
+     * <code>0</code> to return all the values.
+     */
+    private int facetLimit = 10;
     
     /**
      * Returns {@link #folder}.
@@ -849,5 +1474,85 @@ class MessageSearcher
     {
       this.sort = sort;
     }
+    
+    /**
+     * Returns {@link #fromDate}.
+     *
+     * @return The value/reference of/to fromDate.
+     */
+    public Date getFromDate()
+    {
+      return fromDate;
+    }
+    
+    /**
+     * Set {@link #fromDate}.
+     *
+     * @param fromDate The value to set.
+     */
+    public void setFromDate( final Date fromDate )
+    {
+      this.fromDate = fromDate;
+    }
+    
+    /**
+     * Returns {@link #toDate}.
+     *
+     * @return The value/reference of/to toDate.
+     */
+    public Date getToDate()
+    {
+      return toDate;
+    }
+    
+    /**
+     * Set {@link #toDate}.
+     *
+     * @param toDate The value to set.
+     */
+    public void setToDate( final Date toDate )
+    {
+      this.toDate = toDate;
+    }
+    
+    /**
+     * Returns {@link #facets}.
+     *
+     * @return The value/reference of/to facets.
+     */
+    public Set<Facets> getFacets()
+    {
+      return facets;
+    }
+    
+    /**
+     * Add the specified facet to {@link #facets}.
+     *
+     * @param facet The facet by which matching messages are to be counted.
+     */
+    public void addFacet( final Facets facet )
+    {
+      facets.add( facet );
+    }
+    
+    /**
+     * Returns {@link #facetLimit}.
+     *
+     * @return The value/reference of/to facetLimit.
+     */
+    public int getFacetLimit()
+    {
+      return facetLimit;
+    }
+    
+    /**
+     * Set {@link #facetLimit}.
+     *
+     * @param facetLimit The value to set.
+     */
+    public void setFacetLimit( final int facetLimit )
+    {
+      this.facetLimit = facetLimit;
+    }
   }
 }
@@ -0,0 +1,178 @@
+package com.sptci.mail;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * A compact representation of a message used to render a row in the
+ * message list.  Summaries are built from the values stored in the search
+ * indices when the message was indexed (the sender name and address are
+ * split and the date is stored in milliseconds), so building a page of
+ * summaries does not access the store and does not parse addresses or
+ * dates.  Use {@link FolderManager#getMessage( String, Folder )} to fetch
+ * the full message.
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+public class MessageSummary implements Serializable
+{
+  /**
+   * The version of the serialised form of this class.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The <code>UID</code> of the message in the {@link #folder}.
+   */
+  private final String uid;
+
+  /**
+   * The <code>Message-Id</code> of the message.
+   */
+  private final String messageId;
+
+  /**
+   * The folder to which the message belongs.
+   */
+  private final Folder folder;
+
+  /**
+   * The subject of the message.
+   */
+  private final String subject;
+
+  /**
+   * The display name of the sender.  This may be empty.
+   */
+  private final String fromName;
+
+  /**
+   * The email address of the sender.
+   */
+  private final String fromAddress;
+
+  /**
+   * The date (in milliseconds) on which the message was received or
+   * sent.  This is <code>0</code> if the date is not known.
+   */
+  private final long date;
+
+  /**
+   * Create a new summary using the specified values.
+   *
+   * @param uid The {@link #uid} to use.
+   * @param messageId The {@link #messageId} to use.
+   * @param folder The {@link #folder} to use.
+   * @param subject The {@link #subject} to use.
+   * @param fromName The {@link #fromName} to use.
+   * @param fromAddress The {@link #fromAddress} to use.
+   * @param date The {@link #date} to use.
+   */
+  MessageSummary( final String uid, final String messageId,
+      final Folder folder, final String subject, final String fromName,
+      final String fromAddress, final long date )
+  {
+    this.uid = uid;
+    this.messageId = messageId;
+    this.folder = folder;
+    this.subject = subject;
+    this.fromName = fromName;
+    this.fromAddress = fromAddress;
+    this.date = date;
+  }
+
+  /**
+   * Returns {@link #uid}.
+   *
+   * @return The value/reference of/to uid.
+   */
+  public String getUid()
+  {
+    return uid;
+  }
+
+  /**
+   * Returns {@link #messageId}.
+   *
+   * @return The value/reference of/to messageId.
+   */
+  public String getMessageId()
+  {
+    return messageId;
+  }
+
+  /**
+   * Returns {@link #folder}.
+   *
+   * @return The value/reference of/to folder.
+   */
+  public Folder getFolder()
+  {
+    return folder;
+  }
+
+  /**
+   * Returns {@link #subject}.
+   *
+   * @return The value/reference of/to subject.
+   */
+  public String getSubject()
+  {
+    return subject;
+  }
+
+  /**
+   * Returns {@link #fromName}.
+   *
+   * @return The value/reference of/to fromName.
+   */
+  public String getFromName()
+  {
+    return fromName;
+  }
+
+  /**
+   * Returns {@link #fromAddress}.
+   *
+   * @return The value/reference of/to fromAddress.
+   */
+  public String getFromAddress()
+  {
+    return fromAddress;
+  }
+
+  /**
+   * Return the text to display for the sender.  This is the {@link
+   * #fromName} if available, and the {@link #fromAddress} otherwise.
+   *
+   * @return The display text for the sender.
+   */
+  public String getSender()
+  {
+    return ( fromName == null || fromName.length() == 0 ) ?
+      fromAddress : fromName;
+  }
+
+  /**
+   * Returns {@link #date}.
+   *
+   * @return The date in milliseconds, or <code>0</code> if not known.
+   */
+  public long getTime()
+  {
+    return date;
+  }
+
+  /**
+   * Return {@link #date} as a date object.
+   *
+   * @return The date on which the message was received or sent, or
+   *   <code>null</code> if not known.
+   */
+  public Date getDate()
+  {
+    return ( date == 0 ) ? null : new Date( date );
+  }
+}
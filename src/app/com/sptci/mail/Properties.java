@@ -104,6 +104,290 @@ public class Properties implements Serializable
    */
   public static final String SMTP_SERVER = "smtpServer";
 
+  /**
+   * The property name used to specify {@link #indexCommitSize} in the
+   * property file.
+   *
+   * {@value}
+   */
+  public static final String INDEX_COMMIT_SIZE = "indexCommitSize";
+
+  /**
+   * The default value for {@link #indexCommitSize}.
+   *
+   * {@value}
+   */
+  public static final int DEFAULT_INDEX_COMMIT_SIZE = 500;
+
+  /**
+   * The property name used to specify {@link #indexCommitInterval} in the
+   * property file.
+   *
+   * {@value}
+   */
+  public static final String INDEX_COMMIT_INTERVAL = "indexCommitInterval";
+
+  /**
+   * The default value for {@link #indexCommitInterval}.
+   *
+   * {@value}
+   */
+  public static final long DEFAULT_INDEX_COMMIT_INTERVAL = 2000;
+
+  /**
+   * The property name used to specify {@link #schedulerPoolSize} in the
+   * property file.
+   *
+   * {@value}
+   */
+  public static final String SCHEDULER_POOL_SIZE = "schedulerPoolSize";
+
+  /**
+   * The default value for {@link #schedulerPoolSize}.
+   *
+   * {@value}
+   */
+  public static final int DEFAULT_SCHEDULER_POOL_SIZE = 4;
+
+  /**
+   * The property name used to specify {@link #scanWindowSize} in the
+   * property file.
+   *
+   * {@value}
+   */
+  public static final String SCAN_WINDOW_SIZE = "scanWindowSize";
+
+  /**
+   * The default value for {@link #scanWindowSize}.
+   *
+   * {@value}
+   */
+  public static final int DEFAULT_SCAN_WINDOW_SIZE = 200;
+
+  /**
+   * The property name used to specify {@link #parsePoolSize} in the
+   * property file.
+   *
+   * {@value}
+   */
+  public static final String PARSE_POOL_SIZE = "parsePoolSize";
+
+  /**
+   * The default value for {@link #parsePoolSize}.  A value of
+   * <code>0</code> indicates that the number of available processors is
+   * to be used.
+   *
+   * {@value}
+   */
+  public static final int DEFAULT_PARSE_POOL_SIZE = 0;
+
+  /**
+   * The property name used to specify {@link #indexContentLimit} in the
+   * property file.
+   *
+   * {@value}
+   */
+  public static final String INDEX_CONTENT_LIMIT = "indexContentLimit";
+
+  /**
+   * The default value for {@link #indexContentLimit}.
+   *
+   * {@value}
+   */
+  public static final long DEFAULT_INDEX_CONTENT_LIMIT = 1048576L;
+
+  /**
+   * The property name used to specify {@link #resultCacheSize} in the
+   * property file.
+   *
+   * {@value}
+   */
+  public static final String RESULT_CACHE_SIZE = "resultCacheSize";
+
+  /**
+   * The default value for {@link #resultCacheSize}.
+   *
+   * {@value}
+   */
+  public static final int DEFAULT_RESULT_CACHE_SIZE = 128;
+
+  /**
+   * The property name used to specify {@link #resultCacheBytes} in the
+   * property file.
+   *
+   * {@value}
+   */
+  public static final String RESULT_CACHE_BYTES = "resultCacheBytes";
+
+  /**
+   * The default value for {@link #resultCacheBytes}.
+   *
+   * {@value}
+   */
+  public static final long DEFAULT_RESULT_CACHE_BYTES = 2097152L;
+
+  /**
+   * The property name used to specify {@link #warmQueries} in the
+   * property file.
+   *
+   * {@value}
+   */
+  public static final String WARM_QUERIES = "warmQueries";
+
+  /**
+   * The property name used to specify {@link #indexShards} in the
+   * property file.
+   *
+   * {@value}
+   */
+  public static final String INDEX_SHARDS = "indexShards";
+
+  /**
+   * The property name used to specify {@link #indexMaintenanceInterval}
+   * in the property file.
+   *
+   * {@value}
+   */
+  public static final String INDEX_MAINTENANCE_INTERVAL =
+    "indexMaintenanceInterval";
+
+  /**
+   * The default value for {@link #indexMaintenanceInterval}.
+   *
+   * {@value}
+   */
+  public static final long DEFAULT_INDEX_MAINTENANCE_INTERVAL = 300000;
+
+  /**
+   * The property name used to specify {@link #indexMaintenanceBudget} in
+   * the property file.
+   *
+   * {@value}
+   */
+  public static final String INDEX_MAINTENANCE_BUDGET =
+    "indexMaintenanceBudget";
+
+  /**
+   * The default value for {@link #indexMaintenanceBudget}.
+   *
+   * {@value}
+   */
+  public static final long DEFAULT_INDEX_MAINTENANCE_BUDGET = 1073741824L;
+
+  /**
+   * The property name used to specify {@link #indexDeletedRatio} in the
+   * property file.
+   *
+   * {@value}
+   */
+  public static final String INDEX_DELETED_RATIO = "indexDeletedRatio";
+
+  /**
+   * The default value for {@link #indexDeletedRatio}.
+   *
+   * {@value}
+   */
+  public static final double DEFAULT_INDEX_DELETED_RATIO = 0.1;
+
+  /**
+   * The property name used to specify {@link #writerPoolSize} in the
+   * property file.
+   *
+   * {@value}
+   */
+  public static final String WRITER_POOL_SIZE = "writerPoolSize";
+
+  /**
+   * The default value for {@link #writerPoolSize}.
+   *
+   * {@value}
+   */
+  public static final int DEFAULT_WRITER_POOL_SIZE = 256;
+
+  /**
+   * The property name used to specify {@link #writerPoolRam} in the
+   * property file.
+   *
+   * {@value}
+   */
+  public static final String WRITER_POOL_RAM = "writerPoolRam";
+
+  /**
+   * The default value for {@link #writerPoolRam}.
+   *
+   * {@value}
+   */
+  public static final long DEFAULT_WRITER_POOL_RAM = 268435456L;
+
+  /**
+   * The property name used to specify {@link #writerIdleTimeout} in the
+   * property file.
+   *
+   * {@value}
+   */
+  public static final String WRITER_IDLE_TIMEOUT = "writerIdleTimeout";
+
+  /**
+   * The default value for {@link #writerIdleTimeout}.
+   *
+   * {@value}
+   */
+  public static final long DEFAULT_WRITER_IDLE_TIMEOUT = 300000;
+
+  /**
+   * The property name used to specify {@link #indexCloneLimit} in the
+   * property file.
+   *
+   * {@value}
+   */
+  public static final String INDEX_CLONE_LIMIT = "indexCloneLimit";
+
+  /**
+   * The default value for {@link #indexCloneLimit}.
+   *
+   * {@value}
+   */
+  public static final int DEFAULT_INDEX_CLONE_LIMIT = 50000;
+
+  /**
+   * The property name used to specify {@link #indexMode} in the property
+   * file.
+   *
+   * {@value}
+   */
+  public static final String INDEX_MODE = "indexMode";
+
+  /**
+   * The {@link #indexMode} under which each user has indices of their
+   * own.
+   *
+   * {@value}
+   */
+  public static final String USER_INDEX_MODE = "user";
+
+  /**
+   * The {@link #indexMode} under which the users share the indices
+   * under the {@link #dataDirectory}.
+   *
+   * {@value}
+   */
+  public static final String SHARED_INDEX_MODE = "shared";
+
+  /**
+   * The property name used to specify {@link #sharedIndexCount} in the
+   * property file.
+   *
+   * {@value}
+   */
+  public static final String SHARED_INDEX_COUNT = "sharedIndexCount";
+
+  /**
+   * The default value for {@link #sharedIndexCount}.
+   *
+   * {@value}
+   */
+  public static final int DEFAULT_SHARED_INDEX_COUNT = 1;
+
   /**
    * The singleton instance of this class.
    */
@@ -158,6 +442,140 @@ public class Properties implements Serializable
    */
   public final String smtpServer;
 
+  /**
+   * The maximum number of index updates that are batched before they are
+   * committed and made visible to searches.
+   */
+  public final int indexCommitSize;
+
+  /**
+   * The maximum time in milliseconds for which index updates are batched
+   * before they are committed and made visible to searches.
+   */
+  public final long indexCommitInterval;
+
+  /**
+   * The number of worker threads used to execute the background tasks
+   * for all the users logged in to the application.
+   */
+  public final int schedulerPoolSize;
+
+  /**
+   * The number of messages fetched from the store in a single request
+   * while scanning folders.
+   */
+  public final int scanWindowSize;
+
+  /**
+   * The number of threads in the node wide pool used to parse messages
+   * while indexing folders.  Defaults to the number of available
+   * processors.
+   */
+  public final int parsePoolSize;
+
+  /**
+   * The maximum number of bytes of decoded text content that is indexed
+   * for a message.  Content beyond this limit is not searchable.  A value
+   * of <code>0</code> indicates no limit.
+   */
+  public final long indexContentLimit;
+
+  /**
+   * The maximum number of search results cached for each user.  A value
+   * of <code>0</code> disables the cache.
+   */
+  public final int resultCacheSize;
+
+  /**
+   * The maximum estimated size in bytes of the search results cached for
+   * each user.
+   */
+  public final long resultCacheBytes;
+
+  /**
+   * A semi-colon separated list of queries that are executed to warm a
+   * searcher before it is used.  The queries use the Lucene query syntax,
+   * with the message content as the default field.
+   */
+  public final String warmQueries;
+
+  /**
+   * A flag used to indicate that the search indices of a user are to be
+   * split into one sub-index (shard) per top-level folder.  Shards are
+   * searched in parallel, and a top-level folder is de-indexed by
+   * dropping its shard.  Defaults to <code>false</code>.
+   */
+  public final boolean indexShards;
+
+  /**
+   * The time in milliseconds between the checks made by the {@link
+   * MaintenanceScheduler} for search indices that are to be merged.
+   */
+  public final long indexMaintenanceInterval;
+
+  /**
+   * The maximum number of bytes of search indices that are rewritten by
+   * background merges per hour, across all the users.  Merges are
+   * admitted against this budget, but each merge runs unthrottled once
+   * admitted.  A value of <code>0</code> disables background merges.
+   */
+  public final long indexMaintenanceBudget;
+
+  /**
+   * The minimum ratio of deleted documents to all the documents in a
+   * search index for the index to be merged in the background.
+   */
+  public final double indexDeletedRatio;
+
+  /**
+   * The maximum number of index writers that are kept open for all the
+   * users logged in to the application.
+   */
+  public final int writerPoolSize;
+
+  /**
+   * The maximum number of bytes of buffered documents held by the open
+   * index writers of all the users.  A value of <code>0</code> indicates
+   * no limit.
+   */
+  public final long writerPoolRam;
+
+  /**
+   * The time in milliseconds after which an unused index writer is
+   * closed.  A value of <code>0</code> keeps writers open until they are
+   * evicted to make room for others.
+   */
+  public final long writerIdleTimeout;
+
+  /**
+   * The maximum number of documents in the indices of a user for which
+   * the documents of copied messages are cloned from the originals.
+   * Cloning walks all the terms and postings of the indices, hence the
+   * copies in larger indices are indexed by the next scan of the target
+   * folder instead.  A value of <code>0</code> disables cloning.
+   */
+  public final int indexCloneLimit;
+
+  /**
+   * The layout of the search indices on the node.  Either {@link
+   * #USER_INDEX_MODE} (the default), under which each user has indices of
+   * their own, or {@link #SHARED_INDEX_MODE}, under which the documents
+   * of all the users are stored in a few shared indices and are told
+   * apart by {@link KeyFields#userKey}.  The shared mode avoids the file
+   * handles and per-index overhead of very large numbers of users.
+   */
+  public final String indexMode;
+
+  /**
+   * The number of shared indices across which the users are spread when
+   * the {@link #indexMode} is {@link #SHARED_INDEX_MODE}.  Users that
+   * have been indexed keep the shared index recorded in their schema
+   * file, hence increasing the value only spreads new users across the
+   * added indices.  Decreasing it moves the users of the removed indices,
+   * whose documents are then deleted and re-created from their mail.
+   */
+  public final int sharedIndexCount;
+
   /**
    * Return the {@link #singleton} instance of this class.
    *
@@ -176,24 +594,65 @@ public class Properties implements Serializable
   }
 
   /**
-   * Create a new instance of the class with the specified values for
-   * the instance members.  Cannot be instantiated.
+   * Create a new instance of the class using the values loaded from the
+   * property file.  Cannot be instantiated.
    *
    * @see #getInstance
-   * @param domain The {@link #domain} value to use.
-   * @param protocol The {@link #protocol} value to use.
-   * @param incomingServer The {@link #incomingServer} value to use.
-   * @param smtpServer The {@link #smtpServer} value to use.
+   * @param properties The properties loaded from the property file.
    */
-  private Properties( String domain, String protocol, int port,
-      String incomingServer, String localCache, String smtpServer )
+  private Properties( final java.util.Properties properties )
   {
-    this.domain = domain;
-    this.protocol = protocol;
-    this.port = port;
-    this.incomingServer = incomingServer;
-    this.localCache = Boolean.valueOf( localCache ).booleanValue();
-    this.smtpServer = smtpServer;
+    this.domain = properties.getProperty( DOMAIN );
+    this.protocol = properties.getProperty( PROTOCOL );
+    this.port = Integer.parseInt( properties.getProperty( PORT ) );
+    this.incomingServer = properties.getProperty( INCOMING_SERVER );
+    this.localCache = Boolean.valueOf(
+        properties.getProperty( LOCAL_CACHE, "false" ) ).booleanValue();
+    this.smtpServer = properties.getProperty( SMTP_SERVER );
+    this.indexCommitSize = Integer.parseInt( properties.getProperty(
+          INDEX_COMMIT_SIZE, String.valueOf( DEFAULT_INDEX_COMMIT_SIZE ) ) );
+    this.indexCommitInterval = Long.parseLong( properties.getProperty(
+          INDEX_COMMIT_INTERVAL,
+          String.valueOf( DEFAULT_INDEX_COMMIT_INTERVAL ) ) );
+    this.schedulerPoolSize = Integer.parseInt( properties.getProperty(
+          SCHEDULER_POOL_SIZE,
+          String.valueOf( DEFAULT_SCHEDULER_POOL_SIZE ) ) );
+    this.scanWindowSize = Integer.parseInt( properties.getProperty(
+          SCAN_WINDOW_SIZE, String.valueOf( DEFAULT_SCAN_WINDOW_SIZE ) ) );
+    this.parsePoolSize = Integer.parseInt( properties.getProperty(
+          PARSE_POOL_SIZE, String.valueOf( DEFAULT_PARSE_POOL_SIZE ) ) );
+    this.indexContentLimit = Long.parseLong( properties.getProperty(
+          INDEX_CONTENT_LIMIT,
+          String.valueOf( DEFAULT_INDEX_CONTENT_LIMIT ) ) );
+    this.resultCacheSize = Integer.parseInt( properties.getProperty(
+          RESULT_CACHE_SIZE, String.valueOf( DEFAULT_RESULT_CACHE_SIZE ) ) );
+    this.resultCacheBytes = Long.parseLong( properties.getProperty(
+          RESULT_CACHE_BYTES,
+          String.valueOf( DEFAULT_RESULT_CACHE_BYTES ) ) );
+    this.warmQueries = properties.getProperty( WARM_QUERIES, "" );
+    this.indexShards = Boolean.valueOf(
+        properties.getProperty( INDEX_SHARDS, "false" ) ).booleanValue();
+    this.indexMaintenanceInterval = Long.parseLong( properties.getProperty(
+          INDEX_MAINTENANCE_INTERVAL,
+          String.valueOf( DEFAULT_INDEX_MAINTENANCE_INTERVAL ) ) );
+    this.indexMaintenanceBudget = Long.parseLong( properties.getProperty(
+          INDEX_MAINTENANCE_BUDGET,
+          String.valueOf( DEFAULT_INDEX_MAINTENANCE_BUDGET ) ) );
+    this.indexDeletedRatio = Double.parseDouble( properties.getProperty(
+          INDEX_DELETED_RATIO,
+          String.valueOf( DEFAULT_INDEX_DELETED_RATIO ) ) );
+    this.writerPoolSize = Integer.parseInt( properties.getProperty(
+          WRITER_POOL_SIZE, String.valueOf( DEFAULT_WRITER_POOL_SIZE ) ) );
+    this.writerPoolRam = Long.parseLong( properties.getProperty(
+          WRITER_POOL_RAM, String.valueOf( DEFAULT_WRITER_POOL_RAM ) ) );
+    this.writerIdleTimeout = Long.parseLong( properties.getProperty(
+          WRITER_IDLE_TIMEOUT,
+          String.valueOf( DEFAULT_WRITER_IDLE_TIMEOUT ) ) );
+    this.indexCloneLimit = Integer.parseInt( properties.getProperty(
+          INDEX_CLONE_LIMIT, String.valueOf( DEFAULT_INDEX_CLONE_LIMIT ) ) );
+    this.indexMode = properties.getProperty( INDEX_MODE, USER_INDEX_MODE );
+    this.sharedIndexCount = Integer.parseInt( properties.getProperty(
+          SHARED_INDEX_COUNT, String.valueOf( DEFAULT_SHARED_INDEX_COUNT ) ) );
   }
 
   /**
@@ -209,13 +668,7 @@ public class Properties implements Serializable
       FileInputStream fis = new FileInputStream( file );
       properties.loadFromXML( fis );
 
-      singleton = new Properties( 
-          properties.getProperty( DOMAIN ),
-          properties.getProperty( PROTOCOL ),
-          Integer.parseInt( properties.getProperty( PORT ) ),
-          properties.getProperty( INCOMING_SERVER ),
-          properties.getProperty( LOCAL_CACHE, "false" ),
-          properties.getProperty( SMTP_SERVER ) );
+      singleton = new Properties( properties );
     }
     catch ( Throwable t )
     {
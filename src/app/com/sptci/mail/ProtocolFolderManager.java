@@ -265,6 +265,36 @@ abstract class ProtocolFolderManager implements Serializable
     return newFolder;
   }
 
+  /**
+   * Copy the messages identified by their <code>UID</code>s from the
+   * source folder to the target folder, and optionally expunge them from
+   * the source folder.  The default implementation does not support
+   * copying messages, since stores without <code>UID</code>s only expose
+   * the <code>INBOX</code>.
+   *
+   * @see UIDFolderManager#copyMessages
+   * @param uids The <code>UID</code>s of the messages to copy.
+   * @param source The full name of the folder that contains the messages.
+   * @param target The full name of the folder to copy the messages to.
+   * @param move Specify <code>true</code> to remove the messages from the
+   *   source folder after they have been copied.
+   * @param copies The array in which the <code>UID</code>s assigned to the
+   *   copies in the target folder are stored, in the order of the
+   *   specified <code>UID</code>s.  Entries are left <code>null</code>
+   *   for copies whose <code>UID</code> is not known.
+   * @return The <code>UIDNEXT</code> of the target folder before the
+   *   messages were copied, or <code>-1</code> if it is not known.
+   * @throws MessagingException If errors are encountered while copying
+   *   the messages.
+   */
+  protected long copyMessages( final String[] uids, final String source,
+      final String target, final boolean move, final String[] copies )
+    throws MessagingException
+  {
+    throw new MessagingException(
+        "Copying messages is not supported by the store" );
+  }
+
   /**
    * Perform any clean up action required to cleanly disconnect from the
    * mail store.
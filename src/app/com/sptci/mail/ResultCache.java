@@ -0,0 +1,200 @@
+package com.sptci.mail;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Fieldable;
+
+/**
+ * A least recently used cache of search results used by {@link
+ * MessageSearcher}.  Each entry records the searcher generation (see
+ * {@link SearcherManager#getGeneration}) at which it was computed, and is
+ * discarded when it is looked up at a later generation.  Hence results
+ * are never served from indices that have since been committed to.
+ *
+ * <p>The cache is bounded both by the number of entries and by the
+ * estimated size of the cached results.  The least recently used entries
+ * are evicted once either bound is exceeded.</p>
+ *
+ * <p><b>Note:</b> The bounds are configured using {@link
+ * Properties#resultCacheSize} and {@link Properties#resultCacheBytes}.</p>
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+class ResultCache
+{
+  /**
+   * The estimated overhead in bytes of an entry and of each stored field.
+   *
+   * {@value}
+   */
+  private static final int OVERHEAD = 64;
+
+  /**
+   * The maximum number of entries in the cache.
+   */
+  private final int maxEntries;
+
+  /**
+   * The maximum estimated size in bytes of the cached results.
+   */
+  private final long maxBytes;
+
+  /**
+   * The entries in access order.
+   */
+  private final LinkedHashMap<List<?>,Entry> entries =
+    new LinkedHashMap<List<?>,Entry>( 16, 0.75f, true );
+
+  /**
+   * The estimated size in bytes of the cached results.
+   */
+  private long bytes;
+
+  /**
+   * Create a new cache with the specified bounds.  Specify <code>0</code>
+   * for either bound to disable caching.
+   *
+   * @param maxEntries The {@link #maxEntries} to use.
+   * @param maxBytes The {@link #maxBytes} to use.
+   */
+  ResultCache( final int maxEntries, final long maxBytes )
+  {
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Return the cached value for the specified key.
+   *
+   * @param key The key that identifies the search.
+   * @param generation The current searcher generation.
+   * @return The cached value, or <code>null</code> if there is no value
+   *   cached for the key at the specified generation.
+   */
+  synchronized Object get( final List<?> key, final long generation )
+  {
+    final Entry entry = entries.get( key );
+    if ( entry == null ) return null;
+
+    if ( entry.generation != generation )
+    {
+      remove( key );
+      return null;
+    }
+
+    return entry.value;
+  }
+
+  /**
+   * Cache the specified value.  Values larger than the byte bound are not
+   * cached.
+   *
+   * @param key The key that identifies the search.
+   * @param generation The searcher generation at which the value was
+   *   computed.
+   * @param value The value to cache.
+   * @param size The estimated size of the value in bytes.
+   */
+  synchronized void put( final List<?> key, final long generation,
+      final Object value, final long size )
+  {
+    if ( maxEntries <= 0 || size + OVERHEAD > maxBytes ) return;
+
+    remove( key );
+    entries.put( key, new Entry( generation, value, size + OVERHEAD ) );
+    bytes += size + OVERHEAD;
+
+    final Iterator<Entry> iterator = entries.values().iterator();
+    while ( ( entries.size() > maxEntries || bytes > maxBytes ) &&
+        iterator.hasNext() )
+    {
+      bytes -= iterator.next().size;
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Remove all the entries from the cache.
+   */
+  synchronized void clear()
+  {
+    entries.clear();
+    bytes = 0;
+  }
+
+  /**
+   * Remove the entry for the specified key.
+   *
+   * @param key The key of the entry to remove.
+   */
+  private void remove( final List<?> key )
+  {
+    final Entry entry = entries.remove( key );
+    if ( entry != null ) bytes -= entry.size;
+  }
+
+  /**
+   * Estimate the memory used by the specified documents based on the
+   * lengths of their stored values.
+   *
+   * @param documents The documents whose size is to be estimated.
+   * @return The estimated size in bytes.
+   */
+  static long estimate( final Collection<Document> documents )
+  {
+    long size = 0;
+    for ( Document document : documents )
+    {
+      size += OVERHEAD;
+      for ( Object field : document.getFields() )
+      {
+        final String value = ( (Fieldable) field ).stringValue();
+        size += OVERHEAD + ( ( value == null ) ? 0 : 2 * value.length() );
+      }
+    }
+
+    return size;
+  }
+
+  /**
+   * An entry in the cache.
+   */
+  private static class Entry
+  {
+    /**
+     * The searcher generation at which the value was computed.
+     */
+    private final long generation;
+
+    /**
+     * The cached value.
+     */
+    private final Object value;
+
+    /**
+     * The estimated size of the entry in bytes.
+     */
+    private final long size;
+
+    /**
+     * Create a new entry using the specified values.
+     *
+     * @param generation The {@link #generation} to use.
+     * @param value The {@link #value} to use.
+     * @param size The {@link #size} to use.
+     */
+    private Entry( final long generation, final Object value,
+        final long size )
+    {
+      this.generation = generation;
+      this.value = value;
+      this.size = size;
+    }
+  }
+}
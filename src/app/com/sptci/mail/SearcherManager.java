@@ -0,0 +1,664 @@
+package com.sptci.mail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ParallelMultiSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Searchable;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.Weight;
+
+/**
+ * A manager that maintains a single long-lived {@link
+ * org.apache.lucene.search.IndexSearcher} over the search indices for a
+ * path.  The searcher is re-opened only after the {@link Indexer} has
+ * flushed changes to the indices.  Searchers are reference counted, so
+ * that a superseded searcher is closed only after all in-flight searches
+ * against it have released it.
+ *
+ * <p>Searchers are re-opened eagerly on the {@link TaskScheduler} as soon
+ * as the indices change.  A new searcher is warmed before it replaces the
+ * current searcher: the sort caches for all the {@link SortFields} are
+ * loaded, and the queries configured using {@link Properties#warmQueries}
+ * are executed.  Searches continue to use the current searcher while the
+ * new one is being warmed, so that no user search pays the cost of
+ * loading the sort caches.</p>
+ *
+ * <p>If the indices are sharded (see {@link Indexer#SHARD_DIRECTORY}),
+ * the searcher reads all the shards through a single
+ * <code>MultiReader</code>, so that document numbers, stored fields and
+ * hit collectors work as for a single index.  Searches for the top
+ * documents are however fanned out to the shards concurrently using a
+ * <code>ParallelMultiSearcher</code>, and the results merged by score or
+ * sort.</p>
+ *
+ * <p>Managers are shared by all the {@link MessageSearcher}s for the same
+ * path, hence the users of a shared index (see {@link
+ * Properties#indexMode}) share a single searcher, and the manager is
+ * closed once the last of them has been destroyed.</p>
+ *
+ * <p>Typical usage is as follows:</p>
+ * <pre>
+ *   IndexSearcher searcher = manager.acquire();
+ *   try
+ *   {
+ *     // search using searcher
+ *   }
+ *   finally
+ *   {
+ *     manager.release( searcher );
+ *   }
+ * </pre>
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+class SearcherManager
+{
+  /**
+   * The logger to use to log errors and messages.
+   */
+  private static final Logger logger = MailSession.logger;
+
+  /**
+   * The number of results collected by each warm query.
+   *
+   * {@value}
+   */
+  private static final int WARM_RESULTS = 10;
+
+  /**
+   * The managers that are open, keyed by their path.
+   */
+  private static final Map<String,SearcherManager> managers =
+    new HashMap<String,SearcherManager>();
+
+  /**
+   * The path at which the search indices are stored.
+   */
+  private final String path;
+
+  /**
+   * The current searcher that is handed out to clients.  This is
+   * <code>null</code> until the first search is executed.
+   */
+  private ManagedSearcher current;
+
+  /**
+   * The generation of the indices.  Incremented each time the indices are
+   * changed.
+   */
+  private final AtomicLong generation = new AtomicLong();
+
+  /**
+   * The key of the {@link TaskScheduler} lane used to re-open searchers.
+   */
+  private final String lane;
+
+  /**
+   * A flag used to indicate that this manager has been closed.
+   */
+  private boolean closed;
+
+  /**
+   * The number of clients that have obtained this manager through {@link
+   * #getInstance} and have not closed it yet.  Guarded by {@link
+   * #managers}.
+   */
+  private int clients;
+
+  /**
+   * Create a new instance of the manager for the specified path.
+   *
+   * @param path The {@link #path} to use.
+   */
+  private SearcherManager( final String path )
+  {
+    this.path = path;
+    this.lane = "searcher:" + path;
+  }
+
+  /**
+   * Return the manager for the specified path, creating it if it is not
+   * open.  Each client must {@link #close} the manager once it is done
+   * with it.
+   *
+   * @param path The path at which the search indices are stored.
+   * @return The manager for the path.
+   */
+  static SearcherManager getInstance( final String path )
+  {
+    synchronized ( managers )
+    {
+      SearcherManager manager = managers.get( path );
+      if ( manager == null )
+      {
+        manager = new SearcherManager( path );
+        managers.put( path, manager );
+      }
+
+      ++manager.clients;
+      return manager;
+    }
+  }
+
+  /**
+   * Return the current searcher, re-opening it if the indices have changed
+   * since it was opened.  The searcher returned must be handed back to
+   * {@link #release} once the search is complete.
+   *
+   * @return The searcher to use to search the indices.
+   * @throws IOException If errors are encountered while opening the
+   *   indices.
+   */
+  synchronized IndexSearcher acquire() throws IOException
+  {
+    if ( closed )
+    {
+      throw new IOException( "Searcher manager closed for path: " + path );
+    }
+
+    if ( current == null )
+    {
+      current = open( generation.get() );
+    }
+
+    current.references++;
+    return current;
+  }
+
+  /**
+   * Return a searcher that reflects all the changes flushed to the indices
+   * before this method was invoked.  Unlike {@link #acquire}, a searcher
+   * that is out of date is re-opened (and swapped in) in the calling
+   * thread rather than in the background.  Used by the indexing tasks that
+   * read the indices after committing their own updates.
+   *
+   * @return The up to date searcher.  Must be handed back to {@link
+   *   #release} once the search is complete.
+   * @throws IOException If errors are encountered while opening the
+   *   indices.
+   */
+  IndexSearcher acquireCurrent() throws IOException
+  {
+    final long target = generation.get();
+    synchronized ( this )
+    {
+      if ( closed )
+      {
+        throw new IOException( "Searcher manager closed for path: " + path );
+      }
+
+      if ( current != null && current.generation >= target )
+      {
+        current.references++;
+        return current;
+      }
+    }
+
+    final ManagedSearcher searcher = open( target );
+    synchronized ( this )
+    {
+      if ( closed )
+      {
+        decrement( searcher );
+        throw new IOException( "Searcher manager closed for path: " + path );
+      }
+
+      swap( searcher );
+      current.references++;
+      return current;
+    }
+  }
+
+  /**
+   * Release the specified searcher that was obtained through {@link
+   * #acquire}.  Closes the searcher if it has been superseded and no other
+   * clients are using it.
+   *
+   * @param searcher The searcher to release.  May be <code>null</code>.
+   */
+  synchronized void release( final IndexSearcher searcher )
+  {
+    if ( searcher == null ) return;
+    decrement( (ManagedSearcher) searcher );
+  }
+
+  /**
+   * Mark the current searcher as being out of date with respect to the
+   * indices, and queue a task to open and warm a new searcher.  Invoked
+   * by the {@link Indexer} after flushing changes to the indices.
+   */
+  void invalidate()
+  {
+    generation.incrementAndGet();
+    warm();
+  }
+
+  /**
+   * Invalidate the manager for the specified path if it is open.  Invoked
+   * by the {@link WriterPool} when it closes a writer, which writes its
+   * buffered updates to the index.  The manager is shared by all the users
+   * of a shared index, hence all their cached results are invalidated.
+   *
+   * @param path The path at which the search indices are stored.
+   */
+  static void invalidate( final String path )
+  {
+    final SearcherManager manager;
+    synchronized ( managers )
+    {
+      manager = managers.get( path );
+    }
+
+    if ( manager != null ) manager.invalidate();
+  }
+
+  /**
+   * Queue a task to open and warm a searcher if the current searcher is
+   * out of date or has not been opened yet.  Invoked at login so that the
+   * first search finds a warm searcher.
+   */
+  void warm()
+  {
+    TaskScheduler.getInstance().submit( lane, "reopen",
+        TaskScheduler.Priority.INTERACTIVE, new Reopener() );
+  }
+
+  /**
+   * Return the generation of the current searcher.  Results computed by a
+   * search that read the generation before acquiring the searcher are
+   * valid for that generation.
+   *
+   * @return The generation of the current searcher.
+   */
+  synchronized long getGeneration()
+  {
+    return ( current == null ) ? generation.get() : current.generation;
+  }
+
+  /**
+   * Close this manager for a client.  Once all the clients have closed
+   * it, the current searcher is closed as soon as all the searches using
+   * it have released it.
+   */
+  void close()
+  {
+    synchronized ( managers )
+    {
+      if ( --clients > 0 ) return;
+      managers.remove( path );
+    }
+
+    closeSearcher();
+  }
+
+  /**
+   * Mark this manager as closed and release the current searcher.
+   */
+  private synchronized void closeSearcher()
+  {
+    closed = true;
+    TaskScheduler.getInstance().cancel( lane );
+    if ( current != null )
+    {
+      decrement( current );
+      current = null;
+    }
+  }
+
+  /**
+   * Open and warm a searcher over the indices.
+   *
+   * @param target The generation of the indices being opened.
+   * @return The new searcher.
+   * @throws IOException If errors are encountered while opening the
+   *   indices.
+   */
+  private ManagedSearcher open( final long target ) throws IOException
+  {
+    final long start = System.currentTimeMillis();
+    final ManagedSearcher searcher =
+      new ManagedSearcher( openReaders(), target );
+    warm( searcher );
+    logger.fine( "Opened searcher for path: " + path + " in " +
+        ( System.currentTimeMillis() - start ) + " milliseconds" );
+    return searcher;
+  }
+
+  /**
+   * Open the readers for the indices.  If the indices are sharded, a
+   * reader is opened for each shard.  Shards that cannot be opened (for
+   * instance, a shard that is being dropped) are logged and skipped.
+   *
+   * @return The readers for the indices.
+   * @throws IOException If errors are encountered while opening the
+   *   indices.
+   */
+  private IndexReader[] openReaders() throws IOException
+  {
+    final File root = new File( path, Indexer.SHARD_DIRECTORY );
+    if ( ! root.isDirectory() )
+    {
+      return new IndexReader[] { IndexReader.open( path ) };
+    }
+
+    final List<IndexReader> readers = new ArrayList<IndexReader>();
+    final File[] directories = root.listFiles();
+    for ( File directory : ( directories == null ) ? new File[0] : directories )
+    {
+      try
+      {
+        if ( IndexReader.indexExists( directory ) )
+        {
+          readers.add( IndexReader.open( directory ) );
+        }
+      }
+      catch ( Throwable t )
+      {
+        logger.log( Level.WARNING, "Error opening shard: " + directory, t );
+      }
+    }
+
+    return readers.toArray( new IndexReader[readers.size()] );
+  }
+
+  /**
+   * Warm the specified searcher.  Loads the field caches used to sort
+   * results (for each shard, since sorted searches are executed against
+   * the shards), and executes the configured warm queries.  Errors are
+   * logged and ignored, since warming is only an optimisation.
+   *
+   * @param searcher The searcher to warm.
+   */
+  private void warm( final ManagedSearcher searcher )
+  {
+    for ( IndexReader reader : searcher.readers )
+    {
+      warm( reader );
+    }
+
+    for ( String text : getWarmQueries() )
+    {
+      try
+      {
+        final Query query = new QueryParser( Fields.content.toString(),
+            new StandardAnalyzer() ).parse( text );
+        searcher.search( query, null, WARM_RESULTS,
+            new Sort( SortFields.dateSort.toString() ) );
+      }
+      catch ( Throwable t )
+      {
+        logger.log( Level.FINE, "Error executing warm query: " + text, t );
+      }
+    }
+  }
+
+  /**
+   * Load the field caches used to sort results for the specified reader.
+   *
+   * @param reader The reader whose caches are to be loaded.
+   */
+  private void warm( final IndexReader reader )
+  {
+    for ( SortFields field : SortFields.values() )
+    {
+      try
+      {
+        FieldCache.DEFAULT.getAuto( reader, field.toString() );
+      }
+      catch ( Throwable t )
+      {
+        logger.log( Level.FINE, "Error warming sort field: " + field, t );
+      }
+    }
+
+    // Fields sorted as strings by keyset pagination
+    for ( String field : new String[] { SortFields.dateSort.toString(),
+        KeyFields.uniqueIdKey.toString() } )
+    {
+      try
+      {
+        FieldCache.DEFAULT.getStringIndex( reader, field );
+      }
+      catch ( Throwable t )
+      {
+        logger.log( Level.FINE, "Error warming sort field: " + field, t );
+      }
+    }
+  }
+
+  /**
+   * Replace {@link #current} with the specified searcher, unless the
+   * current searcher is at least as recent.  Must be invoked while holding
+   * the lock on this instance.
+   *
+   * @param searcher The newly opened searcher.
+   * @return Returns <code>true</code> if the searcher was swapped in.  The
+   *   searcher is closed otherwise.
+   */
+  private boolean swap( final ManagedSearcher searcher )
+  {
+    if ( current != null && current.generation >= searcher.generation )
+    {
+      decrement( searcher );
+      return false;
+    }
+
+    if ( current != null ) decrement( current );
+    current = searcher;
+    return true;
+  }
+
+  /**
+   * Return the configured warm queries.
+   *
+   * @return The warm queries.  Returns an empty array if none are
+   *   configured.
+   */
+  private static String[] getWarmQueries()
+  {
+    String value = "";
+    try
+    {
+      value = Properties.getInstance().warmQueries;
+    }
+    catch ( Throwable t )
+    {
+      logger.log( Level.WARNING, "Error reading warm queries", t );
+    }
+
+    return ( value.trim().length() == 0 ) ?
+      new String[0] : value.trim().split( "\\s*;\\s*" );
+  }
+
+  /**
+   * Decrement the reference count for the specified searcher and close it
+   * if it is no longer in use.
+   *
+   * @param searcher The searcher whose reference count is to be
+   *   decremented.
+   */
+  private void decrement( final ManagedSearcher searcher )
+  {
+    if ( --searcher.references > 0 ) return;
+
+    try
+    {
+      searcher.close();
+      searcher.getIndexReader().close();
+      logger.fine( "Closed searcher for path: " + path );
+    }
+    catch ( Throwable t )
+    {
+      logger.log( Level.INFO, "Error closing searcher for path: " +
+          path, t );
+    }
+  }
+
+  /**
+   * An index searcher that tracks the number of clients that are using it.
+   * The reference held by {@link SearcherManager#current} is also counted.
+   * Searches for the top documents are delegated to the {@link #parallel}
+   * searcher if the indices are sharded.
+   */
+  private static class ManagedSearcher extends IndexSearcher
+  {
+    /**
+     * The number of references to this searcher.
+     */
+    private int references = 1;
+
+    /**
+     * The generation of the indices when the searcher was opened.
+     */
+    private final long generation;
+
+    /**
+     * The readers for the shards, or the single reader for the indices.
+     */
+    private final IndexReader[] readers;
+
+    /**
+     * The searcher used to search the shards concurrently.  This is
+     * <code>null</code> if the indices are not sharded.  The shards are
+     * in the same order as in the reader, hence document numbers are the
+     * same for both searchers.
+     */
+    private final ParallelMultiSearcher parallel;
+
+    /**
+     * Create a new searcher over the specified readers.
+     *
+     * @param readers The {@link #readers} to search.
+     * @param generation The {@link #generation} to use.
+     * @throws IOException If errors are encountered while opening the
+     *   readers.
+     */
+    private ManagedSearcher( final IndexReader[] readers,
+        final long generation ) throws IOException
+    {
+      super( ( readers.length == 1 ) ? readers[0] : new MultiReader( readers ) );
+      this.readers = readers;
+      this.generation = generation;
+
+      if ( readers.length > 1 )
+      {
+        final Searchable[] searchables = new Searchable[readers.length];
+        for ( int i = 0; i < readers.length; ++i )
+        {
+          searchables[i] = new IndexSearcher( readers[i] );
+        }
+        parallel = new ParallelMultiSearcher( searchables );
+      }
+      else
+      {
+        parallel = null;
+      }
+    }
+
+    /**
+     * Return the top documents for the specified weight, searching the
+     * shards concurrently if the indices are sharded.
+     *
+     * @param weight The weight of the query.
+     * @param filter The filter to apply.  May be <code>null</code>.
+     * @param count The number of documents to return.
+     * @return The top documents.
+     * @throws IOException If errors are encountered while searching.
+     */
+    @Override
+    public TopDocs search( final Weight weight, final Filter filter,
+        final int count ) throws IOException
+    {
+      return ( parallel == null ) ?
+        super.search( weight, filter, count ) :
+        parallel.search( weight, filter, count );
+    }
+
+    /**
+     * Return the top documents for the specified weight in the specified
+     * sort order, searching the shards concurrently if the indices are
+     * sharded.
+     *
+     * @param weight The weight of the query.
+     * @param filter The filter to apply.  May be <code>null</code>.
+     * @param count The number of documents to return.
+     * @param sort The sort order of the documents.
+     * @return The top documents.
+     * @throws IOException If errors are encountered while searching.
+     */
+    @Override
+    public TopFieldDocs search( final Weight weight, final Filter filter,
+        final int count, final Sort sort ) throws IOException
+    {
+      return ( parallel == null ) ?
+        super.search( weight, filter, count, sort ) :
+        parallel.search( weight, filter, count, sort );
+    }
+  }
+
+  /**
+   * The task used to open and warm a new searcher in the background, and
+   * to swap it in as {@link SearcherManager#current} once it is warm.
+   */
+  private class Reopener implements Callable<Boolean>
+  {
+    /**
+     * Open, warm and swap in a new searcher if the current searcher is out
+     * of date.  Errors are logged, and the current searcher is left in
+     * place, so that searches continue against it.
+     *
+     * @return Returns <code>true</code> if a new searcher was swapped in.
+     */
+    public Boolean call()
+    {
+      final long target = generation.get();
+      try
+      {
+        synchronized ( SearcherManager.this )
+        {
+          if ( closed ||
+              ( current != null && current.generation >= target ) ) return false;
+        }
+
+        final ManagedSearcher searcher = open( target );
+        synchronized ( SearcherManager.this )
+        {
+          if ( closed )
+          {
+            decrement( searcher );
+            return false;
+          }
+
+          return swap( searcher );
+        }
+      }
+      catch ( Throwable t )
+      {
+        logger.log( Level.WARNING, "Error re-opening searcher for path: " +
+            path, t );
+        return false;
+      }
+    }
+  }
+}
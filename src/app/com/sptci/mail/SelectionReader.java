@@ -0,0 +1,225 @@
+package com.sptci.mail;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.index.FilterIndexReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.index.TermPositions;
+
+/**
+ * A reader that exposes only the selected documents of the underlying
+ * reader, without the {@link #excluded} fields.  The other documents
+ * appear to be deleted, and are skipped by the term enumerators, hence
+ * merging the reader writes only the selected documents.  Closing the
+ * reader does not close the underlying (shared) reader.  Used to clone
+ * documents ({@link MessageCopier}) and to export the documents of a user
+ * ({@link IndexExporter}).
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+class SelectionReader extends FilterIndexReader
+{
+  /** The numbers of the selected documents. */
+  private final BitSet selected;
+
+  /** The names of the fields that are hidden. */
+  private final Set<String> excluded;
+
+  /**
+   * Create a new reader over the specified reader.
+   *
+   * @param reader The underlying reader.
+   * @param selected The {@link #selected} to use.
+   * @param excluded The {@link #excluded} to use.
+   */
+  SelectionReader( final IndexReader reader, final BitSet selected,
+      final Set<String> excluded )
+  {
+    super( reader );
+    this.selected = selected;
+    this.excluded = excluded;
+  }
+
+  /**
+   * Return the number of selected documents.
+   *
+   * @return The number of documents exposed by the reader.
+   */
+  @Override
+  public int numDocs()
+  {
+    return selected.cardinality();
+  }
+
+  /**
+   * Return <code>true</code>, since the documents that are not selected
+   * appear to be deleted.
+   *
+   * @return Returns <code>true</code>.
+   */
+  @Override
+  public boolean hasDeletions()
+  {
+    return true;
+  }
+
+  /**
+   * Check to see if the specified document is hidden.
+   *
+   * @param n The number of the document.
+   * @return Returns <code>true</code> if the document is not selected.
+   */
+  @Override
+  public boolean isDeleted( final int n )
+  {
+    return ! selected.get( n );
+  }
+
+  /**
+   * Return the stored fields of the specified document, without the
+   * {@link #excluded} fields.
+   *
+   * @param n The number of the document.
+   * @param selector The selector for the fields to load.
+   * @return The document.
+   * @throws IOException If errors are encountered while reading the
+   *   document.
+   */
+  @Override
+  public Document document( final int n, final FieldSelector selector )
+    throws IOException
+  {
+    final Document document = in.document( n, selector );
+    for ( String name : excluded )
+    {
+      document.removeFields( name );
+    }
+
+    return document;
+  }
+
+  /**
+   * Return the names of the fields with the specified option, without
+   * the {@link #excluded} fields.
+   *
+   * @param option The option of the fields to return.
+   * @return The names of the fields.
+   */
+  @Override
+  public Collection<String> getFieldNames( final FieldOption option )
+  {
+    final Collection<String> names = new HashSet<String>();
+    for ( Object name : in.getFieldNames( option ) )
+    {
+      names.add( (String) name );
+    }
+
+    names.removeAll( excluded );
+    return names;
+  }
+
+  /**
+   * Return the terms of the underlying reader, without the terms of the
+   * {@link #excluded} fields.  Terms that do not occur in the selected
+   * documents are not written when the reader is merged.
+   *
+   * @return The term enumerator.
+   * @throws IOException If errors are encountered while reading the
+   *   terms.
+   */
+  @Override
+  public TermEnum terms() throws IOException
+  {
+    return new FilterTermEnum( in.terms() )
+    {
+      @Override
+      public boolean next() throws IOException
+      {
+        while ( in.next() )
+        {
+          if ( ! excluded.contains( in.term().field() ) ) return true;
+        }
+
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Return an enumerator over the selected documents of a term.
+   *
+   * @see #termPositions
+   * @return The enumerator.
+   * @throws IOException If errors are encountered while reading the
+   *   postings.
+   */
+  @Override
+  public TermDocs termDocs() throws IOException
+  {
+    return termPositions();
+  }
+
+  /**
+   * Return an enumerator over the positions of a term in the selected
+   * documents.
+   *
+   * @return The enumerator.
+   * @throws IOException If errors are encountered while reading the
+   *   postings.
+   */
+  @Override
+  public TermPositions termPositions() throws IOException
+  {
+    return new FilterTermPositions( in.termPositions() )
+    {
+      @Override
+      public boolean next() throws IOException
+      {
+        while ( in.next() )
+        {
+          if ( selected.get( in.doc() ) ) return true;
+        }
+
+        return false;
+      }
+
+      @Override
+      public int read( final int[] docs, final int[] freqs )
+        throws IOException
+      {
+        int count = 0;
+        while ( count < docs.length && next() )
+        {
+          docs[count] = doc();
+          freqs[count] = freq();
+          ++count;
+        }
+
+        return count;
+      }
+
+      @Override
+      public boolean skipTo( final int target ) throws IOException
+      {
+        if ( ! in.skipTo( target ) ) return false;
+        return selected.get( in.doc() ) || next();
+      }
+    };
+  }
+
+  /**
+   * Does nothing, since the underlying reader is shared.
+   */
+  @Override
+  protected void doClose() {}
+}
@@ -0,0 +1,13 @@
+package com.sptci.mail;
+
+/**
+ * The enumeration of keys used to store pre-computed values that are
+ * displayed in the message list.  These fields are stored but not
+ * indexed, so that a {@link MessageSummary} may be built from the
+ * stored values without any parsing.
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+public enum StoredFields { fromName, fromAddress, dateMillis }
@@ -0,0 +1,516 @@
+package com.sptci.mail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A node wide scheduler used to execute the background tasks (indexing,
+ * local cache synchronisation etc.) for all the users logged in to the
+ * application.  Tasks are executed by a bounded pool of worker threads.
+ *
+ * <p>Tasks are queued in <i>lanes</i> identified by a key (for eg. the
+ * search index path for a user).  Tasks within a lane are executed one at
+ * a time, hence a lane never has more than one writer active.  Lanes with queued tasks are serviced
+ * in round-robin order, one task per turn, so that a user with a large
+ * backlog does not starve other users.</p>
+ *
+ * <p>Within a lane, tasks are executed in {@link Priority} order, and in
+ * submission order for tasks with the same priority.  Tasks may be
+ * submitted with a key that identifies the work they perform (for eg.
+ * the folder being scanned).  Submitting a task whose key matches a task
+ * that is still waiting in the lane returns the future of the waiting
+ * task instead of queueing duplicate work.  Tasks are forgotten as soon
+ * as they start executing.</p>
+ *
+ * <p><b>Note:</b> The size of the worker pool is configured using {@link
+ * Properties#schedulerPoolSize}.</p>
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+class TaskScheduler
+{
+  /**
+   * The logger to use to log errors and messages.
+   */
+  private static final Logger logger = MailSession.logger;
+
+  /**
+   * The singleton instance of this class.
+   */
+  private static TaskScheduler singleton;
+
+  /**
+   * The maximum number of tasks that are executed concurrently.
+   */
+  private final int poolSize;
+
+  /**
+   * The worker threads used to execute the tasks.
+   */
+  private final ExecutorService executor;
+
+  /**
+   * The lanes that have tasks queued or running, keyed by lane key.
+   */
+  private final Map<String,Lane> lanes = new HashMap<String,Lane>();
+
+  /**
+   * The lanes that have tasks queued and are waiting for a worker, in
+   * round-robin order.
+   */
+  private final LinkedList<Lane> ready = new LinkedList<Lane>();
+
+  /**
+   * The number of tasks currently being executed.
+   */
+  private int running;
+
+  /**
+   * The sequence number assigned to the next task submitted.  Used to
+   * preserve submission order for tasks with the same priority.
+   */
+  private long sequence;
+
+  /**
+   * Return the {@link #singleton} instance of this class.  The instance is
+   * created the first time it is requested.
+   *
+   * @return The singleton instance.
+   */
+  static synchronized TaskScheduler getInstance()
+  {
+    if ( singleton == null )
+    {
+      int size = Properties.DEFAULT_SCHEDULER_POOL_SIZE;
+      try
+      {
+        size = Properties.getInstance().schedulerPoolSize;
+      }
+      catch ( Throwable t )
+      {
+        logger.log( Level.WARNING, "Error reading scheduler pool size", t );
+      }
+
+      singleton = new TaskScheduler( size );
+    }
+
+    return singleton;
+  }
+
+  /**
+   * Create a new scheduler with the specified number of worker threads.
+   *
+   * @param poolSize The {@link #poolSize} to use.
+   */
+  private TaskScheduler( final int poolSize )
+  {
+    this.poolSize = Math.max( 1, poolSize );
+    this.executor = Executors.newFixedThreadPool(
+        this.poolSize, new WorkerFactory( "sptmail-scheduler-" ) );
+    logger.info( "Created task scheduler with pool size: " + this.poolSize );
+  }
+
+  /**
+   * Queue the specified task in the lane identified by the key.  The task
+   * is queued with {@link Priority#BACKGROUND} priority and is never
+   * coalesced.
+   *
+   * @see #submit( String, String, Priority, Callable )
+   * @param key The key that identifies the lane.
+   * @param task The task to execute.
+   * @return The future that represents the pending result of the task.
+   */
+  <T> Future<T> submit( final String key, final Callable<T> task )
+  {
+    return submit( key, null, Priority.BACKGROUND, task );
+  }
+
+  /**
+   * Queue the specified task in the lane identified by the key.  If a task
+   * with the same task key is still waiting in the lane, the task is not
+   * queued, and the future of the waiting task is returned instead.  The
+   * waiting task is moved up to the specified priority if it is higher.
+   *
+   * @param key The key that identifies the lane.
+   * @param taskKey The key that identifies the work performed by the
+   *   task.  Specify <code>null</code> if the task is never to be
+   *   coalesced.
+   * @param priority The priority with which the task is to be executed.
+   * @param task The task to execute.
+   * @return The future that represents the pending result of the task.
+   */
+  @SuppressWarnings( "unchecked" )
+  synchronized <T> Future<T> submit( final String key, final String taskKey,
+      final Priority priority, final Callable<T> task )
+  {
+    Lane lane = lanes.get( key );
+    if ( lane == null )
+    {
+      lane = new Lane( key );
+      lanes.put( key, lane );
+    }
+
+    if ( taskKey != null )
+    {
+      final Task<?> pending = lane.pending.get( taskKey );
+      if ( pending != null )
+      {
+        if ( priority.compareTo( pending.priority ) < 0 )
+        {
+          lane.queue.remove( pending );
+          pending.priority = priority;
+          lane.queue.add( pending );
+        }
+
+        logger.fine( "Coalesced task: " + taskKey + " for lane: " + key );
+        return (Future<T>) pending;
+      }
+    }
+
+    final Task<T> future = new Task<T>( task, taskKey, priority, sequence++ );
+    lane.queue.add( future );
+    if ( taskKey != null ) lane.pending.put( taskKey, future );
+
+    if ( lane.current == null && ! lane.waiting )
+    {
+      lane.waiting = true;
+      ready.add( lane );
+    }
+
+    dispatch();
+    return future;
+  }
+
+  /**
+   * Return the number of tasks queued in the lane identified by the key.
+   * The task currently being executed is not included.
+   *
+   * @param key The key that identifies the lane.
+   * @return The number of tasks waiting to be executed.
+   */
+  synchronized int getQueueSize( final String key )
+  {
+    final Lane lane = lanes.get( key );
+    return ( lane == null ) ? 0 : lane.queue.size();
+  }
+
+  /**
+   * Return the total number of tasks queued in all the lanes.  Tasks that
+   * are currently being executed are not included.
+   *
+   * @return The number of tasks waiting to be executed.
+   */
+  synchronized int getQueueSize()
+  {
+    int size = 0;
+    for ( Lane lane : lanes.values() )
+    {
+      size += lane.queue.size();
+    }
+
+    return size;
+  }
+
+  /**
+   * Cancel all the tasks queued in the lane identified by the key.  The
+   * task currently being executed in the lane (if any) is interrupted.
+   * Tasks in other lanes are not affected.
+   *
+   * <p>Interrupting a task does not stop it unless it is waiting on I/O,
+   * hence a lane whose task is still being executed is left in {@link
+   * #lanes} until the task completes.  Tasks submitted for the same key
+   * in the meantime (for eg. by a new session of the same user) are queued
+   * in the lane behind it, rather than being executed alongside it.</p>
+   *
+   * @param key The key that identifies the lane.
+   */
+  void cancel( final String key )
+  {
+    final Lane lane;
+    final Task<?> current;
+    final List<Task<?>> cancelled;
+    synchronized ( this )
+    {
+      lane = lanes.get( key );
+      if ( lane == null ) return;
+      ready.remove( lane );
+      lane.waiting = false;
+
+      current = lane.current;
+      if ( current == null ) lanes.remove( key );
+
+      cancelled = new ArrayList<Task<?>>( lane.queue );
+      lane.queue.clear();
+      lane.pending.clear();
+    }
+
+    for ( Task<?> future : cancelled )
+    {
+      future.cancel( false );
+    }
+
+    if ( current != null ) current.cancel( true );
+    logger.fine( "Cancelled tasks for lane: " + key );
+  }
+
+  /**
+   * Hand the lanes at the head of {@link #ready} to the worker threads
+   * while there are idle workers.  Must be invoked while holding the
+   * lock on this instance.
+   */
+  private void dispatch()
+  {
+    while ( running < poolSize && ! ready.isEmpty() )
+    {
+      final Lane lane = ready.removeFirst();
+      lane.waiting = false;
+      lane.current = lane.queue.poll();
+      if ( lane.current.key != null ) lane.pending.remove( lane.current.key );
+      ++running;
+      executor.execute( new Worker( lane ) );
+    }
+  }
+
+  /**
+   * Mark the task that was being executed in the specified lane as
+   * complete, and re-queue the lane at the tail of {@link #ready} if it
+   * has more tasks.
+   *
+   * @param lane The lane whose task has completed.
+   */
+  private synchronized void complete( final Lane lane )
+  {
+    --running;
+    lane.current = null;
+
+    if ( lanes.get( lane.key ) == lane )
+    {
+      if ( lane.queue.isEmpty() )
+      {
+        lanes.remove( lane.key );
+      }
+      else
+      {
+        lane.waiting = true;
+        ready.add( lane );
+      }
+    }
+
+    dispatch();
+  }
+
+  /**
+   * A queue of tasks that are executed one at a time.
+   */
+  private static class Lane
+  {
+    /**
+     * The key that identifies the lane.
+     */
+    private final String key;
+
+    /**
+     * The tasks waiting to be executed in priority order.
+     */
+    private final PriorityQueue<Task<?>> queue = new PriorityQueue<Task<?>>();
+
+    /**
+     * The tasks waiting to be executed that may be coalesced, keyed by
+     * their task keys.
+     */
+    private final Map<String,Task<?>> pending = new HashMap<String,Task<?>>();
+
+    /**
+     * The task currently being executed.  <code>null</code> if the lane
+     * is not active.
+     */
+    private volatile Task<?> current;
+
+    /**
+     * Flag used to indicate that the lane is in {@link
+     * TaskScheduler#ready}.
+     */
+    private boolean waiting;
+
+    /**
+     * Create a new lane with the specified key.
+     *
+     * @param key The {@link #key} to use.
+     */
+    private Lane( final String key )
+    {
+      this.key = key;
+    }
+  }
+
+  /**
+   * The priorities with which tasks may be executed, in descending order of
+   * priority.
+   */
+  enum Priority
+  {
+    /** Tasks initiated by the user that are to be completed right away. */
+    INTERACTIVE,
+    /** Background tasks for the <code>INBOX</code> folder. */
+    INBOX,
+    /** Background tasks such as scanning folders. */
+    BACKGROUND,
+    /** Indexing of older messages once all folders have been scanned. */
+    BACKFILL,
+    /** Merging of search indices once all other work is done. */
+    MAINTENANCE
+  }
+
+  /**
+   * A task queued in a lane.  Tasks are ordered by {@link #priority} and
+   * then by {@link #sequence}.
+   */
+  private static class Task<T> extends FutureTask<T>
+    implements Comparable<Task<?>>
+  {
+    /**
+     * The key that identifies the work performed by the task.  May be
+     * <code>null</code>.
+     */
+    private final String key;
+
+    /**
+     * The priority with which the task is to be executed.
+     */
+    private Priority priority;
+
+    /**
+     * The sequence number of the task in the order of submission.
+     */
+    private final long sequence;
+
+    /**
+     * Create a new task using the specified values.
+     *
+     * @param callable The callable to execute.
+     * @param key The {@link #key} to use.
+     * @param priority The {@link #priority} to use.
+     * @param sequence The {@link #sequence} to use.
+     */
+    private Task( final Callable<T> callable, final String key,
+        final Priority priority, final long sequence )
+    {
+      super( callable );
+      this.key = key;
+      this.priority = priority;
+      this.sequence = sequence;
+    }
+
+    /**
+     * Compare tasks by {@link #priority} and {@link #sequence}.
+     *
+     * @param other The task to compare with.
+     * @return The result of the comparison.
+     */
+    public int compareTo( final Task<?> other )
+    {
+      final int result = priority.compareTo( other.priority );
+      if ( result != 0 ) return result;
+      return ( sequence < other.sequence ) ? -1 :
+        ( ( sequence == other.sequence ) ? 0 : 1 );
+    }
+  }
+
+  /**
+   * The runnable used to execute the current task of a lane in a worker
+   * thread.
+   */
+  private class Worker implements Runnable
+  {
+    /**
+     * The lane whose current task is to be executed.
+     */
+    private final Lane lane;
+
+    /**
+     * Create a new worker for the specified lane.
+     *
+     * @param lane The {@link #lane} to use.
+     */
+    private Worker( final Lane lane )
+    {
+      this.lane = lane;
+    }
+
+    /**
+     * Execute the current task of the {@link #lane}.
+     */
+    public void run()
+    {
+      try
+      {
+        lane.current.run();
+      }
+      catch ( Throwable t )
+      {
+        logger.log( Level.WARNING, "Error executing task for lane: " +
+            lane.key, t );
+      }
+      finally
+      {
+        Thread.interrupted();
+        complete( lane );
+      }
+    }
+  }
+
+  /**
+   * The thread factory used to create daemon worker threads.
+   */
+  static class WorkerFactory implements ThreadFactory
+  {
+    /**
+     * The prefix for the names of the threads created.
+     */
+    private final String prefix;
+
+    /**
+     * The number of threads created so far.
+     */
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * Create a new factory that names threads using the specified prefix.
+     *
+     * @param prefix The {@link #prefix} to use.
+     */
+    WorkerFactory( final String prefix )
+    {
+      this.prefix = prefix;
+    }
+
+    /**
+     * Create a new daemon thread for the specified runnable.
+     *
+     * @param runnable The runnable to execute.
+     * @return The new thread.
+     */
+    public Thread newThread( final Runnable runnable )
+    {
+      final Thread thread = new Thread( runnable,
+          prefix + count.incrementAndGet() );
+      thread.setDaemon( true );
+      return thread;
+    }
+  }
+}
@@ -4,9 +4,13 @@ import java.io.Serializable;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.TreeMap;
 
+import javax.mail.FetchProfile;
+import javax.mail.Flags;
 import javax.mail.Folder;
 import javax.mail.Message;
 import javax.mail.MessagingException;
@@ -160,7 +164,197 @@ abstract class UIDFolderManager extends ProtocolFolderManager
   }
 
   /**
-   * Add the specified folder and any child folders associated with it 
+   * Copy the messages identified by their <code>UID</code>s from the
+   * source folder to the target folder, and optionally remove them from
+   * the source folder.  The source folder is re-opened in read-write mode
+   * for the duration of the operation, and is closed without expunging
+   * the other messages flagged as deleted in it.
+   *
+   * <p>The store does not report the <code>UID</code>s assigned to the
+   * copies (there is no <code>COPYUID</code> support in the JavaMail
+   * API), hence the <code>UIDNEXT</code> of the target folder is read
+   * before copying, and the copies are matched by their
+   * <code>Message-ID</code> amongst the messages at or above it.</p>
+   *
+   * @see #getUIDNext
+   * @param uids The <code>UID</code>s of the messages to copy.
+   * @param source The full name of the folder that contains the messages.
+   * @param target The full name of the folder to copy the messages to.
+   * @param move Specify <code>true</code> to flag the messages as deleted
+   *   in the source folder after they have been copied, and expunge them
+   *   if the store supports it.  Other messages in the source folder that
+   *   are flagged as deleted are not expunged.
+   * @param copies The array in which the <code>UID</code>s assigned to the
+   *   copies in the target folder are stored, in the order of the
+   *   specified <code>UID</code>s.  Entries are left <code>null</code>
+   *   for messages that do not exist, and for copies whose
+   *   <code>UID</code> could not be determined.
+   * @return The <code>UIDNEXT</code> of the target folder before the
+   *   messages were copied, or <code>-1</code> if it is not known.
+   * @throws MessagingException If errors are encountered while copying
+   *   the messages.
+   */
+  @Override
+  protected long copyMessages( final String[] uids, final String source,
+      final String target, final boolean move, final String[] copies )
+    throws MessagingException
+  {
+    long next = -1;
+    final Folder from = getFolder( source );
+    final Folder to = getFolder( target );
+
+    final long[] ids = new long[uids.length];
+    for ( int i = 0; i < uids.length; ++i )
+    {
+      ids[i] = Long.parseLong( uids[i] );
+    }
+
+    boolean open = false;
+    if ( from.isOpen() )
+    {
+      from.close( false );
+      open = true;
+    }
+
+    from.open( Folder.READ_WRITE );
+    try
+    {
+      final Message[] messages = ( (UIDFolder) from ).getMessagesByUID( ids );
+      final ArrayList<Message> found = new ArrayList<Message>( ids.length );
+      final String[] messageIds = new String[ids.length];
+      for ( int i = 0; i < messages.length; ++i )
+      {
+        if ( messages[i] == null ) continue;
+        found.add( messages[i] );
+        messageIds[i] = MessageHandler.getMessageId( messages[i] );
+      }
+
+      if ( found.isEmpty() ) return next;
+
+      final Message[] list = found.toArray( new Message[found.size()] );
+      next = getUIDNext( to );
+      from.copyMessages( list, to );
+      if ( move )
+      {
+        from.setFlags( list, new Flags( Flags.Flag.DELETED ), true );
+        expunge( from, list );
+      }
+      if ( next > 0 ) findCopies( to, next, messageIds, copies );
+    }
+    finally
+    {
+      from.close( false );
+      if ( open ) from.open( Folder.READ_ONLY );
+    }
+
+    return next;
+  }
+
+  /**
+   * Find the <code>UID</code>s of the copies of messages in the specified
+   * folder.  Copies are matched by <code>Message-ID</code> amongst the
+   * messages with a <code>UID</code> at or above the specified value.
+   * Copies of messages with the same <code>Message-ID</code> are matched
+   * in the order in which they were copied.
+   *
+   * @param folder The folder to which the messages were copied.
+   * @param next The <code>UIDNEXT</code> of the folder before the
+   *   messages were copied.
+   * @param messageIds The <code>Message-ID</code>s of the messages that
+   *   were copied.  Entries may be <code>null</code>.
+   * @param copies The array in which the <code>UID</code>s of the copies
+   *   are stored, at the same positions as their message ids.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the messages in the folder.
+   */
+  private void findCopies( final Folder folder, final long next,
+      final String[] messageIds, final String[] copies )
+    throws MessagingException
+  {
+    boolean open = folder.isOpen();
+    if ( ! open ) folder.open( Folder.READ_ONLY );
+
+    try
+    {
+      final UIDFolder uidFolder = (UIDFolder) folder;
+      final Message[] messages =
+        uidFolder.getMessagesByUID( next, UIDFolder.LASTUID );
+      final FetchProfile profile = new FetchProfile();
+      profile.add( FetchProfile.Item.ENVELOPE );
+      profile.add( UIDFolder.FetchProfileItem.UID );
+      folder.fetch( messages, profile );
+
+      final Map<String,LinkedList<Long>> map =
+        new HashMap<String,LinkedList<Long>>();
+      for ( Message message : messages )
+      {
+        // A UID range ending in * always includes the last message
+        final long uid = uidFolder.getUID( message );
+        final String messageId = MessageHandler.getMessageId( message );
+        if ( uid < next || messageId == null ) continue;
+
+        LinkedList<Long> list = map.get( messageId );
+        if ( list == null )
+        {
+          list = new LinkedList<Long>();
+          map.put( messageId, list );
+        }
+        list.add( uid );
+      }
+
+      for ( int i = 0; i < messageIds.length; ++i )
+      {
+        if ( messageIds[i] == null ) continue;
+        final LinkedList<Long> list = map.get( messageIds[i] );
+        if ( list != null && ! list.isEmpty() )
+        {
+          copies[i] = String.valueOf( list.removeFirst() );
+        }
+      }
+    }
+    finally
+    {
+      if ( ! open ) folder.close( false );
+    }
+  }
+
+  /**
+   * Expunge the specified messages from the specified folder.  The
+   * messages have already been flagged as deleted.  Unlike closing the
+   * folder with <code>expunge</code> set, other messages that the user
+   * flagged as deleted must not be expunged.  The default implementation
+   * does nothing, which leaves the messages flagged as deleted until the
+   * user expunges the folder.
+   *
+   * @param folder The open folder that contains the messages.
+   * @param messages The messages that are to be expunged.
+   * @throws MessagingException If errors are encountered while expunging
+   *   the messages.
+   */
+  protected void expunge( final Folder folder, final Message[] messages )
+    throws MessagingException
+  {
+  }
+
+  /**
+   * Return the <code>UIDNEXT</code> value of the specified folder.  The
+   * default implementation returns <code>-1</code>, which indicates that
+   * the value is not available.
+   *
+   * @param folder The folder whose next <code>UID</code> is to be
+   *   returned.
+   * @return The <code>UID</code> that will be assigned to the next
+   *   message added to the folder, or <code>-1</code>.
+   * @throws MessagingException If errors are encountered while fetching
+   *   the value from the store.
+   */
+  protected long getUIDNext( final Folder folder ) throws MessagingException
+  {
+    return -1;
+  }
+
+  /**
+   * Add the specified folder and any child folders associated with it
    * to {@link #folders}.
    *
    * @param folder The parent folder that is to be added.
@@ -0,0 +1,115 @@
+package com.sptci.mail;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.Filter;
+
+/**
+ * A filter that restricts search results to the messages of a user, by
+ * their {@link KeyFields#userKey}.  Used when the indices are shared by
+ * several users (see {@link Properties#indexMode}).  The filter may be
+ * combined with another filter, in which case only the documents that
+ * are accepted by both are returned.
+ *
+ * <p>Wrap instances in a <code>CachingWrapperFilter</code> to re-use the
+ * bit set across searches on the same reader.</p>
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+class UserFilter extends Filter
+{
+  /**
+   * The version of the serialised form of this class.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The name of the user whose messages are returned.
+   */
+  private final String user;
+
+  /**
+   * The filter with which this filter is combined.  <code>null</code> if
+   * only the user is filtered on.
+   */
+  private final Filter filter;
+
+  /**
+   * Create a new filter for the specified user.
+   *
+   * @param user The {@link #user} to use.
+   * @param filter The {@link #filter} to use.  May be <code>null</code>.
+   */
+  UserFilter( final String user, final Filter filter )
+  {
+    this.user = user;
+    this.filter = filter;
+  }
+
+  /**
+   * Return the bits for the documents of the user that are accepted by
+   * the {@link #filter}.
+   *
+   * @param reader The reader for the indices.
+   * @return The bits for the matching documents.
+   * @throws IOException If errors are encountered while reading the
+   *   indices.
+   */
+  @Override
+  public BitSet bits( final IndexReader reader ) throws IOException
+  {
+    final BitSet bits = new BitSet( reader.maxDoc() );
+    final TermDocs termDocs =
+      reader.termDocs( new Term( KeyFields.userKey.toString(), user ) );
+    try
+    {
+      while ( termDocs.next() )
+      {
+        bits.set( termDocs.doc() );
+      }
+    }
+    finally
+    {
+      termDocs.close();
+    }
+
+    if ( filter != null ) bits.and( filter.bits( reader ) );
+    return bits;
+  }
+
+  /**
+   * Compare the specified object with this filter for equality.
+   *
+   * @param object The object to compare with.
+   * @return Returns <code>true</code> if the object is a filter for the
+   *   same user and combined filter.
+   */
+  @Override
+  public boolean equals( final Object object )
+  {
+    if ( this == object ) return true;
+    if ( ! ( object instanceof UserFilter ) ) return false;
+
+    final UserFilter other = (UserFilter) object;
+    return user.equals( other.user ) && ( ( filter == null ) ?
+        other.filter == null : filter.equals( other.filter ) );
+  }
+
+  /**
+   * Return the hash code for this filter.
+   *
+   * @return The hash code computed from the user and combined filter.
+   */
+  @Override
+  public int hashCode()
+  {
+    return 31 * user.hashCode() +
+      ( ( filter == null ) ? 0 : filter.hashCode() );
+  }
+}
@@ -0,0 +1,516 @@
+package com.sptci.mail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.lucene.index.IndexWriter;
+
+/**
+ * A node wide pool of the index writers used by the {@link Indexer}s of
+ * the users logged in to the application and by the {@link
+ * MaintenanceScheduler}.  Writers are opened the first time an index is
+ * written to, and are closed (which flushes their buffered updates) once
+ * they have been idle for a while, so that idle sessions do not hold file
+ * handles and memory.  A closed writer is opened again the next time it
+ * is requested.
+ *
+ * <p>A writer is <i>leased</i> by the component that requests it, and is
+ * not closed while it is leased.  Writers are opened and closed without
+ * holding the lock on the pool, since closing a writer flushes its
+ * buffered documents and may merge segments.  Indexers release their
+ * leases once the task that requested the writers has finished.  Unleased
+ * writers are closed in least recently used order when the number of
+ * open writers or the memory used by their buffered documents exceeds
+ * the limits of the pool.</p>
+ *
+ * <p><b>Note:</b> The pool is configured using {@link
+ * Properties#writerPoolSize}, {@link Properties#writerPoolRam} and {@link
+ * Properties#writerIdleTimeout}.</p>
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+class WriterPool
+{
+  /**
+   * The logger to use to log errors and messages.
+   */
+  private static final Logger logger = MailSession.logger;
+
+  /**
+   * The singleton instance of this class.
+   */
+  private static WriterPool singleton;
+
+  /**
+   * The maximum number of writers that are kept open.
+   */
+  private final int size;
+
+  /**
+   * The maximum number of bytes of buffered documents held by the open
+   * writers.
+   */
+  private final long ram;
+
+  /**
+   * The time in milliseconds after which an unleased writer is closed.
+   */
+  private final long timeout;
+
+  /**
+   * The open writers keyed by the path of their index directory, in
+   * least recently used order.
+   */
+  private final Map<String,Entry> entries =
+    new LinkedHashMap<String,Entry>( 16, 0.75f, true );
+
+  /**
+   * The thread used to close idle writers.
+   */
+  private final ScheduledExecutorService timer;
+
+  /**
+   * Return the {@link #singleton} instance of this class.  The instance is
+   * created the first time it is requested.
+   *
+   * @return The singleton instance.
+   */
+  static synchronized WriterPool getInstance()
+  {
+    if ( singleton == null )
+    {
+      int size = Properties.DEFAULT_WRITER_POOL_SIZE;
+      long ram = Properties.DEFAULT_WRITER_POOL_RAM;
+      long timeout = Properties.DEFAULT_WRITER_IDLE_TIMEOUT;
+      try
+      {
+        final Properties properties = Properties.getInstance();
+        size = properties.writerPoolSize;
+        ram = properties.writerPoolRam;
+        timeout = properties.writerIdleTimeout;
+      }
+      catch ( Throwable t )
+      {
+        logger.log( Level.WARNING, "Error reading writer pool properties", t );
+      }
+
+      singleton = new WriterPool( size, ram, timeout );
+    }
+
+    return singleton;
+  }
+
+  /**
+   * Create a new pool using the specified limits.  Package visible for
+   * the unit tests, the application uses the {@link #getInstance
+   * singleton}.
+   *
+   * @param size The {@link #size} to use.
+   * @param ram The {@link #ram} to use.
+   * @param timeout The {@link #timeout} to use.
+   */
+  WriterPool( final int size, final long ram, final long timeout )
+  {
+    this.size = Math.max( 1, size );
+    this.ram = ram;
+    this.timeout = timeout;
+    this.timer = Executors.newSingleThreadScheduledExecutor(
+        new TaskScheduler.WorkerFactory( "sptmail-writer-pool-" ) );
+
+    if ( timeout > 0 )
+    {
+      final long period = Math.max( 1000, timeout / 2 );
+      timer.scheduleWithFixedDelay( new Runnable()
+          {
+            public void run()
+            {
+              evictIdle();
+            }
+          }, period, period, TimeUnit.MILLISECONDS );
+    }
+
+    logger.info( "Created writer pool with size: " + this.size +
+        ", ram: " + ram + " and idle timeout: " + timeout );
+  }
+
+  /**
+   * Lease the writer for the index in the specified directory.  The
+   * writer is opened if it is not open.  Writers in excess
+   * of the limits of the pool are closed first.  The writer is opened and
+   * the evicted writers closed without holding the lock on the pool, so
+   * that a slow open or close does not hold up other users.  Requests for
+   * a writer that is being opened or closed wait for it.
+   *
+   * @see Indexer#openWriter
+   * @param directory The directory in which the index is stored.
+   * @param searcherPath The path of the indices searched by the {@link
+   *   SearcherManager} that is to be invalidated when the writer is
+   *   closed.
+   * @return The leased writer.
+   * @throws IOException If errors are encountered while opening the
+   *   writer.
+   */
+  IndexWriter acquire( final File directory, final String searcherPath )
+    throws IOException
+  {
+    final String key = directory.getPath();
+    final Entry entry;
+    final List<Entry> evicted;
+
+    synchronized ( this )
+    {
+      while ( true )
+      {
+        final Entry existing = entries.get( key );
+        if ( existing == null ) break;
+
+        if ( existing.writer != null && ! existing.closing )
+        {
+          existing.retired = false;
+          ++existing.leases;
+          return existing.writer;
+        }
+
+        await();
+      }
+
+      evicted = select( size - 1, ram );
+      entry = new Entry( key, searcherPath );
+      entry.leases = 1;
+      entries.put( key, entry );
+    }
+
+    close( evicted );
+
+    IndexWriter writer = null;
+    try
+    {
+      writer = Indexer.openWriter( directory );
+      logger.fine( "Opened writer for: " + directory );
+      return writer;
+    }
+    finally
+    {
+      synchronized ( this )
+      {
+        if ( writer == null )
+        {
+          entries.remove( key );
+        }
+        else
+        {
+          entry.writer = writer;
+        }
+
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Lease the writer for the index in the specified directory only if it
+   * is open.
+   *
+   * @param directory The directory in which the index is stored.
+   * @return The leased writer, or <code>null</code> if it is not open (or
+   *   is being opened or closed).
+   */
+  synchronized IndexWriter acquireIfOpen( final File directory )
+  {
+    final Entry entry = entries.get( directory.getPath() );
+    if ( entry == null || entry.writer == null || entry.closing ) return null;
+
+    ++entry.leases;
+    return entry.writer;
+  }
+
+  /**
+   * Check to see if the writer for the index in the specified directory
+   * is leased (or is being opened for a lease).
+   *
+   * @param directory The directory in which the index is stored.
+   * @return Returns <code>true</code> if the writer is leased.
+   */
+  synchronized boolean isLeased( final File directory )
+  {
+    final Entry entry = entries.get( directory.getPath() );
+    return ( entry != null && entry.leases > 0 );
+  }
+
+  /**
+   * Release a lease on the writer for the index in the specified
+   * directory.  Writers that exceed the limits of the pool, or that were
+   * {@link #close closed} while leased, are closed once they are no
+   * longer leased.
+   *
+   * @param directory The directory in which the index is stored.
+   */
+  void release( final File directory )
+  {
+    final List<Entry> closing;
+    synchronized ( this )
+    {
+      final Entry entry = entries.get( directory.getPath() );
+      if ( entry == null || entry.leases == 0 ) return;
+
+      --entry.leases;
+      entry.lastUsed = System.currentTimeMillis();
+      if ( entry.retired && entry.leases == 0 )
+      {
+        entry.closing = true;
+        closing = new ArrayList<Entry>( select( size, ram ) );
+        closing.add( entry );
+      }
+      else
+      {
+        closing = select( size, ram );
+      }
+    }
+
+    close( closing );
+  }
+
+  /**
+   * Close the writer for the index in the specified directory.  Used when
+   * the index is dropped or the indexer is destroyed.  A writer that is
+   * leased is marked as retired, and is closed by the last {@link
+   * #release}, so that a task that is still writing to it does not fail.
+   *
+   * @param directory The directory in which the index is stored.
+   * @return Returns <code>true</code> if the writer is no longer open,
+   *   <code>false</code> if it will be closed once it is released.
+   * @throws IOException If interrupted while waiting for the writer to
+   *   be opened.
+   */
+  boolean close( final File directory ) throws IOException
+  {
+    final Entry entry;
+    synchronized ( this )
+    {
+      Entry existing = entries.get( directory.getPath() );
+      while ( existing != null && existing.writer == null )
+      {
+        await();
+        existing = entries.get( directory.getPath() );
+      }
+
+      if ( existing == null ) return true;
+      if ( existing.closing ) return false;
+      if ( existing.leases > 0 )
+      {
+        existing.retired = true;
+        return false;
+      }
+
+      existing.closing = true;
+      entry = existing;
+    }
+
+    close( Collections.singletonList( entry ) );
+    return true;
+  }
+
+  /**
+   * Select the unleased writers that are to be closed, in least recently
+   * used order, until at most the specified number of writers are open
+   * and their buffered documents use at most the specified number of
+   * bytes.  The selected entries are marked as closing, and must be
+   * closed using {@link #close( List )} once the lock on the pool has
+   * been released.  Must be invoked while holding the lock on the pool.
+   *
+   * @param count The maximum number of open writers.
+   * @param bytes The maximum number of bytes of buffered documents.
+   * @return The entries that are to be closed.
+   */
+  private List<Entry> select( final int count, final long bytes )
+  {
+    int open = 0;
+    long used = 0;
+    for ( Entry entry : entries.values() )
+    {
+      if ( entry.closing ) continue;
+      ++open;
+      if ( bytes > 0 && entry.writer != null )
+      {
+        used += entry.writer.ramSizeInBytes();
+      }
+    }
+
+    if ( open <= count && ( bytes <= 0 || used <= bytes ) )
+    {
+      return Collections.emptyList();
+    }
+
+    final List<Entry> selected = new ArrayList<Entry>();
+    final Iterator<Entry> iterator = entries.values().iterator();
+    while ( iterator.hasNext() &&
+        ( open > count || ( bytes > 0 && used > bytes ) ) )
+    {
+      final Entry entry = iterator.next();
+      if ( entry.leases > 0 || entry.writer == null || entry.closing ) continue;
+
+      used -= entry.writer.ramSizeInBytes();
+      --open;
+      entry.closing = true;
+      selected.add( entry );
+    }
+
+    return selected;
+  }
+
+  /**
+   * Close the unleased writers that have not been used for {@link
+   * #timeout} milliseconds.
+   */
+  private void evictIdle()
+  {
+    try
+    {
+      final List<Entry> idle = new ArrayList<Entry>();
+      synchronized ( this )
+      {
+        final long cutoff = System.currentTimeMillis() - timeout;
+        for ( Entry entry : entries.values() )
+        {
+          if ( entry.leases > 0 || entry.writer == null || entry.closing ||
+              entry.lastUsed > cutoff ) continue;
+
+          entry.closing = true;
+          idle.add( entry );
+        }
+      }
+
+      close( idle );
+      if ( ! idle.isEmpty() )
+      {
+        logger.fine( "Closed " + idle.size() + " idle writers" );
+      }
+    }
+    catch ( Throwable t )
+    {
+      logger.log( Level.WARNING, "Error closing idle writers", t );
+    }
+  }
+
+  /**
+   * Close the writers for the specified entries, which have been marked
+   * as closing, and invalidate the searchers for their indices, since the
+   * buffered updates have been written to the indices.  The searcher is
+   * shared by all the users of the index, which need not include the
+   * user whose indexer opened the writer.  Must be invoked without holding the
+   * lock on the pool.  The entries are removed from the pool once their
+   * writers have been closed.
+   *
+   * @param closing The entries whose writers are to be closed.
+   */
+  private void close( final List<Entry> closing )
+  {
+    for ( Entry entry : closing )
+    {
+      try
+      {
+        entry.writer.close();
+        SearcherManager.invalidate( entry.searcherPath );
+      }
+      catch ( Throwable t )
+      {
+        logger.log( Level.SEVERE, "Error closing writer for: " +
+            entry.key, t );
+      }
+      finally
+      {
+        synchronized ( this )
+        {
+          entries.remove( entry.key );
+          notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Wait until an entry that is being opened or closed has been updated.
+   * Must be invoked while holding the lock on the pool.
+   *
+   * @throws IOException If the thread is interrupted while waiting.
+   */
+  private void await() throws IOException
+  {
+    try
+    {
+      wait();
+    }
+    catch ( InterruptedException iex )
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(
+          "Interrupted while waiting for index writer" );
+    }
+  }
+
+  /**
+   * A writer in the pool.  The {@link #writer} is <code>null</code> while
+   * it is being opened.
+   */
+  private static class Entry
+  {
+    /** The path of the index directory, which is the key of the entry. */
+    private final String key;
+
+    /**
+     * The path of the indices that are searched by the {@link
+     * SearcherManager} for the index.  The indexer that opened the writer
+     * is not retained, since other users may write to a shared index
+     * after it has been destroyed.
+     */
+    private final String searcherPath;
+
+    /** The writer for the index. */
+    private IndexWriter writer;
+
+    /** The number of leases held on the writer. */
+    private int leases;
+
+    /** The time at which the last lease was released. */
+    private long lastUsed = System.currentTimeMillis();
+
+    /**
+     * Flag indicating that the writer has been selected to be closed.
+     * The entry is not leased again, and is removed once the writer has
+     * been closed.
+     */
+    private boolean closing;
+
+    /**
+     * Flag indicating that the writer is to be closed once it is no
+     * longer leased.
+     */
+    private boolean retired;
+
+    /**
+     * Create a new entry for a writer that is being opened.
+     *
+     * @param key The {@link #key} to use.
+     * @param searcherPath The {@link #searcherPath} to use.
+     */
+    private Entry( final String key, final String searcherPath )
+    {
+      this.key = key;
+      this.searcherPath = searcherPath;
+    }
+  }
+}
@@ -25,6 +25,10 @@ public class AllTests
     suite.addTest( FolderManagerTest.suite() );
 
     suite.addTest( MessageSearcherTest.suite() );
+    suite.addTest( FolderRenameTest.suite() );
+    suite.addTest( IndexJournalTest.suite() );
+    suite.addTest( WriterPoolTest.suite() );
+    suite.addTest( SharedIndexTest.suite() );
 
     suite.addTest( ActionTest.suite() );
     suite.addTest( ClauseTest.suite() );
@@ -0,0 +1,57 @@
+package com.sptci.mail;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+/**
+ * Base class for the unit tests that work with files in a temporary
+ * directory.  A new directory is created for each test, and is deleted
+ * along with its contents once the test has been run.
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+public abstract class DirectoryTestCase extends TestCase
+{
+  /**
+   * The temporary directory for the test.
+   */
+  protected File directory;
+
+  /**
+   * Create the {@link #directory} for the test.  The name of the directory
+   * includes the name of the test class.
+   */
+  protected void setUp() throws Exception
+  {
+    directory = new File( System.getProperty( "java.io.tmpdir" ),
+        "sptmail-" + getClass().getSimpleName() + "-" + System.nanoTime() );
+    directory.mkdirs();
+  }
+
+  /**
+   * Delete the {@link #directory} and its contents.
+   */
+  protected void tearDown() throws Exception
+  {
+    delete( directory );
+  }
+
+  /**
+   * Delete the specified file, or directory along with its contents.
+   *
+   * @param file The file or directory to delete.
+   */
+  protected static void delete( final File file )
+  {
+    final File[] files = file.listFiles();
+    if ( files != null )
+    {
+      for ( File child : files ) delete( child );
+    }
+
+    file.delete();
+  }
+}
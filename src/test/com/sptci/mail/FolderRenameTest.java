@@ -0,0 +1,85 @@
+package com.sptci.mail;
+
+import static junit.framework.Assert.*;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for renaming folders in the folder identifiers and the
+ * indexing checkpoints, which must not touch the indexed documents.
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+public class FolderRenameTest extends DirectoryTestCase
+{
+  private static final char SEPARATOR = '/';
+
+  public static Test suite()
+  {
+    return new TestSuite( FolderRenameTest.class );
+  }
+
+  /**
+   * Test that renaming a folder keeps the identifiers of the folder and
+   * its child folders, and leaves folders with a similar name alone.
+   */
+  public void testRenameFolderIds() throws Exception
+  {
+    final FolderIds folders = new FolderIds( directory.getPath(), "alice/" );
+    final String work = folders.getId( "Work" );
+    final String child = folders.getId( "Work/Reports" );
+    final String sibling = folders.getId( "Workshop" );
+    assertTrue( "Ensure prefix used", work.startsWith( "alice/" ) );
+
+    folders.rename( "Work", "Archive/Work", SEPARATOR );
+
+    final FolderIds loaded = new FolderIds( directory.getPath(), "alice/" );
+    assertEquals( "Ensure id kept", work, loaded.lookupId( "Archive/Work" ) );
+    assertEquals( "Ensure child id kept", child,
+        loaded.lookupId( "Archive/Work/Reports" ) );
+    assertEquals( "Ensure name updated", "Archive/Work/Reports",
+        loaded.getName( child ) );
+    assertNull( "Ensure old name removed", loaded.lookupId( "Work" ) );
+    assertEquals( "Ensure similar folder untouched", sibling,
+        loaded.lookupId( "Workshop" ) );
+    assertFalse( "Ensure new folders get new ids",
+        work.equals( loaded.getId( "Work" ) ) );
+  }
+
+  /**
+   * Test that renaming a folder moves the checkpoints of the folder and
+   * its child folders.
+   */
+  public void testRenameCheckpoints() throws Exception
+  {
+    final FolderCheckpoints checkpoints =
+      new FolderCheckpoints( directory.getPath() );
+    checkpoints.put( "Work",
+        new FolderCheckpoints.Checkpoint( 7, 120, 100, 50, 1000 ) );
+    checkpoints.put( "Work/Reports",
+        new FolderCheckpoints.Checkpoint( 8, 30, 30 ) );
+    checkpoints.put( "Workshop",
+        new FolderCheckpoints.Checkpoint( 9, 10, 10 ) );
+
+    checkpoints.rename( "Work", "Archive/Work", SEPARATOR );
+
+    final FolderCheckpoints loaded =
+      new FolderCheckpoints( directory.getPath() );
+    assertNull( "Ensure old checkpoint removed", loaded.get( "Work" ) );
+    assertNull( "Ensure old child checkpoint removed",
+        loaded.get( "Work/Reports" ) );
+
+    final FolderCheckpoints.Checkpoint work = loaded.get( "Archive/Work" );
+    assertNotNull( "Ensure checkpoint moved", work );
+    assertEquals( "Ensure uid validity kept", 7, work.uidValidity );
+    assertEquals( "Ensure high uid kept", 120, work.highUid );
+    assertEquals( "Ensure low uid kept", 50, work.lowUid );
+    assertFalse( "Ensure backfill state kept", work.isComplete() );
+    assertEquals( "Ensure child checkpoint moved", 8,
+        loaded.get( "Archive/Work/Reports" ).uidValidity );
+    assertEquals( "Ensure similar folder untouched", 9,
+        loaded.get( "Workshop" ).uidValidity );
+  }
+}
@@ -0,0 +1,100 @@
+package com.sptci.mail;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for replaying and coalescing the records of the index journal.
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+public class IndexJournalTest extends DirectoryTestCase
+{
+  private static final String[] DEINDEX = { "deindex", "1/5/10" };
+  private static final String[] MOVE = { "move", "Drafts", "Sent\tItems" };
+
+  public static Test suite()
+  {
+    return new TestSuite( IndexJournalTest.class );
+  }
+
+  /**
+   * Test that the records left by a session are replayed in order by the
+   * next session, and only once.
+   */
+  public void testReplay() throws Exception
+  {
+    final IndexJournal journal = new IndexJournal( directory.getPath() );
+    journal.append( DEINDEX );
+    journal.append( MOVE );
+    journal.append( new String[] { "copy", null, "INBOX" } );
+
+    final List<String[]> records =
+      new IndexJournal( directory.getPath() ).drain();
+    assertEquals( "Ensure all records replayed", 3, records.size() );
+    assertTrue( "Ensure order", Arrays.equals( DEINDEX, records.get( 0 ) ) );
+    assertTrue( "Ensure fields decoded",
+        Arrays.equals( MOVE, records.get( 1 ) ) );
+    assertEquals( "Ensure null field read as empty", "", records.get( 2 )[1] );
+
+    assertTrue( "Ensure drained records not replayed again",
+        new IndexJournal( directory.getPath() ).drain().isEmpty() );
+  }
+
+  /**
+   * Test that finishing a task removes the identical records that were
+   * coalesced with it, but not those appended after it started.
+   */
+  public void testCoalescedRecordsFinished() throws Exception
+  {
+    final IndexJournal journal = new IndexJournal( directory.getPath() );
+    journal.append( MOVE );
+    final long id = journal.append( MOVE );
+    journal.append( DEINDEX );
+    final long started = journal.getSequence();
+    journal.append( MOVE );
+
+    journal.finish( id, started );
+    journal.commit();
+
+    final List<String[]> records =
+      new IndexJournal( directory.getPath() ).drain();
+    assertEquals( "Ensure coalesced records removed", 2, records.size() );
+    assertTrue( "Ensure other record kept",
+        Arrays.equals( DEINDEX, records.get( 0 ) ) );
+    assertTrue( "Ensure later record kept",
+        Arrays.equals( MOVE, records.get( 1 ) ) );
+  }
+
+  /**
+   * Test that a rewritten journal left behind by a crash before it
+   * replaced the journal file is loaded.
+   */
+  public void testTempFileRecovered() throws Exception
+  {
+    final IndexJournal journal = new IndexJournal( directory.getPath() );
+    final long id = journal.append( DEINDEX );
+    journal.append( MOVE );
+    journal.finish( id, journal.getSequence() );
+    journal.commit();
+
+    final File file = new File( directory, IndexJournal.JOURNAL_FILE );
+    assertFalse( "Ensure temporary file renamed",
+        new File( file.getPath() + ".tmp" ).exists() );
+    assertTrue( "Ensure file renamed",
+        file.renameTo( new File( file.getPath() + ".tmp" ) ) );
+
+    final List<String[]> records =
+      new IndexJournal( directory.getPath() ).drain();
+    assertEquals( "Ensure records recovered", 1, records.size() );
+    assertTrue( "Ensure unfinished record recovered",
+        Arrays.equals( MOVE, records.get( 0 ) ) );
+  }
+}
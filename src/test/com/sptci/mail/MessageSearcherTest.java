@@ -163,4 +163,79 @@ public class MessageSearcherTest extends TestCase
     assertTrue( "Ensure messages within range",
         docs.size() <= ( end - start ) );
   }
+
+  /**
+   * Test fetching messages in pages using the page tokens.
+   */
+  public void testFetchPages() throws Exception
+  {
+    MailSession session = CreateMailSessionTest.session;
+    FolderManager manager = session.getFolderManager();
+    MessageSearcher searcher = session.getMessageSearcher(); 
+
+    int count = 0;
+    MessagePage page = searcher.fetchPage(
+        manager.getInbox().getFullName(), null, end, true );
+    while ( true )
+    {
+      assertTrue( "Ensure messages within page size",
+          page.getMessages().size() <= end );
+      count += page.getMessages().size();
+      if ( ! page.hasNext() ) break;
+
+      page = searcher.fetchPage(
+          manager.getInbox().getFullName(), page.getNext(), end, true );
+    }
+
+    assertEquals( "Ensure message count same in paged view",
+        count, messageCount );
+  }
+
+  /**
+   * Test fetching message summaries sorted by date and within range.
+   */
+  public void testFetchSummaries() throws Exception
+  {
+    MailSession session = CreateMailSessionTest.session;
+    FolderManager manager = session.getFolderManager();
+    MessageSearcher searcher = session.getMessageSearcher(); 
+    Collection<MessageSummary> summaries = searcher.fetchSummaries(
+        manager.getInbox().getFullName(),
+        SortFields.dateSort, start, end );
+
+    assertTrue( "Ensure summaries found in inbox", summaries.size() > 0 );
+    assertTrue( "Ensure summaries within range",
+        summaries.size() <= ( end - start ) );
+
+    for ( MessageSummary summary : summaries )
+    {
+      assertNotNull( "Ensure summary has folder", summary.getFolder() );
+      assertNotNull( "Ensure summary has sender", summary.getSender() );
+    }
+  }
+
+  /**
+   * Test counting search results by folder and month.
+   */
+  public void testSearchWithFacets() throws Exception
+  {
+    MailSession session = CreateMailSessionTest.session;
+    FolderManager manager = session.getFolderManager();
+    MessageSearcher searcher = session.getMessageSearcher(); 
+
+    MessageSearcher.SearchConditions conditions =
+      new MessageSearcher.SearchConditions();
+    conditions.setSort( SortFields.dateSort );
+    conditions.addFacet( Facets.folder );
+    conditions.addFacet( Facets.month );
+    FacetedResults results = searcher.searchWithFacets( conditions, start, end );
+
+    assertTrue( "Ensure messages found", results.getTotalHits() > 0 );
+    assertTrue( "Ensure summaries within range",
+        results.getMessages().size() <= ( end - start ) );
+    assertTrue( "Ensure inbox counted", results.getCounts( Facets.folder )
+        .containsKey( manager.getInbox().getFullName() ) );
+    assertFalse( "Ensure months counted",
+        results.getCounts( Facets.month ).isEmpty() );
+  }
 }
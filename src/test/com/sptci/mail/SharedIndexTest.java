@@ -0,0 +1,129 @@
+package com.sptci.mail;
+
+import java.io.File;
+
+import static junit.framework.Assert.*;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+
+/**
+ * Unit test for searches against an index shared by several users.  The
+ * index is built directly, hence the test does not need a mail store.
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+public class SharedIndexTest extends DirectoryTestCase
+{
+  private MessageSearcher alice;
+  private MessageSearcher bob;
+
+  public static Test suite()
+  {
+    return new TestSuite( SharedIndexTest.class );
+  }
+
+  /**
+   * Create a shared index with messages for two users.  One of the
+   * messages of <code>bob</code> uses the folder identifier of the inbox
+   * of <code>alice</code>, so that only the user filter tells them apart.
+   */
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    final File index = new File( directory, "search" );
+    index.mkdirs();
+
+    new File( directory, "alice" ).mkdirs();
+    new File( directory, "bob" ).mkdirs();
+    final FolderIds aliceIds =
+      new FolderIds( new File( directory, "alice" ).getPath(), "alice/" );
+    final FolderIds bobIds =
+      new FolderIds( new File( directory, "bob" ).getPath(), "bob/" );
+    final String aliceInbox = aliceIds.getId( "INBOX" );
+
+    final IndexWriter writer =
+      new IndexWriter( index, new StandardAnalyzer(), true );
+    writer.addDocument( createDocument( "alice", aliceInbox, "1",
+          "quarterly report" ) );
+    writer.addDocument( createDocument( "alice", aliceIds.getId( "Sent" ),
+          "2", "quarterly report draft" ) );
+    writer.addDocument( createDocument( "bob", bobIds.getId( "INBOX" ),
+          "1", "quarterly report" ) );
+    writer.addDocument( createDocument( "bob", aliceInbox, "2",
+          "quarterly report copy" ) );
+    writer.close();
+
+    alice = new MessageSearcher( index.getPath(), null, aliceIds, "alice" );
+    bob = new MessageSearcher( index.getPath(), null, bobIds, "bob" );
+  }
+
+  /**
+   * Test that a search across all folders returns only the messages of
+   * the user.
+   */
+  public void testSearchAllFolders() throws Exception
+  {
+    final MessageSearcher.SearchConditions conditions =
+      new MessageSearcher.SearchConditions();
+    conditions.setText( "quarterly" );
+    conditions.setSubject( true );
+
+    assertEquals( "Ensure only messages of alice found",
+        2, alice.searchDocuments( conditions ).size() );
+    assertEquals( "Ensure only messages of bob found",
+        2, bob.searchDocuments( conditions ).size() );
+  }
+
+  /**
+   * Test that a search restricted to a folder returns only the messages
+   * of the user, even if another user has documents with the same folder
+   * identifier.
+   */
+  public void testSearchFolder() throws Exception
+  {
+    final MessageSearcher.SearchConditions conditions =
+      new MessageSearcher.SearchConditions();
+    conditions.setFolder( "INBOX" );
+    conditions.setText( "quarterly" );
+    conditions.setSubject( true );
+
+    assertEquals( "Ensure only inbox of alice found",
+        1, alice.searchDocuments( conditions ).size() );
+    assertEquals( "Ensure only inbox of bob found",
+        1, bob.searchDocuments( conditions ).size() );
+  }
+
+  /**
+   * Test that the message counts for a folder include only the messages
+   * of the user.
+   */
+  public void testFolderCount() throws Exception
+  {
+    assertEquals( "Ensure count for alice", 1,
+        alice.fetchMessageCount( "INBOX" ) );
+    assertEquals( "Ensure count for bob", 1,
+        bob.fetchMessageCount( "INBOX" ) );
+  }
+
+  private static Document createDocument( final String user,
+      final String folder, final String uid, final String subject )
+  {
+    final Document document = new Document();
+    document.add( new Field( Fields.uniqueId.toString(), uid,
+          Field.Store.YES, Field.Index.TOKENIZED ) );
+    document.add( new Field( Fields.subject.toString(), subject,
+          Field.Store.YES, Field.Index.TOKENIZED ) );
+    document.add( new Field( KeyFields.folderKey.toString(), folder,
+          Field.Store.NO, Field.Index.UN_TOKENIZED ) );
+    document.add( new Field( KeyFields.userKey.toString(), user,
+          Field.Store.NO, Field.Index.UN_TOKENIZED ) );
+    return document;
+  }
+}
@@ -0,0 +1,151 @@
+package com.sptci.mail;
+
+import java.io.File;
+
+import static junit.framework.Assert.*;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+
+/**
+ * Unit test for leasing and evicting the writers in the writer pool.
+ *
+ * <p>&copy; Copyright 2026 <a href='http://sptci.com/' target='_new'>Sans Pareil Technologies, Inc</a>.</p>
+ * @author Rakesh Vidyadharan 2026-10-17
+ * @version $Id$
+ */
+public class WriterPoolTest extends DirectoryTestCase
+{
+  private File first;
+  private File second;
+  private File third;
+
+  public static Test suite()
+  {
+    return new TestSuite( WriterPoolTest.class );
+  }
+
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    first = new File( directory, "first" );
+    second = new File( directory, "second" );
+    third = new File( directory, "third" );
+  }
+
+  /**
+   * Test that concurrent leases share the same writer.
+   */
+  public void testLeasesShareWriter() throws Exception
+  {
+    final WriterPool pool = new WriterPool( 2, 0, 0 );
+    final IndexWriter writer = acquire( pool, first );
+    assertSame( "Ensure writer shared", writer, acquire( pool, first ) );
+    assertSame( "Ensure open writer leased", writer,
+        pool.acquireIfOpen( first ) );
+
+    pool.release( first );
+    pool.release( first );
+    pool.release( first );
+    assertTrue( "Ensure writer closed", pool.close( first ) );
+    assertUnlocked( first );
+  }
+
+  /**
+   * Test that the least recently used unleased writer is closed when the
+   * pool is full.
+   */
+  public void testEvictLeastRecentlyUsed() throws Exception
+  {
+    final WriterPool pool = new WriterPool( 2, 0, 0 );
+    acquire( pool, first );
+    pool.release( first );
+    acquire( pool, second );
+    pool.release( second );
+    acquire( pool, third );
+    pool.release( third );
+
+    assertNull( "Ensure first writer evicted", pool.acquireIfOpen( first ) );
+    assertUnlocked( first );
+    assertNotNull( "Ensure second writer open", pool.acquireIfOpen( second ) );
+    pool.release( second );
+  }
+
+  /**
+   * Test that a leased writer is not evicted, and is closed once released
+   * if the pool is still full.
+   */
+  public void testLeasedWriterNotEvicted() throws Exception
+  {
+    final WriterPool pool = new WriterPool( 1, 0, 0 );
+    acquire( pool, first );
+    acquire( pool, second );
+
+    assertNotNull( "Ensure leased writer open", pool.acquireIfOpen( first ) );
+    pool.release( first );
+    pool.release( first );
+
+    assertNull( "Ensure released writer evicted", pool.acquireIfOpen( first ) );
+    assertUnlocked( first );
+    pool.release( second );
+  }
+
+  /**
+   * Test that closing a leased writer defers the close to the last
+   * release.
+   */
+  public void testCloseLeasedWriter() throws Exception
+  {
+    final WriterPool pool = new WriterPool( 2, 0, 0 );
+    final IndexWriter writer = acquire( pool, first );
+    assertFalse( "Ensure close deferred", pool.close( first ) );
+
+    writer.flush();
+    assertSame( "Ensure writer usable by lease", writer,
+        pool.acquireIfOpen( first ) );
+    pool.release( first );
+    assertNotNull( "Ensure writer open while leased",
+        pool.acquireIfOpen( first ) );
+    pool.release( first );
+    pool.release( first );
+
+    assertNull( "Ensure writer closed on release",
+        pool.acquireIfOpen( first ) );
+    assertUnlocked( first );
+  }
+
+  /**
+   * Test that a writer that is leased again after being closed is kept
+   * open.
+   */
+  public void testReacquireClosedWriter() throws Exception
+  {
+    final WriterPool pool = new WriterPool( 2, 0, 0 );
+    acquire( pool, first );
+    assertFalse( "Ensure close deferred", pool.close( first ) );
+    acquire( pool, first );
+    pool.release( first );
+    pool.release( first );
+
+    assertNotNull( "Ensure writer kept open", pool.acquireIfOpen( first ) );
+    pool.release( first );
+    assertTrue( "Ensure writer closed", pool.close( first ) );
+  }
+
+  private static IndexWriter acquire( final WriterPool pool,
+      final File directory ) throws Exception
+  {
+    return pool.acquire( directory, directory.getPath() );
+  }
+
+  /**
+   * Assert that the write lock of the index is not held, by opening a
+   * writer of its own.
+   */
+  private static void assertUnlocked( final File directory ) throws Exception
+  {
+    new IndexWriter( directory, new StandardAnalyzer(), false ).close();
+  }
+}